@@ -0,0 +1,262 @@
+/*
+ */
+package benchmarks;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import rosbagreader.RosbagWriter;
+
+/**
+ * Writes synthetic bags of a given size for the benchmarks. Every topic
+ * publishes messages of one size at one rate, the messages of all the
+ * topics are written ordered by time. The messages are of the type
+ * uint8[] data, their bytes are blocks of random bytes each followed by its
+ * copy, so they can be compressed to about a half, like sensor data.
+ * <p>
+ * Usage: {@code BagGenerator file sizeMB [shape|topics] [compression] [chunkKB]},
+ * where the shape is one of {@link #SHAPES} and the topics are given
+ * as {@code name:bytes:hz,...}, e.g. {@code /camera:300000:30,/imu:64:400}.
+ *
+ * @author Tomas Prochazka
+ */
+public class BagGenerator {
+
+    /**
+     * Predefined topic mixes.
+     */
+    public static final String[] SHAPES = {"navdata", "camera", "mixed"};
+
+    private static final String TYPE = "benchmarks/Synthetic";
+    private static final String DEFINITION = "uint8[] data\n";
+
+    private final List<Topic> topics = new ArrayList<>();
+    private long size = 64L * 1024 * 1024;
+    private String compression = "none";
+    private int chunkSize = RosbagWriter.DEFAULT_CHUNK_SIZE;
+    private long seed = 42;
+
+    /**
+     * Adds a topic.
+     *
+     * @param name
+     * @param messageSize size of the message data in bytes
+     * @param rate messages per second
+     */
+    public void addTopic(String name, int messageSize, double rate) {
+        if (messageSize < 8 || rate <= 0) {
+            throw new IllegalArgumentException("Topic " + name + " needs at least 8 bytes and a positive rate.");
+        }
+        topics.add(new Topic(name, messageSize, rate));
+    }
+
+    /**
+     * Adds the topics of one of the {@link #SHAPES}.
+     *
+     * @param shape
+     */
+    public void addShape(String shape) {
+        switch (shape) {
+            case "navdata":
+                addTopic("/ardrone/navdata", 360, 200);
+                addTopic("/imu/data", 320, 400);
+                addTopic("/tf", 140, 100);
+                break;
+            case "camera":
+                addTopic("/camera/image_raw", 640 * 360 * 3, 30);
+                addTopic("/tf", 140, 100);
+                break;
+            case "mixed":
+                addTopic("/camera/image_raw", 640 * 360 * 3, 15);
+                addTopic("/velodyne_points", 120_000, 10);
+                addTopic("/ardrone/navdata", 360, 200);
+                addTopic("/imu/data", 320, 400);
+                addTopic("/tf", 140, 100);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * Adds topics given as name:bytes:hz separated by commas.
+     *
+     * @param spec
+     */
+    public void addTopics(String spec) {
+        for (String topic : spec.split(",")) {
+            String[] parts = topic.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Topic should be given as name:bytes:hz, not " + topic);
+            }
+            addTopic(parts[0], Integer.parseInt(parts[1]), Double.parseDouble(parts[2]));
+        }
+    }
+
+    /**
+     * Sets the total size of the message data, the file is a bit larger
+     * (or smaller if the chunks are compressed).
+     *
+     * @param size in bytes
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @param compression none, bz2 or lz4
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the bag. The file is written under a temporary name and renamed
+     * at the end, so an interrupted run does not leave an incomplete bag.
+     *
+     * @param file
+     * @return number of written messages
+     * @throws IOException
+     */
+    public long write(Path file) throws IOException {
+        if (topics.isEmpty()) {
+            throw new IllegalStateException("No topics have been added.");
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        long messages = 0;
+        try {
+            try (RosbagWriter writer = new RosbagWriter(temp, compression)) {
+                writer.setChunkSize(chunkSize);
+                Random random = new Random(seed);
+                String md5sum = md5(DEFINITION);
+                for (Topic topic : topics) {
+                    topic.connection = writer.addConnection(topic.name, TYPE, md5sum, DEFINITION);
+                    topic.data = topic.createData(random);
+                    topic.count = 0;
+                    topic.nextTime = 0;
+                }
+                long start = 1_500_000_000_000_000_000L;
+                long written = 0;
+                while (written < size) {
+                    Topic next = topics.get(0);
+                    for (Topic topic : topics) {
+                        if (topic.nextTime < next.nextTime) {
+                            next = topic;
+                        }
+                    }
+                    //the first bytes after the array length differ in every message
+                    ByteBuffer.wrap(next.data).order(ByteOrder.LITTLE_ENDIAN).putInt(4, (int) next.count);
+                    writer.write(next.connection, start + next.nextTime, next.data, 0, next.data.length);
+                    written += next.data.length;
+                    next.count++;
+                    next.nextTime = (long) (next.count * 1e9 / next.rate);
+                    messages++;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return messages;
+    }
+
+    private static String md5(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+            return String.format("%032x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Topic of the generated bag and the state of its messages.
+     */
+    private static class Topic {
+
+        private final String name;
+        private final int messageSize;
+        private final double rate;
+        private int connection;
+        private byte[] data;
+        private long count;
+        private long nextTime;
+
+        Topic(String name, int messageSize, double rate) {
+            this.name = name;
+            this.messageSize = messageSize;
+            this.rate = rate;
+        }
+
+        /**
+         * Serialized uint8[] data: the length of the array and the bytes.
+         * (Data with many short repetitions, e.g. every other byte random,
+         * would make the lz4 compression of commons-compress very slow.)
+         */
+        byte[] createData(Random random) {
+            byte[] bytes = new byte[messageSize];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(messageSize - 4);
+            for (int i = 4; i < bytes.length; i++) {
+                bytes[i] = (i - 4) % 4096 < 2048 ? (byte) random.nextInt() : bytes[i - 2048];
+            }
+            return bytes;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BagGenerator file sizeMB [shape|name:bytes:hz,...] [compression] [chunkKB]");
+            System.exit(1);
+        }
+        BagGenerator generator = new BagGenerator();
+        generator.setSize(Long.parseLong(args[1]) * 1024 * 1024);
+        String topics = args.length > 2 ? args[2] : "mixed";
+        if (topics.contains(":")) {
+            generator.addTopics(topics);
+        } else {
+            generator.addShape(topics);
+        }
+        if (args.length > 3) {
+            generator.setCompression(args[3]);
+        }
+        if (args.length > 4) {
+            generator.setChunkSize(Integer.parseInt(args[4]) * 1024);
+        }
+        long start = System.nanoTime();
+        long messages = generator.write(Paths.get(args[0]));
+        System.out.printf("%d messages written in %.1f s%n", messages, (System.nanoTime() - start) / 1e9);
+    }
+
+}
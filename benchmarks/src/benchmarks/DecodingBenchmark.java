@@ -0,0 +1,90 @@
+/*
+ */
+package benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import support.BufferByteSource;
+import support.ByteSource;
+import support.StreamByteSource;
+
+/**
+ * Decoding of little-endian primitives: the original path (an array and
+ * a shared ByteBuffer round-trip per value) compared with the stream and
+ * buffer sources which decode the values in place.
+ * Each benchmark decodes pairs of int32 and float64 values.
+ *
+ * @author Tomas Prochazka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodingBenchmark {
+
+    @Param({"100000"})
+    public int count;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        ByteBuffer b = ByteBuffer.allocate(count * 12).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            b.putInt(random.nextInt()).putDouble(random.nextDouble());
+        }
+        data = b.array();
+    }
+
+    @Benchmark
+    public double legacyReaderSupport() throws Exception {
+        //the original RosbagReader wrapped the stream in a BufferedInputStream
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+        LegacyReaderSupport support = new LegacyReaderSupport();
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += support.readLittleEndianInt(in);
+            sum += support.readLittleEndianDouble(in);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double streamSource() throws Exception {
+        return decode(new StreamByteSource(new ByteArrayInputStream(data)));
+    }
+
+    @Benchmark
+    public double bufferSource() throws Exception {
+        return decode(new BufferByteSource(ByteBuffer.wrap(data)));
+    }
+
+    private double decode(ByteSource source) throws Exception {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += source.readLittleEndianInt();
+            sum += source.readLittleEndianDouble();
+        }
+        return sum;
+    }
+
+}
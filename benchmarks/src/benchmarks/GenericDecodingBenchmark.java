@@ -0,0 +1,88 @@
+/*
+ */
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rosbagreader.GenericMessage;
+import rosbagreader.MessageDecoder;
+import rosbagreader.MessageDefinition;
+import rosbagreader.RosMessageData;
+import rosbagreader.RosStandardMessageHeader;
+import support.BufferByteSource;
+
+/**
+ * Decoding of a geometry_msgs/PoseStamped-like message by the decoder
+ * compiled from the message definition compared with hand-written reads.
+ *
+ * @author Tomas Prochazka
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenericDecodingBenchmark {
+
+    private static final String DEFINITION = "Header header\n"
+            + "Point position\n"
+            + "float64[4] orientation\n"
+            + "================================================================================\n"
+            + "MSG: std_msgs/Header\n"
+            + "uint32 seq\n"
+            + "time stamp\n"
+            + "string frame_id\n"
+            + "================================================================================\n"
+            + "MSG: geometry_msgs/Point\n"
+            + "float64 x\n"
+            + "float64 y\n"
+            + "float64 z\n";
+
+    private ByteBuffer data;
+    private MessageDecoder decoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        data = ByteBuffer.allocate(4 + 8 + 4 + 3 + 7 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(1).putInt(2).putInt(3).putInt(3).put((byte) 'm').put((byte) 'a').put((byte) 'p');
+        for (int i = 0; i < 7; i++) {
+            data.putDouble(i);
+        }
+        data.flip();
+        decoder = MessageDecoder.compile(MessageDefinition.parse("geometry_msgs/PoseStamped", DEFINITION));
+    }
+
+    private RosMessageData message() {
+        return new RosMessageData(data.remaining(), new BufferByteSource(data), new HashMap<String, byte[]>(), "/pose", null);
+    }
+
+    @Benchmark
+    public GenericMessage compiled() throws Exception {
+        return decoder.decode(message());
+    }
+
+    @Benchmark
+    public double handWritten() throws Exception {
+        RosMessageData m = message();
+        RosStandardMessageHeader header = m.readMessageHeader();
+        double sum = header.seq;
+        for (int i = 0; i < 7; i++) {
+            sum += m.readDouble();
+        }
+        return sum;
+    }
+
+}
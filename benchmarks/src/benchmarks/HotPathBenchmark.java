@@ -0,0 +1,215 @@
+/*
+ */
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rosbagreader.RosMessageData;
+import rosbagreader.RosbagReader;
+import support.BufferByteSource;
+import support.ReaderSupport;
+
+/**
+ * The paths every record or message goes through, each measured over
+ * synthetic data in memory: record headers, the stream decoding
+ * of ReaderSupport, skipping, and the RosMessageData readers of strings,
+ * float arrays and std_msgs/Header. One operation processes
+ * {@code count} records (or values), run with {@code -prof gc}
+ * to see the allocation rate of each path.
+ *
+ * @author Tomas Prochazka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HotPathBenchmark {
+
+    @Param({"1000"})
+    public int count;
+
+    private final ReaderSupport readerSupport = new ReaderSupport();
+    private BufferByteSource bag;
+    private RosbagReader reader;
+    private long headersPosition;
+    private int headerLength;
+    private ByteArrayInputStream values;
+    private byte[] strings;
+    private byte[] floatArrays;
+    private byte[] messageHeaders;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        //bag header followed by the headers of message records
+        ByteBuffer b = ByteBuffer.allocate(1024 + count * 64).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("#ROSBAG V2.0\n".getBytes(StandardCharsets.US_ASCII));
+        int start = b.position();
+        b.putInt(0);
+        putField(b, "op", new byte[]{0x03});
+        putField(b, "index_pos", new byte[8]);
+        putField(b, "conn_count", new byte[4]);
+        putField(b, "chunk_count", new byte[4]);
+        b.putInt(start, b.position() - start - 4);
+        b.putInt(0);
+        headersPosition = b.position();
+        for (int i = 0; i < count; i++) {
+            int headerStart = b.position();
+            putField(b, "op", new byte[]{0x02});
+            putField(b, "conn", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(i % 8).array());
+            putField(b, "time", ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(1500000000 + i).putInt(i).array());
+            headerLength = b.position() - headerStart;
+        }
+        bag = new BufferByteSource(ByteBuffer.wrap(b.array(), 0, b.position()).slice());
+        reader = new RosbagReader(bag);
+
+        ByteBuffer v = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+        while (v.hasRemaining()) {
+            v.putDouble(random.nextDouble());
+        }
+        values = new ByteArrayInputStream(v.array());
+
+        ByteBuffer s = ByteBuffer.allocate(count * 32).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            putString(s, "/base_link/" + i);
+        }
+        strings = toArray(s);
+
+        ByteBuffer f = ByteBuffer.allocate(count * (4 + 64 * 4)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            f.putInt(64);
+            for (int j = 0; j < 64; j++) {
+                f.putFloat(random.nextFloat());
+            }
+        }
+        floatArrays = toArray(f);
+
+        ByteBuffer h = ByteBuffer.allocate(count * 48).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            h.putInt(i).putInt(1500000000 + i).putInt(i);
+            putString(h, "ardrone_base_frontcam");
+        }
+        messageHeaders = toArray(h);
+    }
+
+    private static void putField(ByteBuffer b, String name, byte[] value) {
+        b.putInt(name.length() + 1 + value.length);
+        b.put((name + "=").getBytes(StandardCharsets.US_ASCII));
+        b.put(value);
+    }
+
+    private static void putString(ByteBuffer b, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        b.putInt(bytes.length);
+        b.put(bytes);
+    }
+
+    private static byte[] toArray(ByteBuffer b) {
+        byte[] bytes = new byte[b.position()];
+        b.flip();
+        b.get(bytes);
+        return bytes;
+    }
+
+    private static RosMessageData message(byte[] data) {
+        return new RosMessageData(data.length, new BufferByteSource(ByteBuffer.wrap(data)), null, "/benchmark", null);
+    }
+
+    @Benchmark
+    public int readHeader() throws Exception {
+        bag.seek(headersPosition);
+        int fields = 0;
+        for (int i = 0; i < count; i++) {
+            fields += reader.readHeader(headerLength).size();
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public long readLittleEndianInt() throws Exception {
+        values.reset();
+        long sum = 0;
+        for (int i = 0; i < 2 * count; i++) {
+            sum += readerSupport.readLittleEndianInt(values);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double readLittleEndianFloat() throws Exception {
+        values.reset();
+        double sum = 0;
+        for (int i = 0; i < 2 * count; i++) {
+            sum += readerSupport.readLittleEndianFloat(values);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double readLittleEndianDouble() throws Exception {
+        values.reset();
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += readerSupport.readLittleEndianDouble(values);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public boolean skipExactCount() throws Exception {
+        values.reset();
+        boolean res = true;
+        for (int i = 0; i < count; i++) {
+            res &= readerSupport.skipExactCount(values, 8);
+        }
+        return res;
+    }
+
+    @Benchmark
+    public int readString() throws Exception {
+        RosMessageData message = message(strings);
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length += message.readString().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public double readFloatArray() throws Exception {
+        RosMessageData message = message(floatArrays);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += message.readFloatArray()[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readMessageHeader() throws Exception {
+        RosMessageData message = message(messageHeaders);
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += message.readMessageHeader().seq;
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ */
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Copy of the decoding methods of the original ReaderSupport, which
+ * allocated an array for every value and decoded it through one shared
+ * ByteBuffer. Used as the baseline of the benchmarks.
+ *
+ * @author Tomas Prochazka
+ */
+public class LegacyReaderSupport {
+
+    /**
+     * Buffer shared by all the functions.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(8);
+
+    public int readLittleEndianInt(InputStream input) throws IOException, UnexpectedEndOfFileException {
+        byte[] bytes = readBytesFromInputStream(4, input);
+        return readLittleEndianInt(bytes);
+    }
+
+    private byte[] readBytesFromInputStream(int bytesCount, InputStream input) throws UnexpectedEndOfFileException, IOException {
+        byte[] bytes = new byte[bytesCount];
+        if (bytesCount != input.read(bytes, 0, bytesCount)) {
+            throw new UnexpectedEndOfFileException();
+        }
+        return bytes;
+    }
+
+    public int readLittleEndianInt(byte[] bytes) {
+        resetBuffer(bytes);
+        return buffer.getInt();
+    }
+
+    public long readLittleEndianLong(InputStream input) throws IOException, UnexpectedEndOfFileException {
+        byte[] bytes = readBytesFromInputStream(8, input);
+        return readLittleEndianLong(bytes);
+    }
+
+    public long readLittleEndianLong(byte[] bytes) {
+        resetBuffer(bytes);
+        return buffer.getLong();
+    }
+
+    public double readLittleEndianDouble(byte[] bytes) {
+        resetBuffer(bytes);
+        return buffer.getDouble();
+    }
+
+    public double readLittleEndianDouble(InputStream stream) throws UnexpectedEndOfFileException, IOException {
+        byte[] bytes = readBytesFromInputStream(8, stream);
+        return readLittleEndianDouble(bytes);
+    }
+
+    public float readLittleEndianFloat(byte[] bytes) {
+        resetBuffer(bytes);
+        return buffer.getFloat();
+    }
+
+    public float readLittleEndianFloat(InputStream stream) throws UnexpectedEndOfFileException, IOException {
+        byte[] bytes = readBytesFromInputStream(4, stream);
+        return readLittleEndianFloat(bytes);
+    }
+
+    private void resetBuffer(byte[] bytes) {
+        buffer.clear();
+        buffer.put(bytes);
+        buffer.flip();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
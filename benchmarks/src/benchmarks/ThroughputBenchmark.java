@@ -0,0 +1,142 @@
+/*
+ */
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rosbagreader.RosMessageData;
+import rosbagreader.RosbagMessageDataParser;
+import rosbagreader.RosbagReader;
+
+/**
+ * Reads whole synthetic bags by parseBag and reports the throughput
+ * in MB and messages per second and the peak heap usage. The parser only
+ * counts the messages, so the results are the cost of the reader itself.
+ * <p>
+ * The bags are written by the {@link BagGenerator} into the directory given
+ * by the system property bag.dir (the temporary directory by default)
+ * and they are kept there, so a bag of tens of GB is generated only once:
+ * <pre>
+ * ant -f benchmarks/build.xml -Djmh.args="ThroughputBenchmark -p sizeMB=20000 -p shape=camera -jvmArgsAppend -Dbag.dir=/data"
+ * </pre>
+ *
+ * @author Tomas Prochazka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, batchSize = 1)
+@Measurement(iterations = 3, batchSize = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+
+    @Param({"navdata", "camera", "mixed"})
+    public String shape;
+
+    @Param({"256"})
+    public long sizeMB;
+
+    @Param({"none", "lz4"})
+    public String compression;
+
+    @Param({"768"})
+    public int chunkKB;
+
+    private Path bag;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Paths.get(System.getProperty("bag.dir", System.getProperty("java.io.tmpdir")));
+        bag = directory.resolve("synthetic-" + shape + "-" + sizeMB + "MB-" + compression + "-" + chunkKB + "k.bag");
+        if (!Files.exists(bag)) {
+            BagGenerator generator = new BagGenerator();
+            generator.addShape(shape);
+            generator.setSize(sizeMB * 1024 * 1024);
+            generator.setCompression(compression);
+            generator.setChunkSize(chunkKB * 1024);
+            generator.write(bag);
+        }
+    }
+
+    /**
+     * Counters reported per second (MB, messages) and per iteration
+     * (peak heap in MB).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public double megabytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            messages = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        public double peakHeapMB;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            peakHeapMB = 0;
+        }
+
+        void update() {
+            long used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    used += pool.getPeakUsage().getUsed();
+                }
+            }
+            peakHeapMB = Math.max(peakHeapMB, used / (1024.0 * 1024.0));
+        }
+    }
+
+    @Benchmark
+    public long parseBag(Counters counters, Heap heap) throws Exception {
+        final long[] total = new long[2];
+        try (RosbagReader reader = new RosbagReader(bag)) {
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) {
+                    total[0] += message.getRecordLength();
+                    total[1]++;
+                }
+            });
+        }
+        counters.megabytes += total[0] / (1024.0 * 1024.0);
+        counters.messages += total[1];
+        heap.update();
+        return total[0];
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ */
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rosbagreader.RosbagWriter;
+
+/**
+ * Writes a bag of 64 MB of uncompressed message data (1 kB messages),
+ * the throughput is 64 MB divided by the time of one operation.
+ *
+ * @author Tomas Prochazka
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class WriterBenchmark {
+
+    private static final int MESSAGES = 64 * 1024;
+
+    @Param({"none", "lz4"})
+    public String compression;
+
+    private Path file;
+    private byte[] message;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = Files.createTempFile("benchmark", ".bag");
+        message = new byte[1024];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (i % 7 == 0 ? i : 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        try (RosbagWriter writer = new RosbagWriter(file, compression)) {
+            int conn = writer.addConnection("/camera", "sensor_msgs/CompressedImage", "8f7a12909da2c9d3332d540a0977563f", "uint8[] data\n");
+            long time = 1_500_000_000_000_000_000L;
+            for (int i = 0; i < MESSAGES; i++) {
+                writer.write(conn, time + i * 1_000_000L, message, 0, message.length);
+            }
+        }
+        return Files.size(file);
+    }
+
+}
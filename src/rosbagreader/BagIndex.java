@@ -0,0 +1,138 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Index of the ROS Bag file. Contains the connection records and
+ * the chunk info records stored at the end of the file (at the index_pos).
+ * Per-connection index entries (time, chunk position, offset in the chunk)
+ * are loaded from the index data records when they are needed for the first time.
+ * <p>
+ * The index is obtained by {@link RosbagReader#readIndex()}. Loading of the
+ * entries changes the position of the reader.
+ * The index can also be stored in a sidecar file, see
+ * {@link RosbagReader#readIndex(java.nio.file.Path)}.
+ * 
+ * @author Tomas Prochazka
+ */
+public class BagIndex {
+
+    private final RosbagReader reader;
+    private final Map<Integer, ConnectionInfo> connections;
+    private final List<ChunkInfo> chunks;
+    private Map<Integer, ConnectionIndex> entries;
+
+    /**
+     * @param reader reader used to load the index data records
+     * @param connections connections by their ids
+     * @param chunks chunk infos ordered by the chunk position
+     */
+    BagIndex(RosbagReader reader, Map<Integer, ConnectionInfo> connections, List<ChunkInfo> chunks) {
+        this.reader = reader;
+        this.connections = Collections.unmodifiableMap(connections);
+        this.chunks = Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Index whose entries are already known, e.g. from a sidecar index file.
+     *
+     * @param reader
+     * @param connections connections by their ids
+     * @param chunks chunk infos ordered by the chunk position
+     * @param entries index of each connection which has some messages
+     */
+    BagIndex(RosbagReader reader, Map<Integer, ConnectionInfo> connections, List<ChunkInfo> chunks, Map<Integer, ConnectionIndex> entries) {
+        this(reader, connections, chunks);
+        this.entries = entries;
+    }
+
+    /**
+     * All connections of the bag.
+     * @return 
+     */
+    public Collection<ConnectionInfo> getConnections() {
+        return connections.values();
+    }
+
+    /**
+     * @param connectionId
+     * @return null if there is no such connection.
+     */
+    public ConnectionInfo getConnection(int connectionId) {
+        return connections.get(connectionId);
+    }
+
+    /**
+     * Ids of all connections with the given topic.
+     * @param topic
+     * @return 
+     */
+    public List<Integer> getConnectionIds(String topic) {
+        List<Integer> res = new ArrayList<>();
+        for (ConnectionInfo c : connections.values()) {
+            if (c.getTopic().equals(topic)) {
+                res.add(c.getId());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Chunk infos ordered by the position of the chunk in the file.
+     * @return 
+     */
+    public List<ChunkInfo> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Index entries of the connection ordered by time.
+     * The index data records of all connections are read
+     * when this method is called for the first time.
+     * @param connectionId
+     * @return null if there is no such connection
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public synchronized ConnectionIndex getEntries(int connectionId) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (entries == null) {
+            entries = reader.readIndexEntries(chunks);
+        }
+        ConnectionIndex index = entries.get(connectionId);
+        if (index == null && connections.containsKey(connectionId)) {
+            index = new ConnectionIndex.Builder(connectionId).build();
+        }
+        return index;
+    }
+
+    /**
+     * Finds the first message of the connection whose time is not less than the given time.
+     * @param connectionId
+     * @param time
+     * @return null if there is no such message.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public IndexEntry find(int connectionId, RosTime time) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ConnectionIndex index = getEntries(connectionId);
+        return index == null ? null : index.find(time);
+    }
+
+}
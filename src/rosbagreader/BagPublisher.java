@@ -0,0 +1,244 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UncheckedRosbagException;
+
+/**
+ * Publishes the messages of a bag to reactive subscribers.
+ * <p>
+ * Every subscriber gets all the messages (of the selected topics)
+ * in the file order, see {@link RosbagReader#messages()}. The bag is read
+ * ahead of the subscriber by a task of the executor until the data of the
+ * messages waiting for delivery exceed the memory budget. Then the reading
+ * is paused until the subscriber requests and receives more messages, so
+ * a slow subscriber never makes the buffer grow over the budget (plus one
+ * chunk which is read at once). The messages are passed to
+ * {@link Flow.Subscriber#onNext(java.lang.Object)} by another task of the
+ * executor, one at a time.
+ * <p>
+ * Bags which are not indexed can be read by one subscriber at a time only.
+ *
+ * @author Tomas Prochazka
+ */
+public class BagPublisher implements Flow.Publisher<RosMessageData> {
+
+    /**
+     * Default memory budget of the read-ahead, 64 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private final RosbagReader reader;
+    private final Set<String> topics;
+    private final Executor executor;
+    private final long memoryBudget;
+
+    /**
+     * Publishes all the messages using the common fork/join pool
+     * and the default memory budget.
+     *
+     * @param reader
+     */
+    public BagPublisher(RosbagReader reader) {
+        this(reader, null, ForkJoinPool.commonPool(), DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param reader
+     * @param topics only the messages of these topics are published,
+     * null for all the messages
+     * @param executor runs the reading and the delivery
+     * @param memoryBudget maximum number of bytes of the message data which
+     * are read ahead of the subscriber
+     */
+    public BagPublisher(RosbagReader reader, Set<String> topics, Executor executor, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        }
+        this.reader = Objects.requireNonNull(reader);
+        this.topics = topics;
+        this.executor = Objects.requireNonNull(executor);
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RosMessageData> subscriber) {
+        Objects.requireNonNull(subscriber);
+        Spliterator<RosMessageData> messages;
+        try {
+            messages = (topics == null ? reader.messages() : reader.messages(topics)).spliterator();
+        } catch (IOException | RosbagException ex) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(ex);
+            return;
+        }
+        new BagSubscription(subscriber, messages).start();
+    }
+
+    /**
+     * Reads the messages of one subscriber ahead and delivers them
+     * on demand. Both the reading and the delivery run in at most
+     * one task at a time, a task is started whenever there is
+     * something new to do and no task is running.
+     */
+    private class BagSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super RosMessageData> subscriber;
+        private final Spliterator<RosMessageData> messages;
+        private final ConcurrentLinkedQueue<RosMessageData> buffer = new ConcurrentLinkedQueue<>();
+        /**
+         * Size of the data of the messages in the buffer.
+         */
+        private final AtomicLong bufferedBytes = new AtomicLong();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger readTasks = new AtomicInteger();
+        private final AtomicInteger deliveryTasks = new AtomicInteger();
+        private volatile boolean readDone;
+        private volatile Throwable readError;
+        private volatile Throwable requestError;
+        private volatile boolean cancelled;
+
+        BagSubscription(Flow.Subscriber<? super RosMessageData> subscriber, Spliterator<RosMessageData> messages) {
+            this.subscriber = subscriber;
+            this.messages = messages;
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+            scheduleRead();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("Non-positive number of messages requested: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            scheduleDelivery();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void scheduleRead() {
+            if (readTasks.getAndIncrement() == 0) {
+                executor.execute(this::readAhead);
+            }
+        }
+
+        private void scheduleDelivery() {
+            if (deliveryTasks.getAndIncrement() == 0) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Reads the messages until the buffer is full.
+         */
+        private void readAhead() {
+            int missed = 1;
+            do {
+                while (!cancelled && !readDone && bufferedBytes.get() < memoryBudget) {
+                    try {
+                        if (!messages.tryAdvance(this::enqueue)) {
+                            readDone = true;
+                        }
+                    } catch (UncheckedIOException | UncheckedRosbagException ex) {
+                        readError = ex.getCause();
+                        readDone = true;
+                    } catch (RuntimeException ex) {
+                        readError = ex;
+                        readDone = true;
+                    }
+                    if (demand.get() > 0 || readDone) {
+                        scheduleDelivery();
+                    }
+                }
+                missed = readTasks.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void enqueue(RosMessageData message) {
+            bufferedBytes.addAndGet(message.getRecordLength());
+            buffer.add(message);
+        }
+
+        /**
+         * Passes the buffered messages to the subscriber while
+         * it has some demand.
+         */
+        private void deliver() {
+            int missed = 1;
+            do {
+                if (cancelled) {
+                    buffer.clear();
+                    return;
+                }
+                if (requestError != null) {
+                    cancelled = true;
+                    subscriber.onError(requestError);
+                    return;
+                }
+                long requested = demand.get();
+                long delivered = 0;
+                while (delivered != requested && !cancelled) {
+                    RosMessageData message = buffer.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    bufferedBytes.addAndGet(-message.getRecordLength());
+                    delivered++;
+                    subscriber.onNext(message);
+                }
+                if (delivered != 0) {
+                    if (requested != Long.MAX_VALUE) {
+                        demand.addAndGet(-delivered);
+                    }
+                    scheduleRead();
+                }
+                if (readDone && buffer.isEmpty() && !cancelled) {
+                    cancelled = true;
+                    if (readError != null) {
+                        subscriber.onError(readError);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                missed = deliveryTasks.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Copies the messages of some topics and of a time window from one bag
+ * to another, without decoding the messages.
+ * <p>
+ * The chunks whose messages are all selected are copied as they are,
+ * together with their index data records, by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so their data never reach the Java heap. Only the chunks at the borders
+ * of the time window and the chunks which contain also other topics are read,
+ * and the selected message records are copied into new chunks.
+ * The connection and chunk info records are written again.
+ * <pre>
+ * try (RosbagReader reader = new RosbagReader(bag)) {
+ *     BagSlicer slicer = new BagSlicer(reader);
+ *     slicer.setTopics(topics);
+ *     slicer.setTimeRange(from, to);
+ *     slicer.slice(Paths.get("bug.bag"));
+ * }
+ * </pre>
+ * The bag must be indexed (or its index must have been read from a sidecar
+ * file by {@link RosbagReader#readIndex(java.nio.file.Path)}).
+ *
+ * @author Tomas Prochazka
+ */
+public class BagSlicer {
+
+    private final RosbagReader reader;
+    private Set<String> topics;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private String compression = ChunkPipeline.NONE;
+
+    /**
+     * @param reader reader created by {@link RosbagReader#RosbagReader(java.nio.file.Path)}
+     */
+    public BagSlicer(RosbagReader reader) {
+        if (reader.getFile() == null) {
+            throw new UnsupportedOperationException("The bag can be sliced only by a reader created by RosbagReader(Path).");
+        }
+        this.reader = reader;
+    }
+
+    /**
+     * @param topics names of the topics that should be copied, null for all
+     */
+    public void setTopics(Set<String> topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * Sets the time window of the copied messages, both ends are inclusive.
+     * Null means that the window is not limited at that end.
+     *
+     * @param from
+     * @param to
+     */
+    public void setTimeRange(RosTime from, RosTime to) {
+        this.from = from == null ? Long.MIN_VALUE : from.getTimeAsNanos();
+        this.to = to == null ? Long.MAX_VALUE : to.getTimeAsNanos();
+    }
+
+    /**
+     * Sets the compression of the new chunks, the copied chunks keep
+     * their compression.
+     *
+     * @param compression none, bz2 or lz4
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Writes the selected messages to the target bag.
+     *
+     * @param target
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException if the bag has not been indexed
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public void slice(Path target) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        BagIndex index = reader.readIndex();
+        MessageFilter filter = new MessageFilter(topics, from, to);
+        try (FileChannel source = FileChannel.open(reader.getFile(), StandardOpenOption.READ);
+                RosbagWriter writer = new RosbagWriter(target, compression)) {
+            for (ConnectionInfo connection : index.getConnections()) {
+                if (filter.acceptsTopic(connection.getTopic())) {
+                    writer.copyConnection(connection);
+                }
+            }
+            for (ChunkInfo chunk : index.getChunks()) {
+                if (!filter.acceptsChunk(chunk, index)) {
+                    continue;
+                }
+                if (acceptsAll(chunk, index, filter)) {
+                    writer.transferChunk(source, chunkRecordsLength(source, chunk), chunk);
+                    continue;
+                }
+                for (RosMessageData message : reader.readChunkMessages(chunk, filter)) {
+                    writer.write(message.getConnection().getId(), message.getTimeAsNanos(), message.readRemaining());
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether all the messages of the chunk are selected.
+     */
+    private static boolean acceptsAll(ChunkInfo chunk, BagIndex index, MessageFilter filter) {
+        if (!filter.acceptsTime(chunk.getStartTimeAsNanos()) || !filter.acceptsTime(chunk.getEndTimeAsNanos())) {
+            return false;
+        }
+        for (int i = 0; i < chunk.getConnectionCount(); i++) {
+            ConnectionInfo connection = index.getConnection(chunk.getConnectionId(i));
+            if (connection == null || !filter.acceptsTopic(connection.getTopic())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Length of the chunk record and the index data records which follow it
+     * (one for each connection in the chunk).
+     */
+    private static long chunkRecordsLength(FileChannel source, ChunkInfo chunk) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException {
+        long position = chunk.getChunkPosition();
+        for (int i = 0; i <= chunk.getConnectionCount(); i++) {
+            int headerLength = readInt(source, position);
+            if (headerLength < 0) {
+                throw new InvalidRosbagFormatException("Negative record header length at " + position + ".");
+            }
+            int dataLength = readInt(source, position + 4 + headerLength);
+            if (dataLength < 0) {
+                throw new InvalidRosbagFormatException("Negative record data length at " + position + ".");
+            }
+            position += 8L + headerLength + dataLength;
+        }
+        if (position > source.size()) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading the chunk at " + chunk.getChunkPosition() + ".");
+        }
+        return position - chunk.getChunkPosition();
+    }
+
+    private static int readInt(FileChannel source, long position) throws IOException, UnexpectedEndOfRosbagFileException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading a record length.");
+            }
+        }
+        return buffer.getInt(0);
+    }
+
+}
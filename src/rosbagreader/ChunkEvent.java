@@ -0,0 +1,41 @@
+/*
+ */
+package rosbagreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one chunk parsed by {@link RosbagReader#parseBag}.
+ * The duration contains the waiting for the decompression and the parsing
+ * of the records of the chunk, including the parser.
+ *
+ * @author Tomas Prochazka
+ */
+@Name("rosbagreader.Chunk")
+@Label("Chunk")
+@Category("Rosbag Reader")
+@Description("Parsing of the records of a chunk")
+@StackTrace(false)
+final class ChunkEvent extends jdk.jfr.Event {
+
+    @Label("Offset")
+    @Description("Position of the chunk data in the file")
+    long offset;
+
+    @Label("Compression")
+    String compression;
+
+    @Label("Compressed Size")
+    @DataAmount
+    int compressedSize;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+}
@@ -0,0 +1,99 @@
+/*
+ */
+package rosbagreader;
+
+/**
+ * Content of a chunk info record: position and time range of a chunk
+ * and number of messages of each connection in the chunk.
+ * See: http://wiki.ros.org/Bags/Format/2.0#Chunk_Info
+ *
+ * @author Tomas Prochazka
+ */
+public class ChunkInfo {
+
+    private final long chunkPosition;
+    private final long startTime;
+    private final long endTime;
+    private final int[] connectionIds;
+    private final int[] messageCounts;
+
+    /**
+     * @param chunkPosition offset of the chunk record in the file
+     * @param startTime time of the earliest message as nanoseconds
+     * @param endTime time of the latest message as nanoseconds
+     * @param connectionIds connections which have messages in the chunk
+     * @param messageCounts number of messages of the connection with the same index
+     */
+    public ChunkInfo(long chunkPosition, long startTime, long endTime, int[] connectionIds, int[] messageCounts) {
+        this.chunkPosition = chunkPosition;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.connectionIds = connectionIds;
+        this.messageCounts = messageCounts;
+    }
+
+    /**
+     * Offset of the chunk record from the beginning of the file.
+     * @return 
+     */
+    public long getChunkPosition() {
+        return chunkPosition;
+    }
+
+    public RosTime getStartTime() {
+        return RosTime.fromNanos(startTime);
+    }
+
+    public RosTime getEndTime() {
+        return RosTime.fromNanos(endTime);
+    }
+
+    public long getStartTimeAsNanos() {
+        return startTime;
+    }
+
+    public long getEndTimeAsNanos() {
+        return endTime;
+    }
+
+    /**
+     * Number of connections which have some messages in the chunk.
+     * @return 
+     */
+    public int getConnectionCount() {
+        return connectionIds.length;
+    }
+
+    /**
+     * Id of the i-th connection which has some messages in the chunk.
+     * @param i 0..getConnectionCount()-1
+     * @return 
+     */
+    public int getConnectionId(int i) {
+        return connectionIds[i];
+    }
+
+    /**
+     * Number of messages of the i-th connection in the chunk.
+     * @param i 0..getConnectionCount()-1
+     * @return 
+     */
+    public int getMessageCount(int i) {
+        return messageCounts[i];
+    }
+
+    /**
+     * Whether there is at least one message of the connection in the chunk.
+     * @param connectionId
+     * @return 
+     */
+    public boolean containsConnection(int connectionId) {
+        for (int id : connectionIds) {
+            if (id == connectionId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
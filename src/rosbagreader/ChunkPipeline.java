@@ -0,0 +1,335 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.ByteBufferInputStream;
+import support.ByteSource;
+
+/**
+ * Decompresses the compressed chunks ahead of the parsing thread.
+ * <p>
+ * The compressed data are read by the parsing thread (so the file is
+ * still read sequentially), the decompression itself runs in a pool of
+ * worker threads. The chunks are returned by {@link #take()} in the order
+ * in which they were submitted. At most {@link #isFull() capacity} chunks
+ * are decompressed in advance, the buffers of the parsed chunks are reused.
+ * <p>
+ * With 0 threads the chunks are decompressed directly in the
+ * {@link #submit} method.
+ *
+ * @author Tomas Prochazka
+ */
+class ChunkPipeline implements Closeable {
+
+    static final String NONE = "none";
+    static final String BZ2 = "bz2";
+    static final String LZ4 = "lz4";
+
+    private final int threads;
+    private final int capacity;
+    private final ArrayDeque<FutureTask<Chunk>> queue = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+    private ExecutorService executor;
+
+    /**
+     * @param threads number of decompression threads, 0 means that the
+     * chunks are decompressed by the calling thread.
+     */
+    ChunkPipeline(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Number of threads can't be negative.");
+        }
+        this.threads = threads;
+        this.capacity = Math.max(1, 2 * threads);
+    }
+
+    /**
+     * Whether the compression is supported by the pipeline.
+     *
+     * @param compression value of the compression field of a chunk
+     * @return
+     */
+    static boolean isSupported(String compression) {
+        return compression.equals(BZ2) || compression.equals(LZ4);
+    }
+
+    /**
+     * Reads the compressed data of a chunk from the source and schedules
+     * their decompression.
+     *
+     * @param source source positioned at the beginning of the chunk data
+     * @param compression
+     * @param compressedSize number of bytes of the chunk data in the source
+     * @param size size of the uncompressed data
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    void submit(ByteSource source, String compression, int compressedSize, int size) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (!isSupported(compression)) {
+            throw new UnsupportedOperationException("Chunks with compression " + compression + " not supported.");
+        }
+        long offset = source.position();
+        ByteBuffer compressed;
+        byte[] compressedArray = null;
+        try {
+            if (source.canSlice()) {
+                compressed = source.slice(compressedSize);
+            } else {
+                compressedArray = acquire(compressedSize);
+                source.readFully(compressedArray, 0, compressedSize);
+                compressed = ByteBuffer.wrap(compressedArray, 0, compressedSize);
+            }
+        } catch (UnexpectedEndOfFileException ex) {
+            release(compressedArray);
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading chunk data.");
+        }
+        FutureTask<Chunk> task = new FutureTask<>(new Decompression(offset, compression, compressed, compressedArray, size));
+        queue.add(task);
+        if (threads == 0) {
+            task.run();
+        } else {
+            executor().execute(task);
+        }
+    }
+
+    /**
+     * Whether the maximum number of chunks is being decompressed in advance.
+     * A chunk should be taken before another one is submitted.
+     *
+     * @return
+     */
+    boolean isFull() {
+        return queue.size() >= capacity;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Waits for the decompression of the oldest submitted chunk. The chunk
+     * should be returned by {@link #release(Chunk)} when it is not needed
+     * any more.
+     *
+     * @return
+     * @throws IOException
+     * @throws InvalidRosbagFormatException
+     */
+    Chunk take() throws IOException, InvalidRosbagFormatException {
+        FutureTask<Chunk> task = queue.poll();
+        if (task == null) {
+            throw new IllegalStateException("No chunk submitted.");
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the chunk decompression.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidRosbagFormatException) {
+                throw (InvalidRosbagFormatException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Chunk decompression failed.", cause);
+        }
+    }
+
+    /**
+     * Returns the buffer of the chunk to the pool.
+     *
+     * @param chunk
+     */
+    void release(Chunk chunk) {
+        release(chunk.array);
+    }
+
+    /**
+     * Decompresses the chunk data to a new buffer. Used by the threads which
+     * read the chunks directly, without the pipeline.
+     *
+     * @param compression bz2 or lz4
+     * @param compressed compressed data
+     * @param size size of the uncompressed data
+     * @return buffer containing exactly the uncompressed data
+     * @throws IOException
+     * @throws InvalidRosbagFormatException
+     */
+    static ByteBuffer decompress(String compression, ByteBuffer compressed, int size) throws IOException, InvalidRosbagFormatException {
+        if (size < 0) {
+            throw new InvalidRosbagFormatException("Chunk size can't be negative.");
+        }
+        byte[] array = new byte[size];
+        decompress(compression, compressed, array, size);
+        return ByteBuffer.wrap(array);
+    }
+
+    private static void decompress(String compression, ByteBuffer compressed, byte[] array, int size) throws IOException, InvalidRosbagFormatException {
+        DecompressEvent event = new DecompressEvent();
+        event.begin();
+        int compressedSize = compressed.remaining();
+        InputStream in = new ByteBufferInputStream(compressed);
+        in = compression.equals(BZ2) ? new BZip2CompressorInputStream(in) : new FramedLZ4CompressorInputStream(in);
+        int read = 0;
+        while (read < size) {
+            int r = in.read(array, read, size - read);
+            if (r == -1) {
+                throw new InvalidRosbagFormatException("Decompressed chunk is shorter than its declared size.");
+            }
+            read += r;
+        }
+        if (in.read() != -1) {
+            throw new InvalidRosbagFormatException("Decompressed chunk is longer than its declared size.");
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.compression = compression;
+            event.compressedSize = compressedSize;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    private synchronized byte[] acquire(int size) {
+        Iterator<byte[]> it = pool.iterator();
+        while (it.hasNext()) {
+            byte[] array = it.next();
+            if (array.length >= size) {
+                it.remove();
+                return array;
+            }
+        }
+        return new byte[size];
+    }
+
+    private synchronized void release(byte[] array) {
+        if (array != null && pool.size() < capacity * 2) {
+            pool.push(array);
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "rosbag-decompression");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Cancels the decompression of the chunks which were not taken and
+     * stops the worker threads.
+     */
+    @Override
+    public synchronized void close() {
+        for (FutureTask<Chunk> task : queue) {
+            task.cancel(false);
+        }
+        queue.clear();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Decompressed data of a chunk.
+     */
+    static final class Chunk {
+
+        private final ByteBuffer data;
+        private final byte[] array;
+        private final long offset;
+        private final String compression;
+        private final int compressedSize;
+
+        private Chunk(ByteBuffer data, byte[] array, long offset, String compression, int compressedSize) {
+            this.data = data;
+            this.array = array;
+            this.offset = offset;
+            this.compression = compression;
+            this.compressedSize = compressedSize;
+        }
+
+        /**
+         * @return buffer containing exactly the uncompressed chunk data
+         */
+        ByteBuffer getData() {
+            return data;
+        }
+
+        /**
+         * @return position of the compressed data in the source
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        String getCompression() {
+            return compression;
+        }
+
+        int getCompressedSize() {
+            return compressedSize;
+        }
+
+    }
+
+    private final class Decompression implements Callable<Chunk> {
+
+        private final long offset;
+        private final String compression;
+        private final ByteBuffer compressed;
+        private final byte[] compressedArray;
+        private final int size;
+
+        Decompression(long offset, String compression, ByteBuffer compressed, byte[] compressedArray, int size) {
+            this.offset = offset;
+            this.compression = compression;
+            this.compressed = compressed;
+            this.compressedArray = compressedArray;
+            this.size = size;
+        }
+
+        @Override
+        public Chunk call() throws IOException, InvalidRosbagFormatException {
+            if (size < 0) {
+                throw new InvalidRosbagFormatException("Chunk size can't be negative.");
+            }
+            int compressedSize = compressed.remaining();
+            byte[] array = acquire(size);
+            try {
+                decompress(compression, compressed, array, size);
+            } catch (IOException | InvalidRosbagFormatException | RuntimeException ex) {
+                release(array);
+                throw ex;
+            } finally {
+                release(compressedArray);
+            }
+            return new Chunk(ByteBuffer.wrap(array, 0, size), array, offset, compression, compressedSize);
+        }
+
+    }
+
+}
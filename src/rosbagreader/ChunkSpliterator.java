@@ -0,0 +1,111 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UncheckedRosbagException;
+
+/**
+ * Spliterator over the messages of a range of chunks of an indexed bag.
+ * The range is split on the chunk boundaries, so the chunks can be read,
+ * decompressed and parsed by several threads at once. Each chunk is read
+ * only when its first message is requested.
+ *
+ * @author Tomas Prochazka
+ */
+class ChunkSpliterator implements Spliterator<RosMessageData> {
+
+    private final RosbagReader reader;
+    private final List<ChunkInfo> chunks;
+    private final MessageFilter filter;
+    /**
+     * Messages of the chunk being traversed.
+     */
+    private Iterator<RosMessageData> current;
+    /**
+     * Index of the next chunk to be read.
+     */
+    private int next;
+    private final int end;
+
+    ChunkSpliterator(RosbagReader reader, List<ChunkInfo> chunks, MessageFilter filter) {
+        this(reader, chunks, filter, Collections.<RosMessageData>emptyIterator(), 0, chunks.size());
+    }
+
+    private ChunkSpliterator(RosbagReader reader, List<ChunkInfo> chunks, MessageFilter filter, Iterator<RosMessageData> current, int next, int end) {
+        this.reader = reader;
+        this.chunks = chunks;
+        this.filter = filter;
+        this.current = current;
+        this.next = next;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super RosMessageData> action) {
+        while (!current.hasNext()) {
+            if (next == end) {
+                return false;
+            }
+            current = readMessages(chunks.get(next++)).iterator();
+        }
+        action.accept(current.next());
+        return true;
+    }
+
+    private List<RosMessageData> readMessages(ChunkInfo chunk) {
+        try {
+            return reader.readChunkMessages(chunk, filter);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (RosbagException ex) {
+            throw new UncheckedRosbagException(ex);
+        }
+    }
+
+    /**
+     * The first half of the chunks which have not been read yet is split off,
+     * together with the remaining messages of the current chunk.
+     */
+    @Override
+    public Spliterator<RosMessageData> trySplit() {
+        int remaining = end - next;
+        if (remaining < 2) {
+            return null;
+        }
+        int middle = next + remaining / 2;
+        ChunkSpliterator prefix = new ChunkSpliterator(reader, chunks, filter, current, next, middle);
+        current = Collections.emptyIterator();
+        next = middle;
+        return prefix;
+    }
+
+    /**
+     * Number of the messages in the chunks which have not been read yet,
+     * the messages rejected by the filter are counted too.
+     */
+    @Override
+    public long estimateSize() {
+        long size = 0;
+        for (int i = next; i < end; i++) {
+            ChunkInfo chunk = chunks.get(i);
+            for (int j = 0; j < chunk.getConnectionCount(); j++) {
+                size += chunk.getMessageCount(j);
+            }
+        }
+        return current.hasNext() ? size + 1 : size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ */
+package rosbagreader;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Index of all messages of one connection ordered by time.
+ * Each entry consists of the message time, position of the chunk containing
+ * the message and offset of the message record in the chunk.
+ * Messages with a given time are found by binary search.
+ *
+ * @author Tomas Prochazka
+ */
+public class ConnectionIndex {
+
+    private final int connectionId;
+    private final LongBuffer times;
+    private final LongBuffer chunkPositions;
+    private final IntBuffer offsets;
+
+    /**
+     * Creates the index from the buffers containing the entries. The entries
+     * must be ordered by time.
+     *
+     * @param connectionId
+     * @param times message times as nanoseconds
+     * @param chunkPositions positions of the chunks containing the messages
+     * @param offsets offsets of the messages in the chunks
+     */
+    public ConnectionIndex(int connectionId, LongBuffer times, LongBuffer chunkPositions, IntBuffer offsets) {
+        if (times.remaining() != chunkPositions.remaining() || times.remaining() != offsets.remaining()) {
+            throw new IllegalArgumentException("All the buffers must have the same number of entries.");
+        }
+        this.connectionId = connectionId;
+        this.times = times.slice();
+        this.chunkPositions = chunkPositions.slice();
+        this.offsets = offsets.slice();
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * Number of messages of the connection.
+     * @return 
+     */
+    public int size() {
+        return times.limit();
+    }
+
+    public IndexEntry get(int i) {
+        return new IndexEntry(connectionId, times.get(i), chunkPositions.get(i), offsets.get(i));
+    }
+
+    public long getTimeAsNanos(int i) {
+        return times.get(i);
+    }
+
+    public long getChunkPosition(int i) {
+        return chunkPositions.get(i);
+    }
+
+    public int getOffset(int i) {
+        return offsets.get(i);
+    }
+
+    /**
+     * Finds the first message whose time is not less than the given time.
+     * @param time nanoseconds since 1970
+     * @return index of the message or size() if all messages are older.
+     */
+    public int indexOf(long time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times.get(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first message whose time is not less than the given time.
+     * @param time
+     * @return the entry or null if all messages are older.
+     */
+    public IndexEntry find(RosTime time) {
+        int i = indexOf(time.getTimeAsNanos());
+        return i < size() ? get(i) : null;
+    }
+
+    /**
+     * Collects the index entries, sorts them by time and creates the index.
+     */
+    static class Builder {
+
+        private final int connectionId;
+        private long[] times = new long[16];
+        private long[] chunkPositions = new long[16];
+        private int[] offsets = new int[16];
+        private int size;
+
+        Builder(int connectionId) {
+            this.connectionId = connectionId;
+        }
+
+        void add(long time, long chunkPosition, int offset) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                chunkPositions = Arrays.copyOf(chunkPositions, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            times[size] = time;
+            chunkPositions[size] = chunkPosition;
+            offsets[size] = offset;
+            size++;
+        }
+
+        ConnectionIndex build() {
+            if (!isSorted()) {
+                sort();
+            }
+            return new ConnectionIndex(connectionId, LongBuffer.wrap(times, 0, size), LongBuffer.wrap(chunkPositions, 0, size), IntBuffer.wrap(offsets, 0, size));
+        }
+
+        private boolean isSorted() {
+            for (int i = 1; i < size; i++) {
+                if (times[i - 1] > times[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Chunks can overlap in time, so the entries have to be sorted.
+         * The sort is stable - messages with the same time stay in the file order.
+         */
+        private void sort() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            final long[] t = times;
+            Arrays.sort(order, (a, b) -> Long.compare(t[a], t[b]));
+            long[] sortedTimes = new long[size];
+            long[] sortedPositions = new long[size];
+            int[] sortedOffsets = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedTimes[i] = times[order[i]];
+                sortedPositions[i] = chunkPositions[order[i]];
+                sortedOffsets[i] = offsets[order[i]];
+            }
+            times = sortedTimes;
+            chunkPositions = sortedPositions;
+            offsets = sortedOffsets;
+        }
+    }
+
+}
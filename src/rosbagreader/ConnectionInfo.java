@@ -0,0 +1,91 @@
+/*
+ */
+package rosbagreader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Information about one connection as stored in the connection record.
+ * See: http://wiki.ros.org/Bags/Format/2.0#Connection
+ *
+ * @author Tomas Prochazka
+ */
+public class ConnectionInfo {
+
+    private final int id;
+    private final String topic;
+    private final Map<String, byte[]> fields;
+    /**
+     * Decoder of the messages, set by {@link MessageDecoder#forConnection}.
+     */
+    volatile MessageDecoder decoder;
+
+    /**
+     * @param id unique connection id
+     * @param topic topic name from the connection record header
+     * @param fields fields of the connection record data
+     * (type, md5sum, message_definition...)
+     */
+    public ConnectionInfo(int id, String topic, Map<String, byte[]> fields) {
+        this.id = id;
+        this.topic = topic;
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Message type, e.g. sensor_msgs/Imu
+     * @return null if the connection record does not contain the type.
+     */
+    public String getType() {
+        return getField(RosbagHeaderFieldNames.TYPE);
+    }
+
+    /**
+     * The md5sum of the message type.
+     * @return 
+     */
+    public String getMd5sum() {
+        return getField(RosbagHeaderFieldNames.MD5SUM);
+    }
+
+    /**
+     * Full text of the message definition, including the definitions
+     * of the nested message types.
+     * @return 
+     */
+    public String getMessageDefinition() {
+        return getField(RosbagHeaderFieldNames.MESSAGE_DEFINITION);
+    }
+
+    /**
+     * Returns the value of a connection data field as a string.
+     * @param name
+     * @return null if the field is not present
+     */
+    public String getField(String name) {
+        byte[] value = fields.get(name);
+        if (value == null) {
+            return null;
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * All fields of the connection record data.
+     * @return 
+     */
+    public Map<String, byte[]> getFields() {
+        return fields;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connections of the bag indexed directly by their ids, with the handler
+ * registered for the topic of each connection. The topic and the handler
+ * are resolved once, when the connection is added, so the message records
+ * are dispatched by an array lookup, without boxing the id or comparing
+ * the topics.
+ * <p>
+ * The ids assigned by ROS are small (0, 1, 2...), connections with ids
+ * out of {@link #MAX_INDEXED_ID} are kept in a map.
+ * The table is copied on every change (the connections are added once
+ * and the connection records repeated in the chunks do not change it),
+ * so it can be read by several threads without locking.
+ *
+ * @author Tomas Prochazka
+ */
+class ConnectionTable {
+
+    /**
+     * The largest id of a connection stored in the array.
+     */
+    static final int MAX_INDEXED_ID = 65535;
+
+    private volatile Entry[] entries = new Entry[16];
+    private volatile Map<Integer, Entry> others = new HashMap<>();
+    private final Map<String, RosbagMessageDataParser> handlers = new HashMap<>();
+
+    /**
+     * Adds the connection or replaces the connection with the same id.
+     *
+     * @param connection
+     */
+    synchronized void put(ConnectionInfo connection) {
+        int id = connection.getId();
+        Entry entry = get(id);
+        if (entry != null && entry.connection == connection) {
+            return;
+        }
+        entry = new Entry(connection, handlers.get(connection.getTopic()));
+        if (id < 0 || id > MAX_INDEXED_ID) {
+            Map<Integer, Entry> updated = new HashMap<>(others);
+            updated.put(id, entry);
+            others = updated;
+        } else {
+            Entry[] updated = Arrays.copyOf(entries, Math.max(entries.length, id + 1));
+            updated[id] = entry;
+            entries = updated;
+        }
+    }
+
+    /**
+     * @param id connection id
+     * @return null if the connection has not been added
+     */
+    Entry get(int id) {
+        Entry[] current = entries;
+        if (id >= 0 && id < current.length) {
+            return current[id];
+        }
+        return id < 0 || id > MAX_INDEXED_ID ? others.get(id) : null;
+    }
+
+    /**
+     * Sets the handler of all the connections of the topic, including
+     * the connections added later.
+     *
+     * @param topic
+     * @param handler null to remove the handler
+     */
+    synchronized void setHandler(String topic, RosbagMessageDataParser handler) {
+        if (handler == null) {
+            handlers.remove(topic);
+        } else {
+            handlers.put(topic, handler);
+        }
+        Entry[] updated = entries.clone();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] != null && updated[i].connection.getTopic().equals(topic)) {
+                updated[i] = new Entry(updated[i].connection, handler);
+            }
+        }
+        entries = updated;
+        Map<Integer, Entry> updatedOthers = new HashMap<>(others);
+        for (Map.Entry<Integer, Entry> e : updatedOthers.entrySet()) {
+            if (e.getValue().connection.getTopic().equals(topic)) {
+                e.setValue(new Entry(e.getValue().connection, handler));
+            }
+        }
+        others = updatedOthers;
+    }
+
+    /**
+     * @return topics which have a handler
+     */
+    synchronized Set<String> getHandledTopics() {
+        return new HashSet<>(handlers.keySet());
+    }
+
+    /**
+     * Connection with the handler of its topic.
+     */
+    static final class Entry {
+
+        final ConnectionInfo connection;
+        /**
+         * Handler of the topic, null if no handler has been registered.
+         */
+        final RosbagMessageDataParser handler;
+
+        private Entry(ConnectionInfo connection, RosbagMessageDataParser handler) {
+            this.connection = connection;
+            this.handler = handler;
+        }
+
+    }
+
+}
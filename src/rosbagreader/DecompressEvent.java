@@ -0,0 +1,34 @@
+/*
+ */
+package rosbagreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the decompression of a chunk, usually recorded
+ * by a decompression thread of the {@link ChunkPipeline}.
+ *
+ * @author Tomas Prochazka
+ */
+@Name("rosbagreader.Decompress")
+@Label("Chunk Decompression")
+@Category("Rosbag Reader")
+@StackTrace(false)
+final class DecompressEvent extends jdk.jfr.Event {
+
+    @Label("Compression")
+    String compression;
+
+    @Label("Compressed Size")
+    @DataAmount
+    int compressedSize;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+}
@@ -0,0 +1,22 @@
+/*
+ */
+package rosbagreader;
+
+/**
+ * Order in which the messages parsed in parallel are passed to the parser.
+ *
+ * @author Tomas Prochazka
+ */
+public enum DeliveryOrder {
+    /**
+     * The messages are passed to the parser in the order in which they
+     * are stored in the file. The parser is called by one thread only.
+     */
+    ORDERED,
+    /**
+     * The messages are passed to the parser as soon as they are decoded,
+     * by several threads at once. The parser must be thread-safe.
+     * The messages of one chunk are still passed in the file order.
+     */
+    UNORDERED
+}
@@ -0,0 +1,521 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Decodes only the selected fields of the messages, e.g.
+ * {@code pose.pose.position.x} or {@code header.stamp}.
+ * <p>
+ * For every message type the paths are compiled into a plan: the fields
+ * which are not needed are skipped, fixed-size fields (and messages made
+ * of fixed-size fields only) by one skip of precomputed length, strings
+ * and arrays of fixed-size elements by reading only their length.
+ * The rest of the message after the last selected field is not read at all.
+ * <p>
+ * A path is a sequence of field names separated by dots. Elements of
+ * fixed-size arrays can be selected by an index, e.g.
+ * {@code pose.covariance[0]}. The path must end with a numeric, bool,
+ * time or duration field. The values are returned as doubles, times and
+ * durations in seconds.
+ *
+ * @author Tomas Prochazka
+ */
+public class FieldProjection {
+
+    private final String[] paths;
+    private final ConcurrentMap<MessageDefinition, Step[]> plans = new ConcurrentHashMap<>();
+
+    /**
+     * @param paths paths of the selected fields
+     */
+    public FieldProjection(String... paths) {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("At least one path is required.");
+        }
+        this.paths = paths.clone();
+    }
+
+    /**
+     * Paths of the selected fields in the order in which their values are
+     * returned.
+     *
+     * @return
+     */
+    public List<String> getPaths() {
+        return Arrays.asList(paths);
+    }
+
+    /**
+     * Number of the selected fields.
+     *
+     * @return
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * Decodes the selected fields of the message. The message has to be
+     * at its beginning. The decoder of its connection is used to get
+     * the message definition, see {@link MessageDecoder#forConnection}.
+     *
+     * @param message
+     * @param values the value of the i-th path is stored at index i
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException if the definition can't be parsed
+     * @throws RequiredFieldMissingRosbagException if the connection record
+     * has no type or message definition
+     * @throws IllegalArgumentException if a path does not exist in
+     * the message
+     */
+    public void decode(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException {
+        if (message.getConnection() == null) {
+            throw new IllegalStateException("The connection of the message is not known.");
+        }
+        decode(MessageDecoder.forConnection(message.getConnection()).getDefinition(), message, values);
+    }
+
+    /**
+     * Decodes the selected fields of a message with the given definition.
+     *
+     * @param definition
+     * @param message
+     * @param values the value of the i-th path is stored at index i
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if a path does not exist in
+     * the message
+     */
+    public void decode(MessageDefinition definition, RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (values.length < paths.length) {
+            throw new IllegalArgumentException("The array is too small for " + paths.length + " values.");
+        }
+        Step[] plan = plans.get(definition);
+        if (plan == null) {
+            plan = compile(definition);
+            plans.putIfAbsent(definition, plan);
+        }
+        for (Step step : plan) {
+            step.run(message, values);
+        }
+    }
+
+    /**
+     * Creates the plan of reading the selected fields of the messages
+     * with the given definition.
+     */
+    private Step[] compile(MessageDefinition definition) {
+        Selection root = new Selection();
+        for (int i = 0; i < paths.length; i++) {
+            select(root, definition, paths[i], i);
+        }
+        List<Step> steps = new ArrayList<>();
+        emitMessage(steps, definition, root);
+        //the rest of the message is skipped when the message is finished
+        while (!steps.isEmpty() && !(steps.get(steps.size() - 1) instanceof Read)) {
+            steps.remove(steps.size() - 1);
+        }
+        return steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Selected fields of a message (by their positions) or selected elements
+     * of a fixed-size array (by their indexes).
+     */
+    private static class Selection {
+
+        final Map<Integer, Selection> children = new TreeMap<>();
+        /**
+         * Indexes of the values to which a selected primitive field
+         * is stored.
+         */
+        final List<Integer> outputs = new ArrayList<>();
+
+        Selection child(int index) {
+            Selection child = children.get(index);
+            if (child == null) {
+                child = new Selection();
+                children.put(index, child);
+            }
+            return child;
+        }
+    }
+
+    private static void select(Selection root, MessageDefinition definition, String path, int output) {
+        Selection selection = root;
+        MessageDefinition.Field field = null;
+        for (String part : path.split("\\.")) {
+            if (definition == null) {
+                throw new IllegalArgumentException("Invalid path " + path + ", " + field.getName() + " is not a message.");
+            }
+            int bracket = part.indexOf('[');
+            String name = bracket == -1 ? part : part.substring(0, bracket);
+            int position = definition.indexOf(name);
+            if (position == -1) {
+                throw new IllegalArgumentException("Invalid path " + path + ", message type " + definition.getType() + " has no field " + name + ".");
+            }
+            field = definition.getFields().get(position);
+            selection = selection.child(position);
+            if (bracket != -1) {
+                if (!field.isArray() || field.getArrayLength() == -1) {
+                    throw new IllegalArgumentException("Invalid path " + path + ", only arrays of fixed size can be indexed.");
+                }
+                int index;
+                try {
+                    index = Integer.parseInt(part.substring(bracket + 1, part.length() - 1));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+                    throw new IllegalArgumentException("Invalid path " + path + ".");
+                }
+                if (index < 0 || index >= field.getArrayLength()) {
+                    throw new IllegalArgumentException("Invalid path " + path + ", index out of bounds.");
+                }
+                selection = selection.child(index);
+            } else if (field.isArray()) {
+                throw new IllegalArgumentException("Invalid path " + path + ", " + name + " is an array, an element has to be selected.");
+            }
+            definition = field.getMessage();
+        }
+        if (definition != null || "string".equals(field.getType())) {
+            throw new IllegalArgumentException("Invalid path " + path + ", the path has to end with a numeric or time field.");
+        }
+        selection.outputs.add(output);
+    }
+
+    private static void emitMessage(List<Step> steps, MessageDefinition definition, Selection selection) {
+        List<MessageDefinition.Field> fields = definition.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            MessageDefinition.Field field = fields.get(i);
+            Selection child = selection.children.get(i);
+            if (child == null) {
+                emitSkip(steps, field);
+            } else if (field.isArray()) {
+                for (int e = 0; e < field.getArrayLength(); e++) {
+                    emitElement(steps, field, child.children.get(e));
+                }
+            } else {
+                emitElement(steps, field, child);
+            }
+        }
+    }
+
+    /**
+     * Reads or skips one value of the field (or one element of the array).
+     */
+    private static void emitElement(List<Step> steps, MessageDefinition.Field field, Selection selection) {
+        if (selection == null) {
+            if (field.getMessage() != null) {
+                emitSkipMessage(steps, field.getMessage());
+            } else {
+                addSkip(steps, primitiveSize(field.getType()));
+            }
+        } else if (field.getMessage() != null) {
+            emitMessage(steps, field.getMessage(), selection);
+        } else {
+            steps.add(new Read(field.getType(), selection.outputs));
+        }
+    }
+
+    private static void emitSkip(List<Step> steps, MessageDefinition.Field field) {
+        int size = fixedSize(field);
+        if (size != -1) {
+            addSkip(steps, size);
+            return;
+        }
+        if (!field.isArray()) {
+            if (field.getMessage() != null) {
+                emitSkipMessage(steps, field.getMessage());
+            } else {
+                //string
+                steps.add(new SkipSized(1));
+            }
+            return;
+        }
+        int elementSize = field.getMessage() != null ? fixedSize(field.getMessage()) : primitiveSize(field.getType());
+        if (elementSize != -1) {
+            steps.add(new SkipSized(elementSize));
+            return;
+        }
+        //elements of variable size are skipped one by one
+        List<Step> element = new ArrayList<>();
+        if (field.getMessage() != null) {
+            emitSkipMessage(element, field.getMessage());
+            elementSize = MessageDecoder.minSize(field.getMessage());
+        } else {
+            element.add(new SkipSized(1));
+            elementSize = 4;
+        }
+        steps.add(new SkipRepeated(field.getArrayLength(), elementSize, element.toArray(new Step[element.size()])));
+    }
+
+    private static void emitSkipMessage(List<Step> steps, MessageDefinition definition) {
+        for (MessageDefinition.Field field : definition.getFields()) {
+            emitSkip(steps, field);
+        }
+    }
+
+    /**
+     * Adds a skip of fixed size, joining it with the previous one.
+     */
+    private static void addSkip(List<Step> steps, int size) {
+        if (size == 0) {
+            return;
+        }
+        if (!steps.isEmpty() && steps.get(steps.size() - 1) instanceof Skip) {
+            Skip last = (Skip) steps.remove(steps.size() - 1);
+            size += last.count;
+        }
+        steps.add(new Skip(size));
+    }
+
+    /**
+     * @return size of the serialized field, -1 if the size is variable
+     */
+    private static int fixedSize(MessageDefinition.Field field) {
+        int size = field.getMessage() != null ? fixedSize(field.getMessage()) : primitiveSize(field.getType());
+        if (!field.isArray()) {
+            return size;
+        }
+        if (size == -1 || field.getArrayLength() == -1) {
+            return -1;
+        }
+        return size * field.getArrayLength();
+    }
+
+    private static int fixedSize(MessageDefinition definition) {
+        int size = 0;
+        for (MessageDefinition.Field field : definition.getFields()) {
+            int fieldSize = fixedSize(field);
+            if (fieldSize == -1) {
+                return -1;
+            }
+            size += fieldSize;
+        }
+        return size;
+    }
+
+    /**
+     * @return size of a value of the built-in type, -1 for strings
+     */
+    private static int primitiveSize(String type) {
+        switch (type) {
+            case "bool":
+            case "int8":
+            case "uint8":
+                return 1;
+            case "int16":
+            case "uint16":
+                return 2;
+            case "int32":
+            case "uint32":
+            case "float32":
+                return 4;
+            case "int64":
+            case "uint64":
+            case "float64":
+            case "time":
+            case "duration":
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    private abstract static class Step {
+
+        abstract void run(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException;
+    }
+
+    /**
+     * Skips a fixed number of bytes.
+     */
+    private static class Skip extends Step {
+
+        final int count;
+
+        Skip(int count) {
+            this.count = count;
+        }
+
+        @Override
+        void run(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException {
+            message.skip(count);
+        }
+    }
+
+    /**
+     * Skips a string or an array of fixed-size elements: reads the length
+     * and skips the elements.
+     */
+    private static class SkipSized extends Step {
+
+        final int elementSize;
+
+        SkipSized(int elementSize) {
+            this.elementSize = elementSize;
+        }
+
+        @Override
+        void run(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException {
+            message.skip(message.readArrayLength(elementSize) * elementSize);
+        }
+    }
+
+    /**
+     * Skips an array of elements of variable size. The length is checked
+     * against the smallest size of an element, so a damaged length does not
+     * run the steps billions of times.
+     */
+    private static class SkipRepeated extends Step {
+
+        final int fixedLength;
+        final int minElementSize;
+        final Step[] element;
+
+        SkipRepeated(int fixedLength, int minElementSize, Step[] element) {
+            this.fixedLength = fixedLength;
+            this.minElementSize = minElementSize;
+            this.element = element;
+        }
+
+        @Override
+        void run(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException {
+            int length = fixedLength == -1 ? message.readArrayLength(minElementSize) : fixedLength;
+            for (int i = 0; i < length; i++) {
+                for (Step step : element) {
+                    step.run(message, values);
+                }
+            }
+        }
+    }
+
+    private static final int UINT8 = 0;
+    private static final int INT8 = 1;
+    private static final int INT16 = 2;
+    private static final int UINT16 = 3;
+    private static final int INT32 = 4;
+    private static final int UINT32 = 5;
+    private static final int INT64 = 6;
+    private static final int UINT64 = 7;
+    private static final int FLOAT32 = 8;
+    private static final int FLOAT64 = 9;
+    private static final int TIME = 10;
+    private static final int DURATION = 11;
+
+    /**
+     * @return code of the built-in type used by {@link Read}
+     */
+    private static int typeCode(String type) {
+        switch (type) {
+            case "bool":
+            case "uint8":
+                return UINT8;
+            case "int8":
+                return INT8;
+            case "int16":
+                return INT16;
+            case "uint16":
+                return UINT16;
+            case "int32":
+                return INT32;
+            case "uint32":
+                return UINT32;
+            case "int64":
+                return INT64;
+            case "uint64":
+                return UINT64;
+            case "float32":
+                return FLOAT32;
+            case "float64":
+                return FLOAT64;
+            case "time":
+                return TIME;
+            default:
+                //duration
+                return DURATION;
+        }
+    }
+
+    /**
+     * Reads a selected field. The type is resolved to its code when the plan
+     * is compiled, so that the values are not decoded by a switch
+     * on the type name.
+     */
+    private static class Read extends Step {
+
+        final int type;
+        final int[] outputs;
+
+        Read(String type, List<Integer> outputs) {
+            this.type = typeCode(type);
+            this.outputs = new int[outputs.size()];
+            for (int i = 0; i < this.outputs.length; i++) {
+                this.outputs[i] = outputs.get(i);
+            }
+        }
+
+        @Override
+        void run(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException {
+            double value;
+            switch (type) {
+                case UINT8:
+                    value = message.readByte();
+                    break;
+                case INT8:
+                    value = (byte) message.readByte();
+                    break;
+                case INT16:
+                    value = message.readShort();
+                    break;
+                case UINT16:
+                    value = message.readUnsignedShort();
+                    break;
+                case INT32:
+                    value = message.readInt();
+                    break;
+                case UINT32:
+                    value = message.readUnsignedInt();
+                    break;
+                case INT64:
+                    value = message.readLong();
+                    break;
+                case UINT64:
+                    long l = message.readLong();
+                    value = l >= 0 ? l : (l >>> 1) * 2.0 + (l & 1);
+                    break;
+                case FLOAT32:
+                    value = message.readFloat();
+                    break;
+                case FLOAT64:
+                    value = message.readDouble();
+                    break;
+                case TIME:
+                    //the seconds and nanoseconds of time are unsigned
+                    long secs = message.readUnsignedInt();
+                    long nsecs = message.readUnsignedInt();
+                    value = secs + nsecs / 1e9;
+                    break;
+                default:
+                    int sec = message.readInt();
+                    int nsec = message.readInt();
+                    value = sec + nsec / 1e9;
+            }
+            for (int output : outputs) {
+                values[output] = value;
+            }
+        }
+    }
+
+}
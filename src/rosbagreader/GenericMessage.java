@@ -0,0 +1,136 @@
+/*
+ */
+package rosbagreader;
+
+import java.lang.reflect.Array;
+import java.util.List;
+
+/**
+ * Message decoded according to its message definition.
+ * <p>
+ * The values of the fields are represented as follows:
+ * bool - Boolean, int8, uint8, int16, uint16, int32 - Integer,
+ * uint32, int64, uint64 - Long, float32 - Float, float64 - Double,
+ * string - String, time, duration - {@link RosTime}, nested messages -
+ * GenericMessage. Arrays are stored as arrays of primitives where
+ * possible: bool[] - boolean[], int8[], uint8[] - byte[],
+ * int16[] - short[], uint16[], int32[] - int[], uint32[], int64[],
+ * uint64[] - long[], float32[] - float[], float64[] - double[], other
+ * arrays as String[], RosTime[] and GenericMessage[].
+ *
+ * @author Tomas Prochazka
+ */
+public class GenericMessage {
+
+    private final MessageDefinition definition;
+    private final Object[] values;
+
+    GenericMessage(MessageDefinition definition, Object[] values) {
+        this.definition = definition;
+        this.values = values;
+    }
+
+    public MessageDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Message type, e.g. sensor_msgs/Imu
+     *
+     * @return
+     */
+    public String getType() {
+        return definition.getType();
+    }
+
+    /**
+     * Value of the field at the given position.
+     *
+     * @param index see {@link MessageDefinition#indexOf(String)}
+     * @return
+     */
+    public Object get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Value of the field with the given name.
+     *
+     * @param name
+     * @return
+     * @throws IllegalArgumentException if the message has no such field
+     */
+    public Object get(String name) {
+        int index = definition.indexOf(name);
+        if (index == -1) {
+            throw new IllegalArgumentException("Message type " + getType() + " has no field " + name + ".");
+        }
+        return values[index];
+    }
+
+    /**
+     * Value of a numeric field converted to double.
+     *
+     * @param name
+     * @return
+     */
+    public double getDouble(String name) {
+        return ((Number) get(name)).doubleValue();
+    }
+
+    /**
+     * Value of an integer field converted to long.
+     *
+     * @param name
+     * @return
+     */
+    public long getLong(String name) {
+        return ((Number) get(name)).longValue();
+    }
+
+    public String getString(String name) {
+        return (String) get(name);
+    }
+
+    public RosTime getTime(String name) {
+        return (RosTime) get(name);
+    }
+
+    public GenericMessage getMessage(String name) {
+        return (GenericMessage) get(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getType()).append('{');
+        List<MessageDefinition.Field> fields = definition.getFields();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(fields.get(i).getName()).append('=');
+            appendValue(sb, values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof RosTime) {
+            RosTime t = (RosTime) value;
+            sb.append(t.getSec()).append('.').append(String.format("%09d", t.getNsec()));
+        } else if (value != null && value.getClass().isArray()) {
+            sb.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                appendValue(sb, Array.get(value, i));
+            }
+            sb.append(']');
+        } else {
+            sb.append(value);
+        }
+    }
+
+}
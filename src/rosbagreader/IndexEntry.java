@@ -0,0 +1,62 @@
+/*
+ */
+package rosbagreader;
+
+/**
+ * Location of one message in the file, as described
+ * by the index data records.
+ * The message can be read by {@link RosbagReader#parseMessage(rosbagreader.IndexEntry, rosbagreader.RosbagMessageDataParser)}.
+ *
+ * @author Tomas Prochazka
+ */
+public class IndexEntry {
+
+    private final int connectionId;
+    private final long time;
+    private final long chunkPosition;
+    private final int offset;
+
+    public IndexEntry(int connectionId, long time, long chunkPosition, int offset) {
+        this.connectionId = connectionId;
+        this.time = time;
+        this.chunkPosition = chunkPosition;
+        this.offset = offset;
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * Time of the message.
+     * @return 
+     */
+    public RosTime getTime() {
+        return RosTime.fromNanos(time);
+    }
+
+    /**
+     * Time of the message as a number of nanoseconds since 1970.
+     * @return 
+     */
+    public long getTimeAsNanos() {
+        return time;
+    }
+
+    /**
+     * Offset of the chunk record containing the message.
+     * @return 
+     */
+    public long getChunkPosition() {
+        return chunkPosition;
+    }
+
+    /**
+     * Offset of the message record from the beginning of the (uncompressed) chunk data.
+     * @return 
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with buckets growing by powers
+ * of two: the bucket i contains the durations from 2^(i-1) to 2^i - 1 ns.
+ * The percentiles are therefore accurate to a factor of two, which is
+ * enough to tell microseconds from milliseconds. Values can be recorded
+ * by several threads at once.
+ *
+ * @author Tomas Prochazka
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all the recorded durations in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Number of the durations in each bucket, see {@link LatencyHistogram}.
+     *
+     * @return
+     */
+    public long[] getBucketCounts() {
+        long[] res = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            res[i] = buckets[i].sum();
+        }
+        return res;
+    }
+
+    /**
+     * Upper bound of the bucket which contains the given percentile.
+     *
+     * @param percentile from 0 to 100
+     * @return 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        long[] counts = getBucketCounts();
+        long all = 0;
+        for (long c : counts) {
+            all += c;
+        }
+        if (all == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(all * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((1L << i) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Decoder of the messages of one type, compiled from the message definition.
+ * <p>
+ * The definition is compiled into a tree of method handles: one handle
+ * reading each field (arrays of numbers are read at once), folded together
+ * with the handles storing the values, so decoding a message is a single
+ * {@code invokeExact} without any interpretation of the definition.
+ * The JIT compiles the handles of frequently used decoders like ordinary
+ * methods.
+ * <p>
+ * Decoders are cached by the md5sum of the message type, so every type is
+ * compiled only once and the decoder is shared by all the connections and
+ * bags with the same type.
+ *
+ * @author Tomas Prochazka
+ */
+public final class MessageDecoder {
+
+    private static final ConcurrentMap<String, MessageDecoder> CACHE = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    /**
+     * (RosMessageData)Object
+     */
+    private static final MethodType READER = MethodType.methodType(Object.class, RosMessageData.class);
+    /**
+     * (Object[], RosMessageData)void
+     */
+    private static final MethodType FILLER = MethodType.methodType(void.class, Object[].class, RosMessageData.class);
+
+    private final MessageDefinition definition;
+    /**
+     * (RosMessageData)GenericMessage
+     */
+    private final MethodHandle decoder;
+
+    private MessageDecoder(MessageDefinition definition, MethodHandle decoder) {
+        this.definition = definition;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns the decoder of the messages of the connection. The decoder is
+     * compiled on the first use and then taken from the cache.
+     *
+     * @param connection
+     * @return
+     * @throws InvalidRosbagFormatException if the definition can't be parsed
+     * @throws RequiredFieldMissingRosbagException if the connection has no
+     * type or message definition
+     */
+    public static MessageDecoder forConnection(ConnectionInfo connection) throws InvalidRosbagFormatException, RequiredFieldMissingRosbagException {
+        MessageDecoder decoder = connection.decoder;
+        if (decoder != null) {
+            return decoder;
+        }
+        String md5sum = connection.getMd5sum();
+        if (md5sum != null && !"*".equals(md5sum)) {
+            decoder = CACHE.get(md5sum);
+        }
+        if (decoder == null) {
+            String type = connection.getType();
+            String text = connection.getMessageDefinition();
+            if (type == null || text == null) {
+                throw new RequiredFieldMissingRosbagException("Connection " + connection.getId() + " does not contain the message type and definition.");
+            }
+            decoder = compile(MessageDefinition.parse(type, text));
+            if (md5sum != null && !"*".equals(md5sum)) {
+                MessageDecoder previous = CACHE.putIfAbsent(md5sum, decoder);
+                if (previous != null) {
+                    decoder = previous;
+                }
+            }
+        }
+        connection.decoder = decoder;
+        return decoder;
+    }
+
+    /**
+     * Compiles the decoder of the messages with the given definition.
+     * The decoder is not cached.
+     *
+     * @param definition
+     * @return
+     */
+    public static MessageDecoder compile(MessageDefinition definition) {
+        return new MessageDecoder(definition, compile(definition, new HashMap<String, MethodHandle>()));
+    }
+
+    /**
+     * @param compiled decoders of the nested types compiled so far
+     * @return (RosMessageData)GenericMessage
+     */
+    private static MethodHandle compile(MessageDefinition definition, Map<String, MethodHandle> compiled) {
+        MethodHandle decoder = compiled.get(definition.getType());
+        if (decoder != null) {
+            return decoder;
+        }
+        List<MessageDefinition.Field> fields = definition.getFields();
+        //fill(values, message) reads the fields one after another
+        MethodHandle fill = NOTHING;
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            MethodHandle store = MethodHandles.insertArguments(MethodHandles.arrayElementSetter(Object[].class), 1, i);
+            MethodHandle step = MethodHandles.filterArguments(store, 1, reader(fields.get(i), compiled));
+            fill = MethodHandles.foldArguments(fill, step);
+        }
+        //decoder(message) = new GenericMessage(definition, fill(new Object[n], message))
+        MethodHandle create = MethodHandles.insertArguments(NEW_MESSAGE, 0, definition);
+        MethodHandle fillAndCreate = MethodHandles.foldArguments(MethodHandles.dropArguments(create, 1, RosMessageData.class), fill);
+        MethodHandle values = MethodHandles.dropArguments(MethodHandles.insertArguments(NEW_VALUES, 0, fields.size()), 0, RosMessageData.class);
+        decoder = MethodHandles.foldArguments(fillAndCreate, values);
+        compiled.put(definition.getType(), decoder);
+        return decoder;
+    }
+
+    /**
+     * @return (RosMessageData)Object reading the value of the field
+     */
+    private static MethodHandle reader(MessageDefinition.Field field, Map<String, MethodHandle> compiled) {
+        MethodHandle reader;
+        if (field.getMessage() != null) {
+            MethodHandle element = compile(field.getMessage(), compiled);
+            if (!field.isArray()) {
+                return element.asType(READER);
+            }
+            reader = MethodHandles.insertArguments(READ_MESSAGES, 0, element, minSize(field.getMessage()));
+        } else if (field.isArray()) {
+            reader = ARRAY_READERS.get(field.getType());
+        } else {
+            return READERS.get(field.getType());
+        }
+        return MethodHandles.insertArguments(reader, 0, field.getArrayLength()).asType(READER);
+    }
+
+    /**
+     * Smallest number of bytes a message of the type can be serialized to
+     * (empty strings and variable arrays), used to check the length
+     * of an array of the messages before it is allocated.
+     */
+    static int minSize(MessageDefinition definition) {
+        long size = 0;
+        for (MessageDefinition.Field field : definition.getFields()) {
+            long element = field.getMessage() != null ? minSize(field.getMessage()) : SIZES.get(field.getType());
+            if (!field.isArray()) {
+                size += element;
+            } else if (field.getArrayLength() == -1) {
+                size += 4;
+            } else {
+                size += field.getArrayLength() * element;
+            }
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public MessageDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Decodes the message data from the current position.
+     *
+     * @param message
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    public GenericMessage decode(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            return (GenericMessage) decoder.invokeExact(message);
+        } catch (IOException | UnexpectedEndOfRosbagFileException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static final MethodHandle NOTHING;
+    private static final MethodHandle NEW_VALUES;
+    private static final MethodHandle NEW_MESSAGE;
+    private static final MethodHandle READ_MESSAGES;
+    /**
+     * Readers of the built-in types, (RosMessageData)Object
+     */
+    private static final Map<String, MethodHandle> READERS = new HashMap<>();
+    /**
+     * Readers of the arrays of the built-in types, (int, RosMessageData)array
+     * where the first argument is the fixed length or -1.
+     */
+    private static final Map<String, MethodHandle> ARRAY_READERS = new HashMap<>();
+    /**
+     * Serialized sizes of the built-in types, the length of a string.
+     */
+    private static final Map<String, Integer> SIZES = new HashMap<>();
+
+    static {
+        try {
+            NOTHING = LOOKUP.findStatic(MessageDecoder.class, "nothing", FILLER);
+            NEW_VALUES = LOOKUP.findStatic(MessageDecoder.class, "newValues", MethodType.methodType(Object[].class, int.class));
+            NEW_MESSAGE = LOOKUP.findConstructor(GenericMessage.class, MethodType.methodType(void.class, MessageDefinition.class, Object[].class));
+            READ_MESSAGES = staticReader("readMessages", GenericMessage[].class, MethodHandle.class, int.class, int.class);
+            READERS.put("bool", staticReader("readBool", boolean.class));
+            READERS.put("int8", staticReader("readInt8", int.class));
+            READERS.put("uint8", virtualReader("readByte", int.class));
+            //int16 values are stored as Integer like the other small integers
+            READERS.put("int16", LOOKUP.findVirtual(RosMessageData.class, "readShort", MethodType.methodType(short.class))
+                    .asType(MethodType.methodType(int.class, RosMessageData.class)).asType(READER));
+            READERS.put("uint16", virtualReader("readUnsignedShort", int.class));
+            READERS.put("int32", virtualReader("readInt", int.class));
+            READERS.put("uint32", virtualReader("readUnsignedInt", long.class));
+            READERS.put("int64", virtualReader("readLong", long.class));
+            READERS.put("uint64", virtualReader("readLong", long.class));
+            READERS.put("float32", virtualReader("readFloat", float.class));
+            READERS.put("float64", virtualReader("readDouble", double.class));
+            READERS.put("string", virtualReader("readString", String.class));
+            READERS.put("time", virtualReader("readTime", RosTime.class));
+            READERS.put("duration", virtualReader("readTime", RosTime.class));
+            ARRAY_READERS.put("bool", staticReader("readBools", boolean[].class, int.class));
+            ARRAY_READERS.put("int8", staticReader("readInt8s", byte[].class, int.class));
+            ARRAY_READERS.put("uint8", staticReader("readInt8s", byte[].class, int.class));
+            ARRAY_READERS.put("int16", staticReader("readInt16s", short[].class, int.class));
+            ARRAY_READERS.put("uint16", staticReader("readUInt16s", int[].class, int.class));
+            ARRAY_READERS.put("int32", staticReader("readInt32s", int[].class, int.class));
+            ARRAY_READERS.put("uint32", staticReader("readUInt32s", long[].class, int.class));
+            ARRAY_READERS.put("int64", staticReader("readInt64s", long[].class, int.class));
+            ARRAY_READERS.put("uint64", staticReader("readInt64s", long[].class, int.class));
+            ARRAY_READERS.put("float32", staticReader("readFloat32s", float[].class, int.class));
+            ARRAY_READERS.put("float64", staticReader("readFloat64s", double[].class, int.class));
+            ARRAY_READERS.put("string", staticReader("readStrings", String[].class, int.class));
+            ARRAY_READERS.put("time", staticReader("readTimes", RosTime[].class, int.class));
+            ARRAY_READERS.put("duration", staticReader("readTimes", RosTime[].class, int.class));
+            for (String type : new String[]{"bool", "int8", "uint8"}) {
+                SIZES.put(type, 1);
+            }
+            for (String type : new String[]{"int16", "uint16"}) {
+                SIZES.put(type, 2);
+            }
+            for (String type : new String[]{"int32", "uint32", "float32", "string"}) {
+                SIZES.put(type, 4);
+            }
+            for (String type : new String[]{"int64", "uint64", "float64", "time", "duration"}) {
+                SIZES.put(type, 8);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private static MethodHandle staticReader(String name, Class<?> type, Class<?>... parameters) throws NoSuchMethodException, IllegalAccessException {
+        MethodType methodType = MethodType.methodType(type, parameters).appendParameterTypes(RosMessageData.class);
+        MethodHandle reader = LOOKUP.findStatic(MessageDecoder.class, name, methodType);
+        return parameters.length == 0 ? reader.asType(READER) : reader;
+    }
+
+    private static MethodHandle virtualReader(String name, Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        return LOOKUP.findVirtual(RosMessageData.class, name, MethodType.methodType(type)).asType(READER);
+    }
+
+    private static void nothing(Object[] values, RosMessageData message) {
+    }
+
+    private static Object[] newValues(int count) {
+        return new Object[count];
+    }
+
+    private static boolean readBool(RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        return m.readByte() != 0;
+    }
+
+    private static int readInt8(RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        return (byte) m.readByte();
+    }
+
+    /**
+     * Length of an array: the fixed length or the length stored
+     * in the message.
+     */
+    private static int length(int fixedLength, int elementSize, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (fixedLength == -1) {
+            return m.readArrayLength(elementSize);
+        }
+        return m.checkArrayLength(fixedLength, elementSize);
+    }
+
+    private static boolean[] readBools(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        boolean[] res = new boolean[length(fixedLength, 1, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readByte() != 0;
+        }
+        return res;
+    }
+
+    private static byte[] readInt8s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        return m.readBytes(length(fixedLength, 1, m));
+    }
+
+    private static short[] readInt16s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        short[] res = new short[length(fixedLength, 2, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readShort();
+        }
+        return res;
+    }
+
+    private static int[] readUInt16s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        int[] res = new int[length(fixedLength, 2, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readUnsignedShort();
+        }
+        return res;
+    }
+
+    private static int[] readInt32s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        int[] res = new int[length(fixedLength, 4, m)];
+        m.readInts(res, 0, res.length);
+        return res;
+    }
+
+    private static long[] readUInt32s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        long[] res = new long[length(fixedLength, 4, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readUnsignedInt();
+        }
+        return res;
+    }
+
+    private static long[] readInt64s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        long[] res = new long[length(fixedLength, 8, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readLong();
+        }
+        return res;
+    }
+
+    private static float[] readFloat32s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        float[] res = new float[length(fixedLength, 4, m)];
+        m.readFloats(res, 0, res.length);
+        return res;
+    }
+
+    private static double[] readFloat64s(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        double[] res = new double[length(fixedLength, 8, m)];
+        m.readDoubles(res, 0, res.length);
+        return res;
+    }
+
+    private static String[] readStrings(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        String[] res = new String[length(fixedLength, 4, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readString();
+        }
+        return res;
+    }
+
+    private static RosTime[] readTimes(int fixedLength, RosMessageData m) throws IOException, UnexpectedEndOfRosbagFileException {
+        RosTime[] res = new RosTime[length(fixedLength, 8, m)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = m.readTime();
+        }
+        return res;
+    }
+
+    /**
+     * @param elementSize minimum size of an element, if it is 0 (the messages
+     * have no fields), the length can't be checked against the size
+     * of the message and the array grows as the elements are decoded
+     */
+    private static GenericMessage[] readMessages(MethodHandle element, int elementSize, int fixedLength, RosMessageData m) throws Throwable {
+        int length = length(fixedLength, elementSize, m);
+        if (elementSize == 0) {
+            List<GenericMessage> res = new ArrayList<>();
+            for (int i = 0; i < length; i++) {
+                res.add((GenericMessage) element.invokeExact(m));
+            }
+            return res.toArray(new GenericMessage[0]);
+        }
+        GenericMessage[] res = new GenericMessage[length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = (GenericMessage) element.invokeExact(m);
+        }
+        return res;
+    }
+
+}
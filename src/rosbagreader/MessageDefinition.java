@@ -0,0 +1,280 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+
+/**
+ * Parsed definition of a ROS message type as stored in the
+ * message_definition field of the connection records. The text contains
+ * the definition of the type followed by the definitions of all the nested
+ * types, each of them introduced by a line "MSG: package/Type".
+ * Constants are not part of the message data, so they are left out.
+ * See: http://wiki.ros.org/msg
+ *
+ * @author Tomas Prochazka
+ */
+public class MessageDefinition {
+
+    private static final Set<String> BUILTIN_TYPES = new HashSet<>(Arrays.asList(
+            "bool", "int8", "uint8", "int16", "uint16", "int32", "uint32", "int64", "uint64",
+            "float32", "float64", "string", "time", "duration"));
+
+    private final String type;
+    private final List<Field> fields;
+    private final Map<String, Integer> indexes;
+
+    private MessageDefinition(String type, List<Field> fields) {
+        this.type = type;
+        this.fields = Collections.unmodifiableList(fields);
+        this.indexes = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            indexes.put(fields.get(i).getName(), i);
+        }
+    }
+
+    /**
+     * Parses the message definition.
+     *
+     * @param type name of the type, e.g. sensor_msgs/Imu
+     * @param text full text of the definition including the nested types
+     * @return
+     * @throws InvalidRosbagFormatException if the text is not a valid
+     * definition or a nested type is not defined.
+     */
+    public static MessageDefinition parse(String type, String text) throws InvalidRosbagFormatException {
+        Map<String, List<String>> sections = new LinkedHashMap<>();
+        List<String> lines = new ArrayList<>();
+        sections.put(type, lines);
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("==")) {
+                continue;
+            }
+            if (line.startsWith("MSG:")) {
+                lines = new ArrayList<>();
+                sections.put(line.substring(4).trim(), lines);
+                continue;
+            }
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        return new Parser(sections).resolve(type);
+    }
+
+    /**
+     * Name of the type, e.g. sensor_msgs/Imu
+     *
+     * @return
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Fields of the message in the order in which they are serialized.
+     *
+     * @return
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Position of the field in the message.
+     *
+     * @param name name of the field
+     * @return -1 if the message has no such field
+     */
+    public int indexOf(String name) {
+        Integer i = indexes.get(name);
+        return i == null ? -1 : i;
+    }
+
+    @Override
+    public String toString() {
+        return type + fields;
+    }
+
+    /**
+     * One field of a message.
+     */
+    public static class Field {
+
+        private final String name;
+        private final String type;
+        private final MessageDefinition message;
+        private final boolean array;
+        private final int arrayLength;
+
+        Field(String name, String type, MessageDefinition message, boolean array, int arrayLength) {
+            this.name = name;
+            this.type = type;
+            this.message = message;
+            this.array = array;
+            this.arrayLength = arrayLength;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Type of the field (of the elements for arrays). Either a built-in
+         * type (bool, int8 ... float64, string, time, duration) or the full
+         * name of a message type. The deprecated aliases byte and char are
+         * replaced by int8 and uint8.
+         *
+         * @return
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Definition of the nested message.
+         *
+         * @return null if the field has a built-in type.
+         */
+        public MessageDefinition getMessage() {
+            return message;
+        }
+
+        public boolean isArray() {
+            return array;
+        }
+
+        /**
+         * Length of a fixed-size array.
+         *
+         * @return -1 if the array has a variable length (or the field is not
+         * an array).
+         */
+        public int getArrayLength() {
+            return arrayLength;
+        }
+
+        @Override
+        public String toString() {
+            String suffix = !array ? "" : arrayLength == -1 ? "[]" : "[" + arrayLength + "]";
+            return type + suffix + " " + name;
+        }
+
+    }
+
+    /**
+     * Resolves the types of one definition text.
+     */
+    private static class Parser {
+
+        private final Map<String, List<String>> sections;
+        private final Map<String, MessageDefinition> resolved = new HashMap<>();
+        private final Set<String> inProgress = new HashSet<>();
+
+        Parser(Map<String, List<String>> sections) {
+            this.sections = sections;
+        }
+
+        MessageDefinition resolve(String type) throws InvalidRosbagFormatException {
+            MessageDefinition definition = resolved.get(type);
+            if (definition != null) {
+                return definition;
+            }
+            if (!inProgress.add(type)) {
+                throw new InvalidRosbagFormatException("Message type " + type + " contains itself.");
+            }
+            List<Field> fields = new ArrayList<>();
+            for (String line : sections.get(type)) {
+                Field field = parseField(type, line);
+                if (field != null) {
+                    fields.add(field);
+                }
+            }
+            definition = new MessageDefinition(type, fields);
+            resolved.put(type, definition);
+            inProgress.remove(type);
+            return definition;
+        }
+
+        /**
+         * @return null if the line defines a constant
+         */
+        private Field parseField(String owner, String line) throws InvalidRosbagFormatException {
+            int comment = line.indexOf('#');
+            int equals = line.indexOf('=');
+            if (equals != -1 && (comment == -1 || equals < comment)) {
+                return null;
+            }
+            if (comment != -1) {
+                line = line.substring(0, comment).trim();
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new InvalidRosbagFormatException("Invalid field definition '" + line + "' in the message type " + owner + ".");
+            }
+            String type = parts[0];
+            boolean array = false;
+            int arrayLength = -1;
+            int bracket = type.indexOf('[');
+            if (bracket != -1) {
+                if (!type.endsWith("]")) {
+                    throw new InvalidRosbagFormatException("Invalid array type '" + type + "' in the message type " + owner + ".");
+                }
+                array = true;
+                String length = type.substring(bracket + 1, type.length() - 1);
+                if (!length.isEmpty()) {
+                    try {
+                        arrayLength = Integer.parseInt(length);
+                    } catch (NumberFormatException ex) {
+                        throw new InvalidRosbagFormatException("Invalid array length '" + type + "' in the message type " + owner + ".");
+                    }
+                }
+                type = type.substring(0, bracket);
+            }
+            if ("byte".equals(type)) {
+                type = "int8";
+            } else if ("char".equals(type)) {
+                type = "uint8";
+            }
+            if (BUILTIN_TYPES.contains(type)) {
+                return new Field(parts[1], type, null, array, arrayLength);
+            }
+            String fullType = findType(owner, type);
+            return new Field(parts[1], fullType, resolve(fullType), array, arrayLength);
+        }
+
+        private String findType(String owner, String type) throws InvalidRosbagFormatException {
+            if ("Header".equals(type)) {
+                type = "std_msgs/Header";
+            }
+            if (sections.containsKey(type)) {
+                return type;
+            }
+            if (!type.contains("/")) {
+                //types of the same package are referred to without the package
+                String samePackage = owner.substring(0, owner.indexOf('/') + 1) + type;
+                if (sections.containsKey(samePackage)) {
+                    return samePackage;
+                }
+                for (String name : sections.keySet()) {
+                    if (name.endsWith("/" + type)) {
+                        return name;
+                    }
+                }
+            }
+            throw new InvalidRosbagFormatException("Definition of the message type " + type + " not found.");
+        }
+
+    }
+
+}
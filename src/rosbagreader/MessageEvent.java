@@ -0,0 +1,44 @@
+/*
+ */
+package rosbagreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a message passed to the
+ * {@link RosbagMessageDataParser}, its duration is the time spent
+ * in the parser. There are too many messages to record them all
+ * in a continuous recording, so only the messages parsed longer than 1 ms
+ * are recorded by default.
+ *
+ * @author Tomas Prochazka
+ */
+@Name("rosbagreader.Message")
+@Label("Message")
+@Category("Rosbag Reader")
+@Description("Message passed to the parser")
+@Threshold("1 ms")
+@StackTrace(false)
+final class MessageEvent extends jdk.jfr.Event {
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Connection")
+    int connection;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    @Label("Message Time")
+    @Description("Time of the message in nanoseconds since the epoch")
+    long time;
+
+}
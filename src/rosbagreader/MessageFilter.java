@@ -0,0 +1,78 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.Set;
+
+/**
+ * Selects the messages which are passed to the parser.
+ * When the bag is indexed, whole chunks which cannot contain
+ * any selected message are skipped.
+ *
+ * @author Tomas Prochazka
+ */
+class MessageFilter {
+
+    /**
+     * Filter accepting all messages.
+     */
+    static final MessageFilter ALL = new MessageFilter(null);
+
+    private final Set<String> topics;
+    private final long from;
+    private final long to;
+
+    /**
+     * @param topics accepted topics, null to accept all topics
+     */
+    MessageFilter(Set<String> topics) {
+        this(topics, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param topics accepted topics, null to accept all topics
+     * @param from start of the accepted time window in nanoseconds (inclusive)
+     * @param to end of the accepted time window in nanoseconds (inclusive)
+     */
+    MessageFilter(Set<String> topics, long from, long to) {
+        this.topics = topics;
+        this.from = from;
+        this.to = to;
+    }
+
+    boolean acceptsTopic(String topic) {
+        return topics == null || topics.contains(topic);
+    }
+
+    /**
+     * @param time message time in nanoseconds
+     * @return 
+     */
+    boolean acceptsTime(long time) {
+        return time >= from && time <= to;
+    }
+
+    /**
+     * Whether the chunk contains a message of some of the accepted topics
+     * and its time range overlaps with the accepted time window.
+     * @param chunk
+     * @param index index of the bag, used to get the topics of the connections
+     * @return 
+     */
+    boolean acceptsChunk(ChunkInfo chunk, BagIndex index) {
+        if (chunk.getEndTimeAsNanos() < from || chunk.getStartTimeAsNanos() > to) {
+            return false;
+        }
+        if (topics == null) {
+            return true;
+        }
+        for (int i = 0; i < chunk.getConnectionCount(); i++) {
+            ConnectionInfo connection = index.getConnection(chunk.getConnectionId(i));
+            if (connection == null || topics.contains(connection.getTopic())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UncheckedRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Reads several bags of one recording (e.g. one bag per sensor group, or bags
+ * split by time) as a single bag whose messages are ordered by time.
+ * <p>
+ * Every bag is read by its own thread, which reads the messages ahead into
+ * a bounded queue. The heads of the queues are merged by the time of the
+ * messages, so nothing has to be sorted in memory. Indexed bags are read
+ * in the time order even if their chunks overlap in time, see
+ * {@link RosbagReader#parseBagInTimeOrder(rosbagreader.RosbagMessageDataParser)}.
+ * The messages of the bags without an index are read in the file order,
+ * so they are expected to be ordered by time (as they are recorded).
+ * The messages with the same time are ordered by the order of the bags.
+ * <p>
+ * On Java 21 and newer the bags are read by virtual threads, otherwise
+ * by daemon platform threads.
+ *
+ * @author Tomas Prochazka
+ */
+public class MultiBagReader implements Closeable {
+
+    /**
+     * Default number of messages read ahead in each bag.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Marks the end of the messages of a bag in its queue.
+     */
+    private static final Object END = new Object();
+    private static final ThreadFactory THREAD_FACTORY = readerThreadFactory();
+
+    private final List<RosbagReader> readers;
+    private final boolean ownsReaders;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Opens the bag files. The files are closed by {@link #close()}.
+     *
+     * @param bagFiles
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public MultiBagReader(Collection<Path> bagFiles) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        readers = new ArrayList<>();
+        ownsReaders = true;
+        try {
+            for (Path file : bagFiles) {
+                readers.add(new RosbagReader(file));
+            }
+        } catch (IOException | RosbagException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the given readers. They are not closed by {@link #close()}.
+     * The readers must not be used by anyone else while the messages
+     * are read.
+     *
+     * @param readers
+     */
+    public MultiBagReader(RosbagReader... readers) {
+        this.readers = Arrays.asList(readers.clone());
+        this.ownsReaders = false;
+    }
+
+    /**
+     * Sets the number of messages read ahead in each bag.
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("The queue capacity must be positive.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * The readers of the bags, in the order given to the constructor.
+     *
+     * @return
+     */
+    public List<RosbagReader> getReaders() {
+        return readers;
+    }
+
+    /**
+     * Passes the messages of all the bags to the parser ordered by time.
+     * The parser is called only by the calling thread. Each message is
+     * passed on by the reader of its bag, so it is measured by the metrics
+     * of the reader, see {@link RosbagReader#enableMetrics()}.
+     *
+     * @param parser
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public void parseBag(RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(null, parser);
+    }
+
+    /**
+     * Passes the messages of the given topics to the parser ordered by time.
+     * The parser is called only by the calling thread.
+     *
+     * @param topics names of the topics that should be read, null for all
+     * @param parser
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public void parseBag(Set<String> topics, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        Merge merge = new Merge(topics);
+        try {
+            while (merge.hasNext()) {
+                RosMessageData message = merge.next();
+                merge.reader.deliver(parser, message);
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (UncheckedRosbagException ex) {
+            rethrow(ex.getCause());
+        } finally {
+            merge.stop();
+        }
+    }
+
+    /**
+     * Returns a stream of the messages of all the bags ordered by time.
+     * If the stream is not consumed to the end, it should be closed
+     * to stop the reading threads.
+     * Errors are thrown as {@link UncheckedIOException} or
+     * {@link UncheckedRosbagException}.
+     *
+     * @return
+     */
+    public Stream<RosMessageData> messages() {
+        return messages(null);
+    }
+
+    /**
+     * Returns a stream of the messages of the given topics ordered by time.
+     * See {@link #messages()}.
+     *
+     * @param topics names of the topics that should be read, null for all
+     * @return
+     */
+    public Stream<RosMessageData> messages(Set<String> topics) {
+        Merge merge = new Merge(topics);
+        Spliterator<RosMessageData> spliterator = Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(merge::stop);
+    }
+
+    /**
+     * Closes the bags opened by this reader.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!ownsReaders) {
+            return;
+        }
+        IOException error = null;
+        for (RosbagReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void rethrow(RosbagException ex) throws UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (ex instanceof UnexpectedEndOfRosbagFileException) {
+            throw (UnexpectedEndOfRosbagFileException) ex;
+        }
+        if (ex instanceof InvalidRosbagFormatException) {
+            throw (InvalidRosbagFormatException) ex;
+        }
+        if (ex instanceof RequiredFieldMissingRosbagException) {
+            throw (RequiredFieldMissingRosbagException) ex;
+        }
+        if (ex instanceof InvalidFieldValueRosbagException) {
+            throw (InvalidFieldValueRosbagException) ex;
+        }
+        throw new UncheckedRosbagException(ex);
+    }
+
+    /**
+     * Virtual threads are created by reflection, so that the library
+     * still runs on older versions of Java.
+     */
+    private static ThreadFactory readerThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "bag-reader-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, "bag-reader");
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Stops the reading thread blocked by a full queue.
+     */
+    private static class Stopped extends RuntimeException {
+
+        Stopped() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Messages of one bag read ahead by a thread.
+     */
+    private class BagQueue implements Runnable {
+
+        private final RosbagReader reader;
+        private final Set<String> topics;
+        private final int order;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+        private volatile Throwable error;
+        private volatile boolean stopped;
+        /**
+         * The next message of the bag, taken from the queue.
+         */
+        private RosMessageData head;
+
+        BagQueue(RosbagReader reader, Set<String> topics, int order) {
+            this.reader = reader;
+            this.topics = topics;
+            this.order = order;
+            this.thread = THREAD_FACTORY.newThread(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                TimeOrderedParser timeOrdered = reader.timeOrderedMessages(topics);
+                if (timeOrdered != null) {
+                    RosMessageData message;
+                    while ((message = timeOrdered.next()) != null) {
+                        put(message);
+                    }
+                } else {
+                    Stream<RosMessageData> messages = topics == null ? reader.messages() : reader.messages(topics);
+                    messages.forEach(this::put);
+                }
+            } catch (Stopped ex) {
+                return;
+            } catch (UncheckedIOException | UncheckedRosbagException ex) {
+                error = ex.getCause();
+            } catch (IOException | RosbagException | RuntimeException ex) {
+                error = ex;
+            }
+            try {
+                put(END);
+            } catch (Stopped ex) {
+            }
+        }
+
+        /**
+         * The thread is not interrupted when the reading is stopped,
+         * because an interrupted channel would be closed.
+         */
+        private void put(Object message) {
+            try {
+                while (!queue.offer(message, 100, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        throw new Stopped();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw new Stopped();
+            }
+        }
+
+        /**
+         * Takes the next message of the bag from the queue.
+         *
+         * @return false if there are no more messages
+         */
+        boolean advance() {
+            Object next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for the messages of a bag."));
+            }
+            if (next != END) {
+                head = (RosMessageData) next;
+                return true;
+            }
+            head = null;
+            Throwable cause = error;
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RosbagException) {
+                throw new UncheckedRosbagException((RosbagException) cause);
+            }
+            if (cause != null) {
+                throw (RuntimeException) cause;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Merges the queues of all the bags by the time of their next messages.
+     */
+    private class Merge implements Iterator<RosMessageData> {
+
+        private final List<BagQueue> queues = new ArrayList<>();
+        private final PriorityQueue<BagQueue> heads;
+        private boolean started;
+        /**
+         * Reader of the bag of the message returned by {@link #next()}.
+         */
+        RosbagReader reader;
+
+        Merge(Set<String> topics) {
+            heads = new PriorityQueue<>(Math.max(1, readers.size()),
+                    Comparator.<BagQueue>comparingLong(queue -> queue.head.getTimeAsNanos()).thenComparingInt(queue -> queue.order));
+            for (int i = 0; i < readers.size(); i++) {
+                queues.add(new BagQueue(readers.get(i), topics, i));
+            }
+            for (BagQueue queue : queues) {
+                queue.thread.start();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!started) {
+                started = true;
+                for (BagQueue queue : queues) {
+                    if (queue.advance()) {
+                        heads.add(queue);
+                    }
+                }
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public RosMessageData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            BagQueue queue = heads.poll();
+            RosMessageData message = queue.head;
+            reader = queue.reader;
+            if (queue.advance()) {
+                heads.add(queue);
+            }
+            return message;
+        }
+
+        /**
+         * Stops the threads which have not read their bags to the end.
+         */
+        void stop() {
+            for (BagQueue queue : queues) {
+                queue.stopped = true;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ * Parses the chunks of an indexed bag by the tasks of a fork/join pool.
+ * The chunks are read from the file one at a time (see
+ * {@link RosbagReader#readChunkData(rosbagreader.ChunkInfo)}), but they are
+ * decompressed and parsed in parallel.
+ *
+ * @author Tomas Prochazka
+ */
+class ParallelChunkParser {
+
+    private final RosbagReader reader;
+    private final List<ChunkInfo> chunks;
+    private final MessageFilter filter;
+
+    ParallelChunkParser(RosbagReader reader, List<ChunkInfo> chunks, MessageFilter filter) {
+        this.reader = reader;
+        this.chunks = chunks;
+        this.filter = filter;
+    }
+
+    /**
+     * The parser is called by the pool threads, each chunk is parsed
+     * by one thread.
+     */
+    void parseUnordered(ForkJoinPool pool, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        try {
+            pool.invoke(new ChunkRangeTask(parser, 0, chunks.size()));
+        } catch (ChunkException ex) {
+            rethrow(ex);
+        }
+    }
+
+    /**
+     * The chunks are decoded by the pool threads, the decoded messages are
+     * passed to the parser by the calling thread in the file order.
+     * At most two chunks per pool thread are decoded in advance.
+     */
+    void parseOrdered(ForkJoinPool pool, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        int capacity = 2 * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<List<RosMessageData>>> window = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < chunks.size() || !window.isEmpty()) {
+                while (next < chunks.size() && window.size() < capacity) {
+                    window.add(pool.submit(new ChunkMessagesTask(chunks.get(next++))));
+                }
+                for (RosMessageData message : window.poll().join()) {
+                    reader.deliver(parser, message);
+                }
+            }
+        } catch (ChunkException ex) {
+            rethrow(ex);
+        } finally {
+            for (ForkJoinTask<List<RosMessageData>> task : window) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void parse(ChunkInfo chunk, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ByteBuffer data = reader.readChunkData(chunk);
+        reader.parseChunkData(new BufferByteSource(data), data.remaining(), parser, filter, null);
+    }
+
+    /**
+     * Throws the exception which was thrown by a task.
+     */
+    private static void rethrow(ChunkException ex) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof UnexpectedEndOfRosbagFileException) {
+            throw (UnexpectedEndOfRosbagFileException) cause;
+        }
+        if (cause instanceof InvalidRosbagFormatException) {
+            throw (InvalidRosbagFormatException) cause;
+        }
+        if (cause instanceof RequiredFieldMissingRosbagException) {
+            throw (RequiredFieldMissingRosbagException) cause;
+        }
+        if (cause instanceof InvalidFieldValueRosbagException) {
+            throw (InvalidFieldValueRosbagException) cause;
+        }
+        throw ex;
+    }
+
+    /**
+     * Carries the checked exceptions out of the tasks.
+     */
+    private static class ChunkException extends RuntimeException {
+
+        private ChunkException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Parses a range of chunks, splits it into halves until there is
+     * only one chunk left.
+     */
+    private class ChunkRangeTask extends RecursiveAction {
+
+        private final RosbagMessageDataParser parser;
+        private final int from;
+        private final int to;
+
+        ChunkRangeTask(RosbagMessageDataParser parser, int from, int to) {
+            this.parser = parser;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkRangeTask(parser, from, middle), new ChunkRangeTask(parser, middle, to));
+                return;
+            }
+            if (to - from == 1) {
+                try {
+                    parse(chunks.get(from), parser);
+                } catch (IOException | RosbagException ex) {
+                    throw new ChunkException(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the messages of one chunk.
+     */
+    private class ChunkMessagesTask extends RecursiveTask<List<RosMessageData>> {
+
+        private final ChunkInfo chunk;
+
+        ChunkMessagesTask(ChunkInfo chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected List<RosMessageData> compute() {
+            try {
+                return reader.readChunkMessages(chunk, filter);
+            } catch (IOException | RosbagException ex) {
+                throw new ChunkException(ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ */
+package rosbagreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one call of {@link RosbagReader#parseBag}.
+ *
+ * @author Tomas Prochazka
+ */
+@Name("rosbagreader.ParseBag")
+@Label("Parse Bag")
+@Category("Rosbag Reader")
+@Description("Reading of the messages of a bag by parseBag")
+@StackTrace(false)
+final class ParseBagEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Indexed")
+    @Description("Whether the chunks were found by the index or the whole file was scanned")
+    boolean indexed;
+
+    @Label("Chunks")
+    int chunks;
+
+}
@@ -0,0 +1,28 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Handler of the selected fields of the messages of a topic, registered by
+ * {@link RosbagReader#on(java.lang.String, rosbagreader.FieldProjection, rosbagreader.ProjectedFieldsParser)}.
+ *
+ * @author Tomas Prochazka
+ */
+public interface ProjectedFieldsParser {
+
+    /**
+     * Called for every message of the topic with the values of the
+     * selected fields. The rest of the message can still be read
+     * from the message, it is positioned after the last selected field.
+     *
+     * @param message
+     * @param values the value of the i-th path of the projection is at
+     * index i, the array is reused for the next message
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    void parseFields(RosMessageData message, double[] values) throws IOException, UnexpectedEndOfRosbagFileException;
+}
@@ -0,0 +1,277 @@
+/*
+ */
+package rosbagreader;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the work done by a {@link RosbagReader}, enabled by
+ * {@link RosbagReader#enableMetrics()}. They tell whether a slow job
+ * waits for the disk, parses the headers or spends the time in its own
+ * parser:
+ * <ul>
+ * <li>bytes of the records which were read (record headers and the data
+ * of the messages passed on) and skipped (data of the messages which were
+ * filtered out, repeated connection records, index data), counted
+ * in the uncompressed chunk data,</li>
+ * <li>number of the records by op code, chunks and their compressed
+ * and uncompressed size,</li>
+ * <li>time spent in the reads and skips of the stream or channel of the bag
+ * (the page faults of mapped files can't be measured and fall into
+ * the other times), decompressing the chunk data (including waiting for the
+ * decompression threads), reading the record headers and in the parser,</li>
+ * <li>messages, bytes and the histogram of the parser latency per topic.</li>
+ * </ul>
+ * The counters can be updated by several threads at once. They can be
+ * published through JMX by {@link #register(java.lang.String)}.
+ *
+ * @author Tomas Prochazka
+ */
+public class ReaderMetrics implements ReaderMetricsMXBean {
+
+    private static final String[] OP_NAMES = new String[8];
+
+    static {
+        OP_NAMES[RosOpCodes.MESSAGE_DATA] = "MESSAGE_DATA";
+        OP_NAMES[RosOpCodes.BAG_HEADER] = "BAG_HEADER";
+        OP_NAMES[RosOpCodes.INDEX_DATA] = "INDEX_DATA";
+        OP_NAMES[RosOpCodes.CHUNK] = "CHUNK";
+        OP_NAMES[RosOpCodes.CHUNK_INFO] = "CHUNK_INFO";
+        OP_NAMES[RosOpCodes.CONNECTION] = "CONNECTION";
+    }
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesSkipped = new LongAdder();
+    private final LongAdder[] records = new LongAdder[OP_NAMES.length];
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder compressedChunkBytes = new LongAdder();
+    private final LongAdder uncompressedChunkBytes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder ioNanos = new LongAdder();
+    private final LongAdder headerNanos = new LongAdder();
+    private final LongAdder parserNanos = new LongAdder();
+    private final Map<String, TopicMetrics> topics = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    ReaderMetrics() {
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new LongAdder();
+        }
+    }
+
+    void recordHeader(int opCode, int length, long nanos) {
+        if (opCode >= 0 && opCode < records.length) {
+            records[opCode].increment();
+        }
+        bytesRead.add(length);
+        headerNanos.add(nanos);
+    }
+
+    void skipped(long length) {
+        bytesSkipped.add(length);
+    }
+
+    void chunk(long compressedSize, long size) {
+        chunks.increment();
+        compressedChunkBytes.add(compressedSize);
+        uncompressedChunkBytes.add(size);
+    }
+
+    void io(long nanos) {
+        ioNanos.add(nanos);
+    }
+
+    void message(String topic, int length) {
+        messages.increment();
+        bytesRead.add(length);
+        getOrCreateTopic(topic).message(length);
+    }
+
+    void parsed(String topic, long nanos) {
+        parserNanos.add(nanos);
+        getOrCreateTopic(topic).getParserLatency().record(nanos);
+    }
+
+    private TopicMetrics getOrCreateTopic(String topic) {
+        TopicMetrics metrics = topics.get(topic);
+        if (metrics == null) {
+            metrics = topics.computeIfAbsent(topic, TopicMetrics::new);
+        }
+        return metrics;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesSkipped() {
+        return bytesSkipped.sum();
+    }
+
+    /**
+     * @param opCode see {@link RosOpCodes}
+     * @return number of the records with the op code which were read
+     */
+    public long getRecordCount(int opCode) {
+        return opCode >= 0 && opCode < records.length ? records[opCode].sum() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getRecordCounts() {
+        Map<String, Long> res = new TreeMap<>();
+        for (int i = 0; i < OP_NAMES.length; i++) {
+            if (OP_NAMES[i] != null) {
+                res.put(OP_NAMES[i], records[i].sum());
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    @Override
+    public long getCompressedChunkBytes() {
+        return compressedChunkBytes.sum();
+    }
+
+    @Override
+    public long getUncompressedChunkBytes() {
+        return uncompressedChunkBytes.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    @Override
+    public long getIoTimeNanos() {
+        return ioNanos.sum();
+    }
+
+    @Override
+    public long getHeaderTimeNanos() {
+        return headerNanos.sum();
+    }
+
+    @Override
+    public long getParserTimeNanos() {
+        return parserNanos.sum();
+    }
+
+    /**
+     * @param topic
+     * @return null if no message of the topic has been read
+     */
+    public TopicMetrics getTopic(String topic) {
+        return topics.get(topic);
+    }
+
+    public Collection<TopicMetrics> getTopics() {
+        return Collections.unmodifiableCollection(topics.values());
+    }
+
+    private Map<String, Long> perTopic(ToLongFunction<TopicMetrics> value) {
+        Map<String, Long> res = new TreeMap<>();
+        for (TopicMetrics topic : topics.values()) {
+            res.put(topic.getTopic(), value.applyAsLong(topic));
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Long> getTopicMessages() {
+        return perTopic(TopicMetrics::getMessages);
+    }
+
+    @Override
+    public Map<String, Long> getTopicBytes() {
+        return perTopic(TopicMetrics::getBytes);
+    }
+
+    @Override
+    public Map<String, Long> getTopicParserLatencyP50Nanos() {
+        return perTopic(topic -> topic.getParserLatency().getPercentileNanos(50));
+    }
+
+    @Override
+    public Map<String, Long> getTopicParserLatencyP99Nanos() {
+        return perTopic(topic -> topic.getParserLatency().getPercentileNanos(99));
+    }
+
+    @Override
+    public Map<String, Long> getTopicParserLatencyMaxNanos() {
+        return perTopic(topic -> topic.getParserLatency().getMaxNanos());
+    }
+
+    /**
+     * Sets all the counters to zero. Counts updated by other threads
+     * during the reset may be lost.
+     */
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{bytesRead, bytesSkipped, chunks, compressedChunkBytes, uncompressedChunkBytes, messages, ioNanos, headerNanos, parserNanos}) {
+            adder.reset();
+        }
+        for (LongAdder adder : records) {
+            adder.reset();
+        }
+        topics.clear();
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under the name
+     * rosbagreader:type=ReaderMetrics,name=...
+     *
+     * @param name name of the reader, e.g. the name of the bag file
+     * @throws JMException if the name is already registered
+     */
+    public synchronized void register(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("The metrics have already been registered as " + objectName);
+        }
+        ObjectName objectName = new ObjectName("rosbagreader:type=ReaderMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Removes the metrics from the MBean server, if they have been registered.
+     *
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return the name under which the metrics are registered, null if they
+     * are not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+}
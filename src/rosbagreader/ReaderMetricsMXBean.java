@@ -0,0 +1,47 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ReaderMetrics}, registered by
+ * {@link ReaderMetrics#register(java.lang.String)}. The maps are keyed
+ * by the names of the op codes or by the topics.
+ *
+ * @author Tomas Prochazka
+ */
+public interface ReaderMetricsMXBean {
+
+    long getBytesRead();
+
+    long getBytesSkipped();
+
+    Map<String, Long> getRecordCounts();
+
+    long getChunks();
+
+    long getCompressedChunkBytes();
+
+    long getUncompressedChunkBytes();
+
+    long getMessages();
+
+    long getIoTimeNanos();
+
+    long getHeaderTimeNanos();
+
+    long getParserTimeNanos();
+
+    Map<String, Long> getTopicMessages();
+
+    Map<String, Long> getTopicBytes();
+
+    Map<String, Long> getTopicParserLatencyP50Nanos();
+
+    Map<String, Long> getTopicParserLatencyP99Nanos();
+
+    Map<String, Long> getTopicParserLatencyMaxNanos();
+
+    void reset();
+}
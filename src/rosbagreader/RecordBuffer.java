@@ -0,0 +1,155 @@
+/*
+ */
+package rosbagreader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable little-endian buffer in which the records of a bag are encoded.
+ * A record is written as {@link #beginLength()}, the header fields,
+ * {@link #endLength(int)}, and the same for the data.
+ *
+ * @author Tomas Prochazka
+ */
+class RecordBuffer {
+
+    private byte[] array;
+    private ByteBuffer buffer;
+
+    RecordBuffer(int capacity) {
+        array = new byte[Math.max(16, capacity)];
+        buffer = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensure(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        int position = buffer.position();
+        array = Arrays.copyOf(array, Math.max(array.length * 2, position + count));
+        buffer = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(position);
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * The written bytes, from 0 to {@link #position()}.
+     *
+     * @return view of the buffer
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(array, 0, buffer.position());
+    }
+
+    byte[] array() {
+        return array;
+    }
+
+    /**
+     * Reserves the length of a header or data which follows.
+     *
+     * @return position of the length
+     */
+    int beginLength() {
+        ensure(4);
+        int position = buffer.position();
+        buffer.putInt(0);
+        return position;
+    }
+
+    /**
+     * Writes the number of bytes written since {@link #beginLength()}.
+     *
+     * @param lengthPosition
+     */
+    void endLength(int lengthPosition) {
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Time as two ints, seconds and nanoseconds.
+     *
+     * @param nanos nanoseconds since 1970
+     */
+    void putTime(long nanos) {
+        ensure(8);
+        buffer.putInt((int) (nanos / 1_000_000_000L));
+        buffer.putInt((int) (nanos % 1_000_000_000L));
+    }
+
+    void put(byte[] bytes, int offset, int length) {
+        ensure(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    void put(ByteBuffer bytes) {
+        ensure(bytes.remaining());
+        buffer.put(bytes);
+    }
+
+    /**
+     * Header field name=value.
+     */
+    void putField(String name, byte[] value) {
+        putInt(name.length() + 1 + value.length);
+        putName(name);
+        put(value, 0, value.length);
+    }
+
+    /**
+     * The op field, one byte.
+     */
+    void putOpField(int opCode) {
+        putInt(RosbagHeaderFieldNames.OP.length() + 2);
+        putName(RosbagHeaderFieldNames.OP);
+        ensure(1);
+        buffer.put((byte) opCode);
+    }
+
+    void putIntField(String name, int value) {
+        putInt(name.length() + 5);
+        putName(name);
+        putInt(value);
+    }
+
+    void putLongField(String name, long value) {
+        putInt(name.length() + 9);
+        putName(name);
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    void putTimeField(String name, long nanos) {
+        putInt(name.length() + 9);
+        putName(name);
+        putTime(nanos);
+    }
+
+    void putStringField(String name, String value) {
+        putField(name, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putName(String name) {
+        ensure(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            buffer.put((byte) name.charAt(i));
+        }
+        buffer.put((byte) '=');
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.ByteSource;
+
+/**
+ * Reusable view of a record header.
+ * <p>
+ * The header bytes are read into a buffer which is reused for the next
+ * record. The field names are compared as bytes with the names of the
+ * fields needed for every record (op, conn, time), whose values are
+ * then decoded directly from the buffer. Nothing is allocated unless the
+ * header is converted to a map by {@link #toMap()}.
+ *
+ * @author Tomas Prochazka
+ */
+class RecordHeader {
+
+    private static final byte[] OP = RosbagHeaderFieldNames.OP.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONN = RosbagHeaderFieldNames.CONN.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = RosbagHeaderFieldNames.TIME.getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] array = new byte[256];
+    private ByteBuffer buffer = wrap(array);
+    /**
+     * Positions of the values of the known fields in the buffer, -1 if the
+     * field is missing.
+     */
+    private int opPosition;
+    private int opLength;
+    private int connPosition;
+    private int connLength;
+    private int timePosition;
+    private int timeLength;
+
+    private static ByteBuffer wrap(byte[] array) {
+        return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the next header from the source. The previous header is lost.
+     *
+     * @param source
+     * @param length length of the header
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException if the header fields are malformed
+     */
+    void read(ByteSource source, int length) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException {
+        if (length < 0) {
+            throw new InvalidRosbagFormatException("Header length can't be negative.");
+        }
+        if (length > array.length) {
+            array = new byte[Math.max(length, 2 * array.length)];
+            buffer = wrap(array);
+        }
+        try {
+            source.readFully(array, 0, length);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading record header.");
+        }
+        buffer.clear();
+        buffer.limit(length);
+        scan();
+    }
+
+    /**
+     * Finds the fields in the buffer and checks their lengths.
+     */
+    private void scan() throws InvalidRosbagFormatException {
+        opPosition = -1;
+        connPosition = -1;
+        timePosition = -1;
+        int position = 0;
+        int limit = buffer.limit();
+        while (position < limit) {
+            if (limit - position < 4) {
+                throw new InvalidRosbagFormatException("Header length is less then the length of all header fields.");
+            }
+            int fieldLength = buffer.getInt(position);
+            int nameStart = position + 4;
+            if (fieldLength < 0 || fieldLength > limit - nameStart) {
+                throw new InvalidRosbagFormatException("Header length is less then the length of all header fields.");
+            }
+            int end = nameStart + fieldLength;
+            int separator = nameStart;
+            while (separator < end && array[separator] != '=') {
+                separator++;
+            }
+            if (separator == end) {
+                throw new InvalidRosbagFormatException("Header field length is less than field name length.");
+            }
+            int nameLength = separator - nameStart;
+            int valueStart = separator + 1;
+            int valueLength = end - valueStart;
+            if (nameMatches(OP, nameStart, nameLength)) {
+                opPosition = valueStart;
+                opLength = valueLength;
+            } else if (nameMatches(CONN, nameStart, nameLength)) {
+                connPosition = valueStart;
+                connLength = valueLength;
+            } else if (nameMatches(TIME, nameStart, nameLength)) {
+                timePosition = valueStart;
+                timeLength = valueLength;
+            }
+            position = end;
+        }
+    }
+
+    private boolean nameMatches(byte[] name, int start, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (array[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return value of the op field
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    int getOpCode() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (opPosition == -1) {
+            throw new RequiredFieldMissingRosbagException("Each record must have 'op' field.");
+        }
+        if (opLength != 1) {
+            throw new InvalidFieldValueRosbagException("Op field's value must be 1 byte long");
+        }
+        return array[opPosition] & 0xFF;
+    }
+
+    /**
+     * @return value of the conn field
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    int getConnectionId() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (connPosition == -1) {
+            throw new RequiredFieldMissingRosbagException("Each connection and message-data record must contain the 'conn' header field.");
+        }
+        if (connLength != 4) {
+            throw new InvalidFieldValueRosbagException("Connection 'conn' field should have 4 bytes long value.");
+        }
+        return buffer.getInt(connPosition);
+    }
+
+    /**
+     * @return value of the time field as a number of nanoseconds since 1970
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    long getTimeAsNanos() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (timePosition == -1) {
+            throw new RequiredFieldMissingRosbagException("Each message-data header needs to have 'time' field.");
+        }
+        if (timeLength != 8) {
+            throw new InvalidFieldValueRosbagException("Message-data header time field's value should be 8 bytes long.");
+        }
+        int sec = buffer.getInt(timePosition);
+        int nsec = buffer.getInt(timePosition + 4);
+        return sec * 1_000_000_000L + nsec;
+    }
+
+    /**
+     * The buffer is reused for the next header, so it is valid only until
+     * the next header is read. The position and limit of the buffer must
+     * not be changed.
+     *
+     * @return the header bytes (position 0, limit equal to the header length)
+     */
+    ByteBuffer getBytes() {
+        return buffer;
+    }
+
+    /**
+     * @return copy of the header bytes which is not changed when
+     * the next header is read.
+     */
+    ByteBuffer copyBytes() {
+        return wrap(Arrays.copyOf(array, buffer.limit()));
+    }
+
+    /**
+     * @return the header fields as a name - value hash map.
+     */
+    Map<String, byte[]> toMap() {
+        return toMap(buffer);
+    }
+
+    /**
+     * Converts the header bytes (already checked by the {@link #read} method)
+     * to a name - value hash map.
+     *
+     * @param bytes header bytes, the position and limit are not changed
+     * @return
+     */
+    static Map<String, byte[]> toMap(ByteBuffer bytes) {
+        ByteBuffer header = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, byte[]> map = new HashMap<>();
+        while (header.hasRemaining()) {
+            int fieldLength = header.getInt();
+            byte[] field = new byte[fieldLength];
+            header.get(field);
+            int separator = 0;
+            while (field[separator] != '=') {
+                separator++;
+            }
+            String name = new String(field, 0, separator, StandardCharsets.ISO_8859_1);
+            map.put(name, Arrays.copyOfRange(field, separator + 1, fieldLength));
+        }
+        return map;
+    }
+
+}
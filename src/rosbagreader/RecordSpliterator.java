@@ -0,0 +1,56 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UncheckedRosbagException;
+
+/**
+ * Spliterator over the messages of a bag which is not indexed (or can't be
+ * seeked). The records are read one by one, the messages of a whole chunk
+ * are read at once. The spliterator can be split only in batches
+ * of the already read messages.
+ *
+ * @author Tomas Prochazka
+ */
+class RecordSpliterator extends Spliterators.AbstractSpliterator<RosMessageData> {
+
+    private final RosbagReader reader;
+    private final MessageFilter filter;
+    private final RecordHeader header = new RecordHeader();
+    private final List<RosMessageData> messages = new ArrayList<>();
+    private int index;
+
+    RecordSpliterator(RosbagReader reader, MessageFilter filter) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+        this.reader = reader;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super RosMessageData> action) {
+        if (index == messages.size()) {
+            messages.clear();
+            index = 0;
+            try {
+                if (!reader.readNextMessages(header, filter, messages)) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (RosbagException ex) {
+                throw new UncheckedRosbagException(ex);
+            }
+        }
+        action.accept(messages.get(index++));
+        return true;
+    }
+
+}
@@ -7,12 +7,17 @@ package rosbagreader;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
 import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
 import support.ReaderSupport;
 import rosbagreader.exceptions.UnexpectedEndOfFileException;
+import support.ByteSource;
+import support.StreamByteSource;
 
 /**
  * Provides access to the data part of the message record. Contains all
@@ -24,22 +29,66 @@ public class RosMessageData {
 
     private final int length;
     private int bytesLeft;
-    private final InputStream inputStream;
-    private final ReaderSupport readerSupport = new ReaderSupport();
+    private final ByteSource source;
+    private static final ReaderSupport readerSupport = new ReaderSupport();
     /**
      * Headers of the message data record. The header fields are stored as a
      * (String fieldName)->(byte[] fieldValue) map.
+     * If the message was created from the header bytes, the map is created
+     * only when it is requested.
      */
-    private final Map<String, byte[]> header;
+    private Map<String, byte[]> header;
+    private final ByteBuffer headerBytes;
+    private final ConnectionInfo connection;
     private final String topic;
-    private final RosTime time;
+    private RosTime time;
+    private final long timeNanos;
 
     public RosMessageData(int recordLength, InputStream inputStream, Map<String, byte[]> header, String topicName, RosTime messageTime) {
+        this(recordLength, new StreamByteSource(inputStream, recordLength), header, topicName, messageTime);
+    }
+
+    /**
+     * Creates the message data which are read from the given source.
+     * The source can be either the whole file positioned at the start
+     * of the message data or a view of the message data only.
+     *
+     * @param recordLength
+     * @param source
+     * @param header
+     * @param topicName
+     * @param messageTime
+     */
+    public RosMessageData(int recordLength, ByteSource source, Map<String, byte[]> header, String topicName, RosTime messageTime) {
         this.length = recordLength;
-        this.inputStream = inputStream;
+        this.source = source;
         this.header = header;
+        this.headerBytes = null;
+        this.connection = null;
         this.topic = topicName;
         this.time = messageTime;
+        this.timeNanos = messageTime == null ? 0 : messageTime.getTimeAsNanos();
+        this.bytesLeft = length;
+    }
+
+    /**
+     * Creates the message data whose header is kept as the raw header bytes.
+     * The header map and the time object are created only when requested.
+     *
+     * @param recordLength
+     * @param source
+     * @param headerBytes header fields as stored in the file
+     * @param connection connection of the message, null if not known
+     * @param topicName
+     * @param timeNanos time of the message in nanoseconds since 1970
+     */
+    RosMessageData(int recordLength, ByteSource source, ByteBuffer headerBytes, ConnectionInfo connection, String topicName, long timeNanos) {
+        this.length = recordLength;
+        this.source = source;
+        this.headerBytes = headerBytes;
+        this.connection = connection;
+        this.topic = topicName;
+        this.timeNanos = timeNanos;
         this.bytesLeft = length;
     }
 
@@ -73,7 +122,7 @@ public class RosMessageData {
             throw new IllegalStateException("Ros Message input stream is empty. Can't read byte.");
         }
         int res;
-        res = inputStream.read();
+        res = source.read();
         if (res == -1) {
             throw new UnexpectedEndOfRosbagFileException();
         }
@@ -94,7 +143,7 @@ public class RosMessageData {
         }
         int res;
         try {
-            res = readerSupport.readLittleEndianInt(inputStream);
+            res = source.readLittleEndianInt();
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException(ex);
         }
@@ -115,7 +164,7 @@ public class RosMessageData {
         }
         long res;
         try {
-            res = readerSupport.readLittleEndianLong(inputStream);
+            res = source.readLittleEndianLong();
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException(ex);
         }
@@ -123,6 +172,33 @@ public class RosMessageData {
         return res;
     }
 
+    /**
+     * Reads 2-byte integer (int16) from the message.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    public short readShort() throws IOException, UnexpectedEndOfRosbagFileException {
+        if (bytesLeft < 2) {
+            throw new IllegalStateException("There are not enough data left in the ROS Message to read short.");
+        }
+        int low = readByte();
+        return (short) (low | (readByte() << 8));
+    }
+
+    /**
+     * Reads 2 bytes from the message and interprets them as unsigned
+     * short (uint16).
+     *
+     * @return 0..65535
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    public int readUnsignedShort() throws IOException, UnexpectedEndOfRosbagFileException {
+        return readShort() & 0xFF_FF;
+    }
+
     /**
      * Reads 4 bytes from the message input stream and interprets them as
      * unsigned int.
@@ -150,6 +226,37 @@ public class RosMessageData {
         return readerSupport.bytesToString(bytes);
     }
 
+    /**
+     * Reads the length of an array and checks that the message contains
+     * all its elements.
+     *
+     * @param elementSize size of one element in bytes
+     * @return number of elements
+     */
+    int readArrayLength(int elementSize) throws IOException, UnexpectedEndOfRosbagFileException {
+        return checkArrayLength(readInt(), elementSize);
+    }
+
+    /**
+     * Checks that the message contains all elements of an array.
+     *
+     * @param len number of elements
+     * @param elementSize size of one element in bytes
+     * @return the number of elements
+     */
+    int checkArrayLength(int len, int elementSize) {
+        if (len < 0 || (long) len * elementSize > bytesLeft) {
+            throw new IllegalStateException("There are not enough data left in the ROS Message to read an array of " + len + " elements.");
+        }
+        return len;
+    }
+
+    private static void checkArraySize(int arrayLength, int offset, int len) {
+        if (offset < 0 || len > arrayLength - offset) {
+            throw new IllegalArgumentException("The array is too small for " + len + " elements.");
+        }
+    }
+
     /**
      * Reads a float array from the ROSBag message.
      * @return
@@ -157,13 +264,62 @@ public class RosMessageData {
      * @throws rosbagreader.exceptions.UnexpectedEndOfRosbagFileException
      */
     public float[] readFloatArray() throws IOException, UnexpectedEndOfRosbagFileException {
-        int len = readInt();
+        int len = readArrayLength(4);
         float[] res = new float[len];
-        for (int i = 0; i < len; i++) {
-            res[i] = readFloat();
-        }
+        readFloats(res, 0, len);
         return res;
     }
+
+    /**
+     * Reads a float array (float32[]) from the message to the given array.
+     * All the elements are decoded at once.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first element is written
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if the elements do not fit into
+     * the array. The length of the array has already been read.
+     */
+    public int readFloatArray(float[] values, int offset) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(4);
+        checkArraySize(values.length, offset, len);
+        readFloats(values, offset, len);
+        return len;
+    }
+
+    /**
+     * Reads a float array (float32[]) from the message and puts the elements
+     * to the buffer at its current position.
+     *
+     * @param values
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws java.nio.BufferOverflowException if the elements do not fit
+     * into the buffer. The length of the array has already been read.
+     */
+    public int readFloatArray(FloatBuffer values) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(4);
+        try {
+            source.readLittleEndianFloats(values, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= 4 * len;
+        return len;
+    }
+
+    void readFloats(float[] values, int offset, int len) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            source.readLittleEndianFloats(values, offset, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= 4 * len;
+    }
+
     /**
      * Reads a double array from the message.
      * @return
@@ -171,31 +327,162 @@ public class RosMessageData {
      * @throws UnexpectedEndOfRosbagFileException 
      */
     public double[] readDoubleArray() throws IOException, UnexpectedEndOfRosbagFileException {
-        int len = readInt();
+        int len = readArrayLength(8);
         double[] res = new double[len];
-        for (int i = 0; i < len; i++) {
-            res[i]=readDouble();
-            
-        }
+        readDoubles(res, 0, len);
         return res;
     }
 
+    /**
+     * Reads a double array (float64[]) from the message to the given array.
+     * All the elements are decoded at once.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first element is written
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if the elements do not fit into
+     * the array. The length of the array has already been read.
+     */
+    public int readDoubleArray(double[] values, int offset) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(8);
+        checkArraySize(values.length, offset, len);
+        readDoubles(values, offset, len);
+        return len;
+    }
+
+    /**
+     * Reads a double array (float64[]) from the message and puts the elements
+     * to the buffer at its current position.
+     *
+     * @param values
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws java.nio.BufferOverflowException if the elements do not fit
+     * into the buffer. The length of the array has already been read.
+     */
+    public int readDoubleArray(DoubleBuffer values) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(8);
+        try {
+            source.readLittleEndianDoubles(values, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= 8 * len;
+        return len;
+    }
+
+    void readDoubles(double[] values, int offset, int len) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            source.readLittleEndianDoubles(values, offset, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= 8 * len;
+    }
+
+    /**
+     * Reads an array of 32-bit integers (int32[]) from the message to the
+     * given array. All the elements are decoded at once.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first element is written
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if the elements do not fit into
+     * the array. The length of the array has already been read.
+     */
+    public int readIntArray(int[] values, int offset) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(4);
+        checkArraySize(values.length, offset, len);
+        readInts(values, offset, len);
+        return len;
+    }
+
+    void readInts(int[] values, int offset, int len) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            source.readLittleEndianInts(values, offset, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= 4 * len;
+    }
+
+    /**
+     * Reads an array of bytes (uint8[]) from the message to the given array.
+     * The values are not converted to 0..255, use {@code b & 0xFF}.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first element is written
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if the elements do not fit into
+     * the array. The length of the array has already been read.
+     */
+    public int readByteArray(byte[] values, int offset) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(1);
+        checkArraySize(values.length, offset, len);
+        try {
+            source.readFully(values, offset, len);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft -= len;
+        return len;
+    }
+
     /**
      * Reads an array of 32-bit unsigned integers from the ROSBag message.
+     * All the elements are decoded at once.
      *
      * @return
      * @throws java.io.IOException
      * @throws rosbagreader.exceptions.UnexpectedEndOfRosbagFileException
      */
     public long[] readUnsignedIntArray() throws IOException, UnexpectedEndOfRosbagFileException {
-        int len = readInt();
+        int len = readArrayLength(4);
         long[] res = new long[len];
-        for (int i = 0; i < len; i++) {
-            res[i] = readUnsignedInt();
-        }
+        readUnsignedInts(res, 0, len);
         return res;
     }
 
+    /**
+     * Reads an array of 32-bit unsigned integers (uint32[]) from the message
+     * to the given array. All the elements are decoded at once.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first element is written
+     * @return number of the elements read
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IllegalArgumentException if the elements do not fit into
+     * the array. The length of the array has already been read.
+     */
+    public int readUnsignedIntArray(long[] values, int offset) throws IOException, UnexpectedEndOfRosbagFileException {
+        int len = readArrayLength(4);
+        checkArraySize(values.length, offset, len);
+        readUnsignedInts(values, offset, len);
+        return len;
+    }
+
+    /**
+     * Reads the elements as ints in blocks and widens them.
+     */
+    private void readUnsignedInts(long[] values, int offset, int len) throws IOException, UnexpectedEndOfRosbagFileException {
+        int[] ints = new int[Math.min(len, 1024)];
+        for (int done = 0; done < len; done += ints.length) {
+            int count = Math.min(ints.length, len - done);
+            readInts(ints, 0, count);
+            for (int i = 0; i < count; i++) {
+                values[offset + done + i] = ints[i] & 0xFFFFFFFFL;
+            }
+        }
+    }
+
     /**
      * Reads a sub-message of type: std_msgs/Header which contains a sequence
      * number, time stamp and frame id. See:
@@ -213,6 +500,23 @@ public class RosMessageData {
         return h;
     }
 
+    /**
+     * Skips the given number of bytes of the message.
+     *
+     * @param bytesCount
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    public void skip(int bytesCount) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (bytesCount < 0 || bytesCount > bytesLeft) {
+            throw new IllegalStateException("There are not enough data in the messsage.");
+        }
+        if (!source.skip(bytesCount)) {
+            throw new UnexpectedEndOfRosbagFileException("End of file found while skipping message data bytes.");
+        }
+        bytesLeft -= bytesCount;
+    }
+
     /**
      * If the message has not been read to end, the unread bytes will be
      * skipped.
@@ -221,7 +525,7 @@ public class RosMessageData {
      */
     void finish() throws IOException, UnexpectedEndOfRosbagFileException {
         if (bytesLeft > 0) {
-            if (!readerSupport.skipExactCount(inputStream, bytesLeft)) {
+            if (!source.skip(bytesLeft)) {
                 throw new UnexpectedEndOfRosbagFileException("End of file found while skipping message data bytes.");
             }
         }
@@ -234,6 +538,9 @@ public class RosMessageData {
      * @return
      */
     public Map<String, byte[]> getHeader() {
+        if (header == null && headerBytes != null) {
+            header = RecordHeader.toMap(headerBytes);
+        }
         return header;
     }
 
@@ -246,15 +553,58 @@ public class RosMessageData {
         return topic;
     }
 
+    /**
+     * Get the connection the message was recorded on. It contains the type
+     * and the definition of the message.
+     *
+     * @return null if the connection record has not been read
+     */
+    public ConnectionInfo getConnection() {
+        return connection;
+    }
+
+    /**
+     * Decodes the rest of the message according to the message definition
+     * of its connection. The decoder compiled from the definition is cached,
+     * see {@link MessageDecoder#forConnection(ConnectionInfo)}.
+     *
+     * @return the message fields
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException if the definition can't be parsed
+     * @throws RequiredFieldMissingRosbagException if the connection record
+     * has no type or message definition
+     * @throws IllegalStateException if the connection is not known
+     */
+    public GenericMessage decode() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException {
+        if (connection == null) {
+            throw new IllegalStateException("The connection of the message is not known.");
+        }
+        return MessageDecoder.forConnection(connection).decode(this);
+    }
+
     /**
      * Get message time.
      *
      * @return
      */
     public RosTime getTime() {
+        if (time == null && headerBytes != null) {
+            time = RosTime.fromNanos(timeNanos);
+        }
         return time;
     }
 
+    /**
+     * Get message time as a number of nanoseconds since 1970.
+     * Unlike {@link #getTime()}, no object is created.
+     *
+     * @return
+     */
+    public long getTimeAsNanos() {
+        return timeNanos;
+    }
+
     /**
      * Reads the given number of bytes from the message. e.g.
      * message.readBytes(message.getBytesLeft()) will return the rest of the
@@ -270,15 +620,38 @@ public class RosMessageData {
             throw new IllegalStateException("There are not enough data in the messsage.");
         }
         byte[] bytes = new byte[bytesCount];
-
-        if (bytesCount != inputStream.read(bytes)) {
-            throw new UnexpectedEndOfRosbagFileException();
+        try {
+            source.readFully(bytes, 0, bytesCount);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
         }
         //subtracts the read amount of bytes from bytesLeft.
         bytesLeft -= bytesCount;
         return bytes;
     }
 
+    /**
+     * Reads the rest of the data as a buffer, which is a view of the source
+     * if the source supports slicing, so the data are not copied.
+     *
+     * @return
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IOException
+     */
+    ByteBuffer readRemaining() throws UnexpectedEndOfRosbagFileException, IOException {
+        if (!source.canSlice()) {
+            return ByteBuffer.wrap(readBytes(bytesLeft));
+        }
+        ByteBuffer data;
+        try {
+            data = source.slice(bytesLeft);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException(ex);
+        }
+        bytesLeft = 0;
+        return data;
+    }
+
     RosTime readTime() throws IOException, UnexpectedEndOfRosbagFileException {
         int sec = readInt();
         int nsec = readInt();
@@ -291,7 +664,7 @@ public class RosMessageData {
         }
         float f;
         try {
-            f = readerSupport.readLittleEndianFloat(inputStream);
+            f = source.readLittleEndianFloat();
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException(ex);
         }
@@ -311,7 +684,7 @@ public class RosMessageData {
         }
         double d;
         try {
-            d = readerSupport.readLittleEndianDouble(inputStream);
+            d = source.readLittleEndianDouble();
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException("Unexpected end of file while reading double from the message.");
         }
@@ -53,6 +53,14 @@ public class RosTime implements Comparable<RosTime>{
     public long getTimeAsNanos() {
         return sec*1_000_000_000L+nsec;
     }
+    /**
+     * Creates the time from the number of nanoseconds since 1970.
+     * @param nanos
+     * @return 
+     */
+    public static RosTime fromNanos(long nanos) {
+        return new RosTime((int) Math.floorMod(nanos, 1_000_000_000L), (int) Math.floorDiv(nanos, 1_000_000_000L));
+    }
     public LocalDateTime getLocalDateTime(){
         Instant instant = Instant.ofEpochMilli(sec*1000L+nsec/1_000_000);
         return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
@@ -36,6 +36,69 @@ public class RosbagHeaderFieldNames {
      * Each chunk record header needs to have this field.
      */
     public static final String COMPRESSION="compression";
+
+    /**
+     * Chunk record header field - size of the uncompressed chunk data.
+     */
+    public static final String SIZE="size";
+
+    /**
+     * Bag header field - offset of the first record after the chunk section.
+     * Value type: int64
+     */
+    public static final String INDEX_POS="index_pos";
+
+    /**
+     * Bag header field - number of unique connections in the file.
+     */
+    public static final String CONN_COUNT="conn_count";
+
+    /**
+     * Bag header field - number of chunk records in the file.
+     */
+    public static final String CHUNK_COUNT="chunk_count";
+
+    /**
+     * Version of the index data and chunk info records.
+     */
+    public static final String VER="ver";
+
+    /**
+     * Number of index entries (index data record)
+     * or number of connections (chunk info record).
+     */
+    public static final String COUNT="count";
+
+    /**
+     * Chunk info record header field - offset of the chunk record.
+     * Value type: int64
+     */
+    public static final String CHUNK_POS="chunk_pos";
+
+    /**
+     * Chunk info record header field - timestamp of the earliest message in the chunk.
+     */
+    public static final String START_TIME="start_time";
+
+    /**
+     * Chunk info record header field - timestamp of the latest message in the chunk.
+     */
+    public static final String END_TIME="end_time";
+
+    /**
+     * Connection record data field - message type.
+     */
+    public static final String TYPE="type";
+
+    /**
+     * Connection record data field - md5sum of the message type.
+     */
+    public static final String MD5SUM="md5sum";
+
+    /**
+     * Connection record data field - full text of the message definition.
+     */
+    public static final String MESSAGE_DEFINITION="message_definition";
     
     
 
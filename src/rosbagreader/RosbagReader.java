@@ -3,19 +3,37 @@
  */
 package rosbagreader;
 
-import java.io.BufferedInputStream;
+import java.io.Closeable;
 import support.ReaderSupport;
 import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
 import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import rosbagreader.exceptions.InvalidFieldValueRosbagException;
 import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RosbagException;
 import rosbagreader.exceptions.UnexpectedEndOfFileException;
+import support.BufferByteSource;
+import support.ByteSource;
+import support.ChannelByteSource;
+import support.MappedByteSource;
+import support.StreamByteSource;
 
 /**
  * Reads the structure of the ROS Bag file.
@@ -42,16 +60,20 @@ import rosbagreader.exceptions.UnexpectedEndOfFileException;
  *        }
  *}); }
  * </pre>
+ * Handlers of single topics can be registered by
+ * {@link #on(java.lang.String, rosbagreader.RosbagMessageDataParser)}
+ * and called by {@link #parseBag()} instead.
+ * Huge files should be opened by the {@link #RosbagReader(java.nio.file.Path)}
+ * constructor. The file is then mapped into memory and the records
+ * are parsed directly from the mapped buffers.
  * @author Tomas Prochazka
  *
  */
-public class RosbagReader {
+public class RosbagReader implements Closeable {
 
-    //Possible optimization for huge files: instead of using buffered input stream do buffering directly: reading could be even twice as fast.
-    //(According to: http://www.oracle.com/technetwork/articles/javase/perftuning-137844.html#)
-    // However, this would make the code much less readable.
-    private final InputStream input;
+    private final ByteSource input;
     private final ReaderSupport readerSupport = new ReaderSupport();
+    private int decompressionThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      * Creates a new rosbag reader. Opens the file and reads it's headers.
@@ -64,9 +86,107 @@ public class RosbagReader {
      * @throws InvalidFieldValueRosbagException
      */
     public RosbagReader(InputStream input) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
-        this.input = new BufferedInputStream(input);
+        this(new StreamByteSource(input));
+    }
+
+    /**
+     * Creates a new rosbag reader which maps the whole file into memory.
+     * The records are parsed directly from the mapped buffers
+     * and the message data are never copied to the heap.
+     * The reader should be closed when it is no longer needed.
+     *
+     * @param bagFile path to the ROS Bag file
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public RosbagReader(Path bagFile) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        this(new MappedByteSource(bagFile), bagFile);
+    }
+
+    /**
+     * Creates a new rosbag reader reading the channel (e.g. a file which
+     * should not be mapped into memory). The records which are not
+     * needed are skipped by changing the position of the channel.
+     * The reader should be closed when it is no longer needed.
+     *
+     * @param channel channel positioned at the beginning of the bag
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public RosbagReader(SeekableByteChannel channel) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        this(new ChannelByteSource(channel));
+    }
+
+    /**
+     * Creates a new rosbag reader reading the file through its channel.
+     * See {@link #RosbagReader(SeekableByteChannel)}.
+     *
+     * @param file file positioned at the beginning of the bag
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public RosbagReader(RandomAccessFile file) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        this(new ChannelByteSource(file));
+    }
+
+    /**
+     * Creates a new rosbag reader reading the given source.
+     * Reads the headers of the file.
+     *
+     * @param input
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public RosbagReader(ByteSource input) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        this(input, null);
+    }
+
+    private RosbagReader(ByteSource input, Path file) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        this.input = input;
+        this.file = file;
         verifyFirstLine();
         readRosbagHeader();
+        firstRecordPosition = input.position();
+    }
+
+    /**
+     * Position of the first record after the bag header.
+     */
+    private final long firstRecordPosition;
+    /**
+     * The bag file if the reader has been created for a file,
+     * used to validate the sidecar index.
+     */
+    private final Path file;
+
+    /**
+     * @return the bag file, null if the reader has not been created
+     * by {@link #RosbagReader(java.nio.file.Path)}
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the source the bag is read from.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
     }
 
     /**
@@ -82,7 +202,7 @@ public class RosbagReader {
         for (int i = 0; i < firstLine.length(); i++) {
             char c = firstLine.charAt(i);
             int code = (int) c;
-            int r = readNotEndOfFile();
+            int r = readNotEndOfFile(input);
             if (r != c) {
                 throw new InvalidRosbagFormatException("Rosbag file should start with the text:" + firstLine);
             }
@@ -91,7 +211,8 @@ public class RosbagReader {
     }
 
     /**
-     * Reads the record header and returns the fields as a name - value hash map.
+     * Reads the record header from the current position of the input file
+     * and returns the fields as a name - value hash map.
      *
      * @param bytesCount Length of the header
      * @return map of field names and field values
@@ -100,14 +221,28 @@ public class RosbagReader {
      * @throws InvalidRosbagFormatException
      */
     public Map<String, byte[]> readHeader(int bytesCount) throws UnexpectedEndOfRosbagFileException, IOException, InvalidRosbagFormatException {
+        return readHeader(input, bytesCount);
+    }
+
+    /**
+     * Reads the record header from the source and returns the fields as a name - value hash map.
+     *
+     * @param source
+     * @param bytesCount Length of the header
+     * @return map of field names and field values
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IOException
+     * @throws InvalidRosbagFormatException
+     */
+    private Map<String, byte[]> readHeader(ByteSource source, int bytesCount) throws UnexpectedEndOfRosbagFileException, IOException, InvalidRosbagFormatException {
         HashMap<String, byte[]> map = new HashMap<>();
 
         while (bytesCount > 0) {
-            int fieldLength = readInt();
+            int fieldLength = readInt(source);
             bytesCount -= 4+fieldLength; //-4 bytes for the fieldLength information itself 
             //read the field's name
             StringBuilder name = new StringBuilder();
-            for (char c = (char) readNotEndOfFile(); c != '='; c = (char) readNotEndOfFile()) {
+            for (char c = (char) readNotEndOfFile(source); c != '='; c = (char) readNotEndOfFile(source)) {
                 name.append(c);
             }
             int valueLength = fieldLength - name.length() - 1; //-1 is for the '=' sign.   
@@ -118,9 +253,7 @@ public class RosbagReader {
             } catch (NegativeArraySizeException e) {
                 throw new InvalidRosbagFormatException("Header field length is less than field name length.");
             }
-            if (valueLength != input.read(value)) {
-                throw new UnexpectedEndOfRosbagFileException();
-            }
+            readFully(source, value);
             map.put(name.toString(), value);
         }
         if (bytesCount < 0) {
@@ -130,16 +263,31 @@ public class RosbagReader {
 
     }
 
-    private int readInt() throws IOException,UnexpectedEndOfRosbagFileException {
+    private int readInt(ByteSource source) throws IOException,UnexpectedEndOfRosbagFileException {
         int result;
         try {
-            result = readerSupport.readLittleEndianInt(input);
+            result = source.readLittleEndianInt();
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException(ex);
         }
         return result;
     }
 
+    /**
+     * Fills the whole array with the bytes from the input file.
+     *
+     * @param bytes
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    private void readFully(ByteSource source, byte[] bytes) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            source.readFully(bytes, 0, bytes.length);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading record data.");
+        }
+    }
+
     /**
      * Reads one byte from the input file.
      *
@@ -147,8 +295,8 @@ public class RosbagReader {
      * @throws UnexpectedEndOfRosbagFileException if end of file was reached
      * @throws IOException
      */
-    private int readNotEndOfFile() throws UnexpectedEndOfRosbagFileException, IOException {
-        int b = input.read();
+    private int readNotEndOfFile(ByteSource source) throws UnexpectedEndOfRosbagFileException, IOException {
+        int b = source.read();
         checkEndOfFile(b);
         return b;
     }
@@ -165,10 +313,77 @@ public class RosbagReader {
         }
     }
 
-    Map<Integer, String> topics = new HashMap<>();
+    /**
+     * Connection records read so far, including the type and the message
+     * definition needed to decode the messages.
+     */
+    Map<Integer, ConnectionInfo> connections = new ConcurrentHashMap<>();
+    /**
+     * The same connections indexed by the id, with the handlers of their topics.
+     */
+    private final ConnectionTable connectionTable = new ConnectionTable();
+    /**
+     * Parser passed by {@link #parseBag()}, the messages are passed
+     * to the handlers of their connections instead.
+     */
+    private static final RosbagMessageDataParser HANDLERS = message -> {
+        throw new IllegalStateException("Messages should be passed to the handlers of their topics.");
+    };
+
+    /**
+     * Sets the number of threads which decompress the compressed (bz2, lz4)
+     * chunks ahead of the parsing thread. The messages are passed to the
+     * parser in the file order regardless of the number of threads.
+     * By default, one thread per processor is used.
+     * The threads are started only if a compressed chunk is found.
+     * @param threads number of threads, 0 means that the chunks are
+     * decompressed by the thread calling the parseBag method.
+     */
+    public void setDecompressionThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Number of threads can't be negative.");
+        }
+        decompressionThreads = threads;
+    }
+
+    public int getDecompressionThreads() {
+        return decompressionThreads;
+    }
+
+    private volatile ReaderMetrics metrics;
+
+    /**
+     * Number of the chunks whose messages were parsed so far.
+     */
+    private int chunksParsed;
+
+    /**
+     * Starts counting the records, bytes and messages read by this reader
+     * and measuring the time spent reading the chunks, the headers and
+     * in the parser. The metrics cost a few calls of System.nanoTime per
+     * record, so they are disabled by default. Next calls return the same object.
+     *
+     * @return
+     */
+    public synchronized ReaderMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new ReaderMetrics();
+            input.setIoTimer(metrics::io);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return null if the metrics have not been enabled by {@link #enableMetrics()}
+     */
+    public ReaderMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
      * The method that actually reads the data.
+     * If the source is seekable, the whole file is read
+     * even if the reader has been used before.
      * @param parser Callback that is invoked for every message in the file.
      * @throws IOException
      * @throws UnexpectedEndOfRosbagFileException
@@ -177,236 +392,1404 @@ public class RosbagReader {
      * @throws InvalidFieldValueRosbagException 
      */
     public void parseBag(RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
-        ReaderSupport.IntWrapper messageSize = new ReaderSupport.IntWrapper();
-        while (tryReadLEInteger(input, messageSize)) {
-            Map<String, byte[]> header = readHeader(messageSize.i); // Passes the header size to the readHeader method
-            int op = getOpCode(header);
-            String topic;
-            switch (op) {
-                case RosOpCodes.CHUNK:
-                    parseChunkRecord(header, parser);
-                    break;
-                case RosOpCodes.INDEX_DATA:
-                case RosOpCodes.CHUNK_INFO:
-                    //Metadata records are ignored
-                    int count = readInt();
-                    skipBytes(count);
-                    break;
-                case RosOpCodes.BAG_HEADER:
-                    throw new InvalidRosbagFormatException("Bag header shouldn't be present more then once (Only as the first record in the document).");
-                case RosOpCodes.CONNECTION:
-                    parseConnection(header, topics);
-                    break;
-                case RosOpCodes.MESSAGE_DATA:
-                    parseMessageRecord(header, parser,topics);
-                    break;
-            }
-
-        }
+        parseBag(MessageFilter.ALL, parser, false);
     }
+
     /**
-     * Decodes the topic and time information from the message header
-     * and calls the parser to parse the message.
-     * @param header 
-     * @param parser
+     * Reads only the messages of the given topics.
+     * If the bag is indexed (see {@link #isIndexed()}), the chunks
+     * which do not contain any of the topics are skipped without being read.
+     * Otherwise the whole file is read and the messages of other topics
+     * are skipped.
+     * @param topics names of the topics that should be read
+     * @param parser Callback that is invoked for every message of the topics.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
      * @throws InvalidRosbagFormatException
      * @throws RequiredFieldMissingRosbagException
-     * @throws IOException
-     * @throws InvalidFieldValueRosbagException
-     * @throws UnexpectedEndOfRosbagFileException 
-     * @return number of bytes read
+     * @throws InvalidFieldValueRosbagException 
      */
-    private int parseMessageRecord(Map<String, byte[]> header, RosbagMessageDataParser parser, Map<Integer,String> currentTopics) throws InvalidRosbagFormatException, RequiredFieldMissingRosbagException, IOException, InvalidFieldValueRosbagException, UnexpectedEndOfRosbagFileException {
-        String topic;
-        int topicId = getConnectionId(header);
-        if (!currentTopics.containsKey(topicId)) throw new InvalidRosbagFormatException("Topic with the connection id "+ topicId + " was not declared in the connection record.");
-        topic = currentTopics.get(topicId);
-        int bytesCount = readInt();
-        RosTime time = getTime(header);
-        RosMessageData message = new RosMessageData(bytesCount, input, header, topic, time);
-        parser.parseMessageData(message);
-        message.finish();
-            
-       
-        return  4+bytesCount;   
+    public void parseBag(Set<String> topics, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(new MessageFilter(topics), parser);
     }
 
     /**
-     * Reads the topic from the header field. Throws an exception if the header
-     * field is not present.
-     *
-     * @param header Connection record header.
-     * @return string containing the message topic name.
+     * Reads only the messages whose time (stored in the message data record
+     * header) is within the given time window.
+     * If the bag is indexed (see {@link #isIndexed()}), the chunks
+     * whose time range does not overlap with the window are skipped without being read.
+     * @param from start of the time window (inclusive)
+     * @param to end of the time window (inclusive)
+     * @param parser Callback that is invoked for every message in the time window.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
      * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
      */
-    private String getConnectionTopic(Map<String, byte[]> header) throws RequiredFieldMissingRosbagException {
-        if (!header.containsKey(RosbagHeaderFieldNames.TOPIC)) {
-            throw new RequiredFieldMissingRosbagException("Each connection record must contain the 'topic' header field.");
-        }
-        byte[] topicBytes = header.get(RosbagHeaderFieldNames.TOPIC);
-        String topic = new String(topicBytes, StandardCharsets.UTF_8); //only characters from ASCII 0 - 127 are expected.
-        return topic;
+    public void parseBag(RosTime from, RosTime to, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(new MessageFilter(null, from.getTimeAsNanos(), to.getTimeAsNanos()), parser);
     }
 
     /**
-     * Reads the connection id from the header field. Throws an exception if the
-     * header field is not present of if it has an invalid format.
-     *
-     * @param header Header of a connection record or message-data record.
-     * @return Unique connection ID.
-     * @throws InvalidFieldValueRosbagException
+     * Reads only the messages of the given topics within the given time window.
+     * See {@link #parseBag(java.util.Set, rosbagreader.RosbagMessageDataParser)}
+     * and {@link #parseBag(rosbagreader.RosTime, rosbagreader.RosTime, rosbagreader.RosbagMessageDataParser)}.
+     * @param topics names of the topics that should be read
+     * @param from start of the time window (inclusive)
+     * @param to end of the time window (inclusive)
+     * @param parser Callback that is invoked for every selected message.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
      * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
      */
-    private int getConnectionId(Map<String, byte[]> header) throws InvalidFieldValueRosbagException, RequiredFieldMissingRosbagException {
-        if (!header.containsKey(RosbagHeaderFieldNames.CONN)) {
-            throw new RequiredFieldMissingRosbagException("Each connection and message-data record must contain the 'conn' header field.");
-        }
-        byte[] idBytes = header.get(RosbagHeaderFieldNames.CONN);
-        if (idBytes.length != 4) {
-            throw new InvalidFieldValueRosbagException("Connection 'conn' field should have 4 bytes long value.");
-        }
-        int connId = readerSupport.readLittleEndianInt(idBytes);
-        return connId;
+    public void parseBag(Set<String> topics, RosTime from, RosTime to, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(new MessageFilter(topics, from.getTimeAsNanos(), to.getTimeAsNanos()), parser);
     }
 
     /**
-     *
-     * @param header
-     * @return
-     * @throws InvalidFieldValueRosbagException
-     * @throws RequiredFieldMissingRosbagException
+     * Registers the handler of the messages of the topic, which is called
+     * by {@link #parseBag()}. Every topic has at most one handler,
+     * the previous handler of the topic is replaced.
+     * @param topic
+     * @param handler null to remove the handler of the topic
      */
-    private int getOpCode(Map<String, byte[]> header) throws InvalidFieldValueRosbagException, RequiredFieldMissingRosbagException {
-        if (!header.containsKey(RosbagHeaderFieldNames.OP)) {
-            throw new RequiredFieldMissingRosbagException("Each record must have 'op' field.");
-        } else {
-        }
-        byte[] opBytes = header.get(RosbagHeaderFieldNames.OP);
-        if (opBytes.length != 1) {
-            throw new InvalidFieldValueRosbagException("Op field's value must be 1 byte long");
+    public void on(String topic, RosbagMessageDataParser handler) {
+        if (topic == null) {
+            throw new IllegalArgumentException("Topic can't be null.");
         }
-        int op = readerSupport.byteAsUnsigned(opBytes[0]);
-        return op;
+        connectionTable.setHandler(topic, handler);
     }
 
-    private Map<String, byte[]> bagHeader;
-
     /**
-     * The meta-data of the opened ROS Bag file as a [name - byte value]
-     * hashmap. It is initialized and loaded in the constructor of the RosbagReader.
-     *
-     * @return
+     * Registers the handler of the selected fields of the messages
+     * of the topic, which is called by {@link #parseBag()}. Only the fields
+     * selected by the projection are decoded, see {@link FieldProjection}.
+     * Replaces the previous handler of the topic.
+     * @param topic
+     * @param projection paths of the fields
+     * @param handler
      */
-    public Map<String, byte[]> getBagHeader() {
-        return bagHeader;
+    public void on(String topic, FieldProjection projection, ProjectedFieldsParser handler) {
+        double[] values = new double[projection.size()];
+        on(topic, message -> {
+            try {
+                projection.decode(message, values);
+            } catch (UnexpectedEndOfRosbagFileException ex) {
+                throw ex;
+            } catch (RosbagException ex) {
+                throw new IOException("The fields of the topic " + topic + " can't be decoded.", ex);
+            }
+            handler.parseFields(message, values);
+        });
     }
 
     /**
-     * Reads the bag header. The bag header must be the first record in the
-     * file.
-     *
-     * @throws UnexpectedEndOfRosbagFileException
+     * Passes every message to the handler registered for its topic
+     * by {@link #on(java.lang.String, rosbagreader.RosbagMessageDataParser)}.
+     * The handler of each connection is found once, when its connection
+     * record is read, the messages of the topics without a handler
+     * are skipped. In indexed bags, the chunks without any handled topic
+     * are not read at all.
      * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
      * @throws InvalidRosbagFormatException
      * @throws RequiredFieldMissingRosbagException
-     * @throws InvalidFieldValueRosbagException
+     * @throws InvalidFieldValueRosbagException 
      */
-    private void readRosbagHeader() throws UnexpectedEndOfRosbagFileException, IOException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
-        bagHeader = readHeader(readInt());
-        if (!bagHeader.containsKey(RosbagHeaderFieldNames.OP)) {
-            throw new RequiredFieldMissingRosbagException("op header field missing");
-        }
-        byte[] op = bagHeader.get(RosbagHeaderFieldNames.OP);
-        if (op.length != 1) {
-            throw new InvalidFieldValueRosbagException("op value should be only one byte long");
-        }
-        if (readerSupport.byteAsUnsigned(op[0]) != RosOpCodes.BAG_HEADER) {
-            throw new InvalidRosbagFormatException("First record in the file must be a bag header.");
-        }
-        byte[] data = readRecordDataAsBytes();
-        for (byte e : data) {
-            if (e != 0x20) {
-                throw new InvalidRosbagFormatException("Bag header data should contain only  a sequence of filling 0x20 characters");
+    public void parseBag() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(new MessageFilter(connectionTable.getHandledTopics()), HANDLERS);
+    }
+
+    /**
+     * Reads the messages accepted by the filter. Uses the index to skip
+     * whole chunks if possible.
+     */
+    private void parseBag(MessageFilter filter, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBag(filter, parser, isIndexed());
+    }
+
+    /**
+     * Reads the messages accepted by the filter and records the flight
+     * recorder event of the parsing.
+     * @param indexed whether the index should be used to find the chunks
+     */
+    private void parseBag(MessageFilter filter, RosbagMessageDataParser parser, boolean indexed) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ParseBagEvent event = new ParseBagEvent();
+        event.begin();
+        int chunksBefore = chunksParsed;
+        try {
+            if (indexed) {
+                parseIndexedBag(filter, parser);
+            } else {
+                scanBag(filter, parser);
+            }
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = file != null ? file.toString() : null;
+                event.indexed = indexed;
+                event.chunks = chunksParsed - chunksBefore;
+                event.commit();
             }
         }
     }
 
-    private byte[] readRecordDataAsBytes() throws IOException, UnexpectedEndOfRosbagFileException {
-        int bytesCount = readInt();
-        byte[] data = new byte[bytesCount];
-        if (input.read(data) != bytesCount) {
-            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading record data.");
+    /**
+     * Reads the chunks which may contain messages accepted by the filter.
+     */
+    private void parseIndexedBag(MessageFilter filter, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        BagIndex bagIndex = readIndex();
+        try (ChunkPipeline pipeline = new ChunkPipeline(decompressionThreads)) {
+            for (ChunkInfo chunk : bagIndex.getChunks()) {
+                if (!filter.acceptsChunk(chunk, bagIndex)) {
+                    continue;
+                }
+                seek(chunk.getChunkPosition());
+                long start = metrics != null ? System.nanoTime() : 0;
+                int headerSize = readInt(input);
+                Map<String, byte[]> header = readHeader(input, headerSize);
+                if (getOpCode(header) != RosOpCodes.CHUNK) {
+                    throw new InvalidRosbagFormatException("Chunk info record does not point to a chunk record.");
+                }
+                if (metrics != null) {
+                    metrics.recordHeader(RosOpCodes.CHUNK, headerSize + 4, System.nanoTime() - start);
+                }
+                parseChunkRecord(header, parser, filter, pipeline);
+            }
+            parsePendingChunks(pipeline, parser, filter);
         }
-        return data;
     }
 
     /**
-     * Skips the record data. The position in the file will move on the next
-     * records header.
-     *
+     * Parses the chunks of an indexed bag in parallel using the common
+     * fork/join pool.
+     * See {@link #parseBagParallel(java.util.concurrent.ForkJoinPool, rosbagreader.DeliveryOrder, rosbagreader.RosbagMessageDataParser)}.
+     * @param order
+     * @param parser
      * @throws IOException
      * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
      */
-    private void skipRecordData() throws IOException, UnexpectedEndOfRosbagFileException {
-        int bytesCount = readInt();
-        skipBytes(bytesCount);
-    }
-/**
- * Skips certain number of bytes in the input file.
- * @param bytesCount number of bytes to skip.
- * @throws IOException
- * @throws UnexpectedEndOfRosbagFileException 
- */
-    private void skipBytes(int bytesCount) throws IOException, UnexpectedEndOfRosbagFileException {
-        if (!readerSupport.skipExactCount(input, bytesCount)) {
-            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading record data.");
-        }
-    }
-
-    private RosTime getTime(Map<String, byte[]> header) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
-        if (!header.containsKey(RosbagHeaderFieldNames.TIME)) throw new RequiredFieldMissingRosbagException("Each message-data header needs to have 'time' field.");
-        byte[] timeBytes = header.get(RosbagHeaderFieldNames.TIME);
-        if (timeBytes.length!=8) throw new InvalidFieldValueRosbagException("Message-data header time field's value should be 8 bytes long.");
-        int timeSecs = readerSupport.readLittleEndianInt(Arrays.copyOfRange(timeBytes, 0, 4));   
-        int timeNanos = readerSupport.readLittleEndianInt(Arrays.copyOfRange(timeBytes, 4, 8));
-
-        return new RosTime(timeNanos, timeSecs);
+    public void parseBagParallel(DeliveryOrder order, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBagParallel(ForkJoinPool.commonPool(), order, parser);
     }
 
     /**
-     * Parses the content of a chunk.
-     * @param chunkHeader
-     * @param parser 
-     */
-    private void parseChunkRecord(Map<String, byte[]> chunkHeader, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, InvalidRosbagFormatException, InvalidFieldValueRosbagException {
-       // Map<Integer, String> chunkTopics = new HashMap<>();
-        int bytesSize = readInt();
+     * Parses the chunks of an indexed bag in parallel.
+     * The chunk list of the index is split into ranges which are parsed
+     * by the tasks of the pool.
+     * <p>
+     * With {@link DeliveryOrder#UNORDERED} the parser is called from the
+     * pool threads as soon as the messages are decoded, so it must be
+     * thread-safe. With {@link DeliveryOrder#ORDERED} the chunks are decoded
+     * by the pool and the parser is called only by the calling thread,
+     * in the file order.
+     * <p>
+     * If the bag is not indexed, it is parsed sequentially by
+     * {@link #parseBag(rosbagreader.RosbagMessageDataParser)}.
+     * @param pool pool whose threads parse the chunks
+     * @param order
+     * @param parser
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public void parseBagParallel(ForkJoinPool pool, DeliveryOrder order, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (!isIndexed()) {
+            parseBag(parser);
+            return;
+        }
+        ParallelChunkParser chunkParser = new ParallelChunkParser(this, readIndex().getChunks(), MessageFilter.ALL);
+        if (order == DeliveryOrder.ORDERED) {
+            chunkParser.parseOrdered(pool, parser);
+        } else {
+            chunkParser.parseUnordered(pool, parser);
+        }
+    }
+
+    /**
+     * Passes the messages of an indexed bag to the parser ordered by time.
+     * The chunks of a bag may overlap in time, so {@link #parseBag(rosbagreader.RosbagMessageDataParser)}
+     * does not deliver the messages in the time order. Here the chunks are
+     * read in the order of their start times (from the index) and
+     * the messages of the chunks which overlap the current time are merged.
+     * Only these chunks are kept in memory.
+     * The messages with the same time are passed in the file order.
+     * @param parser Callback that is invoked for every message in the file.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException also if the bag is not indexed
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public void parseBagInTimeOrder(RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBagInTimeOrder(MessageFilter.ALL, parser);
+    }
+
+    /**
+     * Passes the messages of the given topics to the parser ordered by time.
+     * See {@link #parseBagInTimeOrder(rosbagreader.RosbagMessageDataParser)}.
+     * @param topics names of the topics that should be read
+     * @param parser Callback that is invoked for every message of the topics.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException also if the bag is not indexed
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public void parseBagInTimeOrder(Set<String> topics, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        parseBagInTimeOrder(new MessageFilter(topics), parser);
+    }
+
+    private void parseBagInTimeOrder(MessageFilter filter, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        new TimeOrderedParser(this, acceptedChunks(filter), filter).parse(parser);
+    }
+
+    /**
+     * Messages of the given topics ordered by time, as they are passed
+     * by {@link #parseBagInTimeOrder(rosbagreader.RosbagMessageDataParser)}.
+     * @param topics null for all the topics
+     * @return null if the bag is not indexed or the input is not seekable
+     */
+    TimeOrderedParser timeOrderedMessages(Set<String> topics) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (!input.isSeekable() || !isIndexed()) {
+            return null;
+        }
+        MessageFilter filter = topics == null ? MessageFilter.ALL : new MessageFilter(topics);
+        return new TimeOrderedParser(this, acceptedChunks(filter), filter);
+    }
+
+    /**
+     * Returns a stream of all the messages of the bag in the file order.
+     * <p>
+     * If the bag is indexed and the source is seekable, the stream is split
+     * on the chunk boundaries, so a parallel stream reads, decompresses
+     * and parses the chunks by several threads. The chunks are read only
+     * when their messages are needed, e.g. {@code limit} or {@code findFirst}
+     * read only the first chunks.
+     * Otherwise the records are read sequentially, from the first record
+     * if the source is seekable.
+     * <p>
+     * The messages are read one chunk at a time, so each message stays valid
+     * after it has been passed to the next stage of the stream, until the reader
+     * is closed. The data of each message can be read only once.
+     * Errors found while reading are thrown as
+     * {@link java.io.UncheckedIOException} or
+     * {@link rosbagreader.exceptions.UncheckedRosbagException}.
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public Stream<RosMessageData> messages() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return messages(MessageFilter.ALL);
+    }
+
+    /**
+     * Returns a stream of the messages of the given topics.
+     * See {@link #messages()}.
+     * @param topics names of the topics that should be read
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    public Stream<RosMessageData> messages(Set<String> topics) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return messages(new MessageFilter(topics));
+    }
+
+    private Stream<RosMessageData> messages(MessageFilter filter) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (!isIndexed() || !input.isSeekable()) {
+            if (input.isSeekable()) {
+                seek(firstRecordPosition);
+            }
+            return StreamSupport.stream(new RecordSpliterator(this, filter), false);
+        }
+        return StreamSupport.stream(new ChunkSpliterator(this, acceptedChunks(filter), filter), false);
+    }
+
+    /**
+     * The chunks of the index which may contain messages accepted by the filter.
+     */
+    private List<ChunkInfo> acceptedChunks(MessageFilter filter) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        BagIndex bagIndex = readIndex();
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (ChunkInfo chunk : bagIndex.getChunks()) {
+            if (filter.acceptsChunk(chunk, bagIndex)) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads the following records of the file until some messages accepted
+     * by the filter are found. The messages of a whole chunk are read at once.
+     * @param header reused for reading the records
+     * @param filter
+     * @param messages the messages are added to this list
+     * @return false if the end of the file was reached and no message was found
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    boolean readNextMessages(RecordHeader header, MessageFilter filter, List<RosMessageData> messages) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ReaderSupport.IntWrapper messageSize = new ReaderSupport.IntWrapper();
+        synchronized (input) {
+            while (messages.isEmpty() && tryReadLEInteger(input, messageSize)) {
+                switch (readRecordHeader(input, header, messageSize.i)) {
+                    case RosOpCodes.CHUNK:
+                        Map<String, byte[]> chunkHeader = header.toMap();
+                        String compression = getCompression(chunkHeader);
+                        int size = compression.equals(ChunkPipeline.NONE) ? 0 : getIntField(chunkHeader, RosbagHeaderFieldNames.SIZE);
+                        ByteBuffer chunkData = readChunkBytes();
+                        int compressedSize = chunkData.remaining();
+                        long chunkStart = ioStart();
+                        ByteBuffer data = decompressChunk(compression, chunkData, size);
+                        ioDone(chunkStart);
+                        ReaderMetrics m = metrics;
+                        if (m != null) {
+                            m.chunk(compressedSize, data.remaining());
+                        }
+                        parseChunkData(new BufferByteSource(data), data.remaining(), null, filter, messages);
+                        break;
+                    case RosOpCodes.INDEX_DATA:
+                    case RosOpCodes.CHUNK_INFO:
+                        //Metadata records are ignored
+                        skipBytes(input, readInt(input));
+                        break;
+                    case RosOpCodes.BAG_HEADER:
+                        throw new InvalidRosbagFormatException("Bag header shouldn't be present more then once (Only as the first record in the document).");
+                    case RosOpCodes.CONNECTION:
+                        parseConnection(input, header.toMap());
+                        break;
+                    case RosOpCodes.MESSAGE_DATA:
+                        parseMessageRecord(input, header, null, filter, messages);
+                        break;
+                }
+            }
+        }
+        return !messages.isEmpty();
+    }
+
+    /**
+     * Reads all records of the file one by one.
+     * If the source is seekable, the file is read from the first record.
+     */
+    private void scanBag(MessageFilter filter, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (input.isSeekable()) {
+            seek(firstRecordPosition);
+        }
+        ReaderSupport.IntWrapper messageSize = new ReaderSupport.IntWrapper();
+        RecordHeader header = new RecordHeader();
+        try (ChunkPipeline pipeline = new ChunkPipeline(decompressionThreads)) {
+            while (tryReadLEInteger(input, messageSize)) {
+                int op = readRecordHeader(input, header, messageSize.i);
+                switch (op) {
+                    case RosOpCodes.CHUNK:
+                        parseChunkRecord(header.toMap(), parser, filter, pipeline);
+                        break;
+                    case RosOpCodes.INDEX_DATA:
+                    case RosOpCodes.CHUNK_INFO:
+                        //Metadata records are ignored
+                        int count = readInt(input);
+                        skipBytes(input, count);
+                        break;
+                    case RosOpCodes.BAG_HEADER:
+                        throw new InvalidRosbagFormatException("Bag header shouldn't be present more then once (Only as the first record in the document).");
+                    case RosOpCodes.CONNECTION:
+                        //records outside chunks must not overtake the chunks being decompressed
+                        parsePendingChunks(pipeline, parser, filter);
+                        parseConnection(input, header.toMap());
+                        break;
+                    case RosOpCodes.MESSAGE_DATA:
+                        parsePendingChunks(pipeline, parser, filter);
+                        parseMessageRecord(input, header, parser, filter, null);
+                        break;
+                }
+
+            }
+            parsePendingChunks(pipeline, parser, filter);
+        }
+    }
+    /**
+     * Decodes the topic and time information from the message header
+     * and calls the parser to parse the message.
+     * Messages which are not accepted by the filter are skipped.
+     * @param header 
+     * @param parser
+     * @param filter
+     * @param collected if not null, the messages are added to this list
+     * instead of being parsed. Their data are copied if the source
+     * does not support slicing.
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws IOException
+     * @throws InvalidFieldValueRosbagException
+     * @throws UnexpectedEndOfRosbagFileException 
+     * @return number of bytes read
+     */
+    private int parseMessageRecord(ByteSource source, RecordHeader header, RosbagMessageDataParser parser, MessageFilter filter, List<RosMessageData> collected) throws InvalidRosbagFormatException, RequiredFieldMissingRosbagException, IOException, InvalidFieldValueRosbagException, UnexpectedEndOfRosbagFileException {
+        int topicId = header.getConnectionId();
+        ConnectionTable.Entry connection = connectionTable.get(topicId);
+        if (connection == null) throw new InvalidRosbagFormatException("Topic with the connection id "+ topicId + " was not declared in the connection record.");
+        String topic = connection.connection.getTopic();
+        int bytesCount = readInt(source);
+        if (parser == HANDLERS) {
+            //messages without a handler are skipped before anything is decoded
+            parser = connection.handler;
+            if (parser == null) {
+                skipBytes(source, bytesCount);
+                return 4 + bytesCount;
+            }
+        } else if (!filter.acceptsTopic(topic)) {
+            skipBytes(source, bytesCount);
+            return 4 + bytesCount;
+        }
+        long time = header.getTimeAsNanos();
+        if (!filter.acceptsTime(time)) {
+            skipBytes(source, bytesCount);
+            return 4 + bytesCount;
+        }
+        if (metrics != null) {
+            metrics.message(topic, bytesCount);
+        }
+        if (collected != null) {
+            ByteSource data = detachedDataSource(source, bytesCount);
+            //the header buffer is reused for the next record
+            collected.add(new RosMessageData(bytesCount, data, header.copyBytes(), connection.connection, topic, time));
+            return 4 + bytesCount;
+        }
+        ByteSource data = messageDataSource(source, bytesCount);
+        RosMessageData message = new RosMessageData(bytesCount, data, header.getBytes(), connection.connection, topic, time);
+        deliver(parser, message);
+            
+       
+        return  4+bytesCount;   
+    }
+
+    /**
+     * Returns the source the message data should be read from.
+     * If the input supports slicing, the message gets its own view
+     * of the data so that nothing has to be copied or skipped.
+     *
+     * @param bytesCount size of the message data
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    private ByteSource messageDataSource(ByteSource source, int bytesCount) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (!source.canSlice()) {
+            return source;
+        }
+        try {
+            return new BufferByteSource(source.slice(bytesCount));
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading message data.");
+        }
+    }
+
+    /**
+     * Returns a source of the message data which does not depend
+     * on the position of the given source, the data are copied
+     * if the source does not support slicing.
+     *
+     * @param bytesCount size of the message data
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    private ByteSource detachedDataSource(ByteSource source, int bytesCount) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (source.canSlice()) {
+            return messageDataSource(source, bytesCount);
+        }
+        byte[] bytes = new byte[bytesCount];
+        readFully(source, bytes);
+        return new BufferByteSource(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads the topic from the header field. Throws an exception if the header
+     * field is not present.
+     *
+     * @param header Connection record header.
+     * @return string containing the message topic name.
+     * @throws RequiredFieldMissingRosbagException
+     */
+    private String getConnectionTopic(Map<String, byte[]> header) throws RequiredFieldMissingRosbagException {
+        if (!header.containsKey(RosbagHeaderFieldNames.TOPIC)) {
+            throw new RequiredFieldMissingRosbagException("Each connection record must contain the 'topic' header field.");
+        }
+        byte[] topicBytes = header.get(RosbagHeaderFieldNames.TOPIC);
+        String topic = new String(topicBytes, StandardCharsets.UTF_8); //only characters from ASCII 0 - 127 are expected.
+        return topic;
+    }
+
+    /**
+     * Reads the connection id from the header field. Throws an exception if the
+     * header field is not present of if it has an invalid format.
+     *
+     * @param header Header of a connection record or message-data record.
+     * @return Unique connection ID.
+     * @throws InvalidFieldValueRosbagException
+     * @throws RequiredFieldMissingRosbagException
+     */
+    private int getConnectionId(Map<String, byte[]> header) throws InvalidFieldValueRosbagException, RequiredFieldMissingRosbagException {
+        if (!header.containsKey(RosbagHeaderFieldNames.CONN)) {
+            throw new RequiredFieldMissingRosbagException("Each connection and message-data record must contain the 'conn' header field.");
+        }
+        byte[] idBytes = header.get(RosbagHeaderFieldNames.CONN);
+        if (idBytes.length != 4) {
+            throw new InvalidFieldValueRosbagException("Connection 'conn' field should have 4 bytes long value.");
+        }
+        int connId = readerSupport.readLittleEndianInt(idBytes);
+        return connId;
+    }
+
+    /**
+     *
+     * @param header
+     * @return
+     * @throws InvalidFieldValueRosbagException
+     * @throws RequiredFieldMissingRosbagException
+     */
+    private int getOpCode(Map<String, byte[]> header) throws InvalidFieldValueRosbagException, RequiredFieldMissingRosbagException {
+        if (!header.containsKey(RosbagHeaderFieldNames.OP)) {
+            throw new RequiredFieldMissingRosbagException("Each record must have 'op' field.");
+        } else {
+        }
+        byte[] opBytes = header.get(RosbagHeaderFieldNames.OP);
+        if (opBytes.length != 1) {
+            throw new InvalidFieldValueRosbagException("Op field's value must be 1 byte long");
+        }
+        int op = readerSupport.byteAsUnsigned(opBytes[0]);
+        return op;
+    }
+
+    private Map<String, byte[]> bagHeader;
+
+    /**
+     * The meta-data of the opened ROS Bag file as a [name - byte value]
+     * hashmap. It is initialized and loaded in the constructor of the RosbagReader.
+     *
+     * @return
+     */
+    public Map<String, byte[]> getBagHeader() {
+        return bagHeader;
+    }
+
+    /**
+     * Offset of the index section (connection and chunk info records)
+     * as stored in the bag header.
+     *
+     * @return 0 if the bag has not been indexed.
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public long getIndexPosition() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return getLongField(bagHeader, RosbagHeaderFieldNames.INDEX_POS);
+    }
+
+    /**
+     * Number of unique connections in the file as stored in the bag header.
+     *
+     * @return
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public int getConnectionCount() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return getIntField(bagHeader, RosbagHeaderFieldNames.CONN_COUNT);
+    }
+
+    /**
+     * Number of chunk records in the file as stored in the bag header.
+     *
+     * @return
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public int getChunkCount() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return getIntField(bagHeader, RosbagHeaderFieldNames.CHUNK_COUNT);
+    }
+
+    /**
+     * Whether the bag contains the index section and the source
+     * allows to read it (see {@link #readIndex()}), or the index
+     * has been read from a sidecar file (see {@link #readIndex(java.nio.file.Path)}).
+     *
+     * @return
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public boolean isIndexed() throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return index != null || input.isSeekable() && getIndexPosition() != 0;
+    }
+
+    /**
+     * Reads the connection and chunk info records from the index section at
+     * the end of the file. The source must be seekable (e.g. the file opened
+     * by {@link #RosbagReader(java.nio.file.Path)}). The topics of the
+     * connections become known, so messages can be read directly by
+     * {@link #parseMessage(rosbagreader.IndexEntry, rosbagreader.RosbagMessageDataParser)}.
+     * The index is read only once, next calls return the same object.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException if the bag has not been indexed.
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public BagIndex readIndex() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (index != null) {
+            return index;
+        }
+        long indexPosition = getIndexPosition();
+        if (indexPosition == 0) {
+            throw new InvalidRosbagFormatException("The bag has not been indexed (index_pos is 0).");
+        }
+        ensureSeekable();
+        seek(indexPosition);
+        Map<Integer, ConnectionInfo> connections = new HashMap<>();
+        List<ChunkInfo> chunks = new ArrayList<>();
+        ReaderSupport.IntWrapper headerSize = new ReaderSupport.IntWrapper();
+        while (tryReadLEInteger(input, headerSize)) {
+            Map<String, byte[]> header = readHeader(input, headerSize.i);
+            switch (getOpCode(header)) {
+                case RosOpCodes.CONNECTION:
+                    ConnectionInfo connection = readConnectionInfo(input, header);
+                    connections.put(connection.getId(), connection);
+                    addConnection(connection);
+                    break;
+                case RosOpCodes.CHUNK_INFO:
+                    chunks.add(readChunkInfo(input, header));
+                    break;
+                default:
+                    skipRecordData(input);
+            }
+        }
+        Collections.sort(chunks, (a, b) -> Long.compare(a.getChunkPosition(), b.getChunkPosition()));
+        index = new BagIndex(this, connections, chunks);
+        return index;
+    }
+
+    private BagIndex index;
+
+    /**
+     * Reads the index from a sidecar file (e.g. flight.bag.idx), which is
+     * created if it does not exist. If the bag has been changed
+     * since the file was written (its size or modification time is different),
+     * the file is written again.
+     * <p>
+     * The sidecar file is created from the index section of the bag, or
+     * by reading all the records of the bag if it has not been indexed
+     * (e.g. if the recording was interrupted, an incomplete last record is ignored).
+     * The index entries are memory-mapped from the file, so opening the index
+     * of a large bag takes only as long as reading its connections
+     * and chunk infos.
+     * <p>
+     * After the index has been read, the bag is considered indexed
+     * (see {@link #isIndexed()}) even if it does not contain the index section,
+     * so the index is used by parseBag to skip chunks and by {@link #parseMessage(rosbagreader.IndexEntry, rosbagreader.RosbagMessageDataParser)}.
+     *
+     * @param indexFile
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     * @throws UnsupportedOperationException if the reader has not been created
+     * by {@link #RosbagReader(java.nio.file.Path)}
+     */
+    public BagIndex readIndex(Path indexFile) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (file == null) {
+            throw new UnsupportedOperationException("The sidecar index requires a reader created by RosbagReader(Path).");
+        }
+        BagIndex sidecar = SidecarIndex.read(this, indexFile, file);
+        if (sidecar == null) {
+            sidecar = getIndexPosition() != 0 ? readIndex() : scanIndex();
+            SidecarIndex.write(sidecar, indexFile, file);
+        }
+        for (ConnectionInfo connection : sidecar.getConnections()) {
+            addConnection(connection);
+        }
+        index = sidecar;
+        return index;
+    }
+
+    /**
+     * Builds the index by reading all the records of a bag which has not been
+     * indexed. An incomplete last record is ignored. Messages outside
+     * of chunks are not indexed, they can't be located by the index entries.
+     *
+     * @return index with all the entries
+     */
+    private BagIndex scanIndex() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ensureSeekable();
+        Map<Integer, ConnectionInfo> bagConnections = new HashMap<>();
+        List<ChunkInfo> chunks = new ArrayList<>();
+        Map<Integer, ConnectionIndex.Builder> builders = new HashMap<>();
+        ReaderSupport.IntWrapper headerSize = new ReaderSupport.IntWrapper();
+        RecordHeader header = new RecordHeader();
+        synchronized (input) {
+            seek(firstRecordPosition);
+            try {
+                while (tryReadLEInteger(input, headerSize)) {
+                    long position = input.position() - 4;
+                    header.read(input, headerSize.i);
+                    switch (header.getOpCode()) {
+                        case RosOpCodes.CHUNK:
+                            Map<String, byte[]> chunkHeader = header.toMap();
+                            String compression = getCompression(chunkHeader);
+                            int size = compression.equals(ChunkPipeline.NONE) ? 0 : getIntField(chunkHeader, RosbagHeaderFieldNames.SIZE);
+                            ChunkInfo chunk = indexChunk(position, decompressChunk(compression, readChunkBytes(), size), bagConnections, builders);
+                            if (chunk != null) {
+                                chunks.add(chunk);
+                            }
+                            break;
+                        case RosOpCodes.CONNECTION:
+                            indexConnection(input, header.toMap(), bagConnections);
+                            break;
+                        case RosOpCodes.BAG_HEADER:
+                            throw new InvalidRosbagFormatException("Bag header shouldn't be present more then once (Only as the first record in the document).");
+                        default:
+                            skipRecordData(input);
+                    }
+                }
+            } catch (UnexpectedEndOfRosbagFileException ex) {
+                //the last record has not been written completely
+            }
+        }
+        Map<Integer, ConnectionIndex> entries = new HashMap<>();
+        for (Map.Entry<Integer, ConnectionIndex.Builder> e : builders.entrySet()) {
+            entries.put(e.getKey(), e.getValue().build());
+        }
+        return new BagIndex(this, bagConnections, chunks, entries);
+    }
+
+    /**
+     * Adds the index entries of the messages in the chunk.
+     *
+     * @param chunkPosition position of the chunk record in the file
+     * @param data uncompressed chunk data
+     * @return info of the chunk, null if the chunk contains no messages
+     */
+    private ChunkInfo indexChunk(long chunkPosition, ByteBuffer data, Map<Integer, ConnectionInfo> bagConnections, Map<Integer, ConnectionIndex.Builder> builders) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        BufferByteSource source = new BufferByteSource(data);
+        int chunkSize = data.remaining();
+        RecordHeader header = new RecordHeader();
+        Map<Integer, Integer> counts = new TreeMap<>();
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+        int offset = 0;
+        while (offset < chunkSize) {
+            header.read(source, readInt(source));
+            switch (header.getOpCode()) {
+                case RosOpCodes.CONNECTION:
+                    indexConnection(source, header.toMap(), bagConnections);
+                    break;
+                case RosOpCodes.MESSAGE_DATA:
+                    int connectionId = header.getConnectionId();
+                    long time = header.getTimeAsNanos();
+                    builders.computeIfAbsent(connectionId, ConnectionIndex.Builder::new).add(time, chunkPosition, offset);
+                    counts.merge(connectionId, 1, Integer::sum);
+                    startTime = Math.min(startTime, time);
+                    endTime = Math.max(endTime, time);
+                    skipRecordData(source);
+                    break;
+                default:
+                    skipRecordData(source);
+            }
+            offset = (int) source.position();
+        }
+        if (counts.isEmpty()) {
+            return null;
+        }
+        int[] connectionIds = new int[counts.size()];
+        int[] messageCounts = new int[counts.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            connectionIds[i] = e.getKey();
+            messageCounts[i] = e.getValue();
+            i++;
+        }
+        return new ChunkInfo(chunkPosition, startTime, endTime, connectionIds, messageCounts);
+    }
+
+    /**
+     * Reads the connection record if the connection is not known yet,
+     * otherwise skips it.
+     */
+    private void indexConnection(ByteSource source, Map<String, byte[]> header, Map<Integer, ConnectionInfo> bagConnections) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (bagConnections.containsKey(getConnectionId(header))) {
+            skipRecordData(source);
+            return;
+        }
+        ConnectionInfo connection = readConnectionInfo(source, header);
+        bagConnections.put(connection.getId(), connection);
+        addConnection(connection);
+    }
+
+    /**
+     * Adds the connection to the connections of the reader unless
+     * a connection with the same id is already known.
+     */
+    private void addConnection(ConnectionInfo connection) {
+        ConnectionInfo known = connections.putIfAbsent(connection.getId(), connection);
+        connectionTable.put(known != null ? known : connection);
+    }
+
+    /**
+     * Reads the data of a connection record.
+     *
+     * @param header header of the connection record
+     * @return
+     */
+    private ConnectionInfo readConnectionInfo(ByteSource source, Map<String, byte[]> header) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        int connectionId = getConnectionId(header);
+        String topic = getConnectionTopic(header);
+        Map<String, byte[]> fields = readHeader(source, readInt(source));
+        return new ConnectionInfo(connectionId, topic, fields);
+    }
+
+    /**
+     * Reads the data of a chunk info record.
+     *
+     * @param header header of the chunk info record
+     * @return
+     */
+    private ChunkInfo readChunkInfo(ByteSource source, Map<String, byte[]> header) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        checkVersion(header);
+        long chunkPosition = getLongField(header, RosbagHeaderFieldNames.CHUNK_POS);
+        long startTime = getTimeField(header, RosbagHeaderFieldNames.START_TIME).getTimeAsNanos();
+        long endTime = getTimeField(header, RosbagHeaderFieldNames.END_TIME).getTimeAsNanos();
+        int count = getIntField(header, RosbagHeaderFieldNames.COUNT);
+        int dataSize = readInt(source);
+        if (count < 0 || dataSize != count * 8) {
+            throw new InvalidRosbagFormatException("Chunk info record data should contain 'count' pairs of connection id and message count.");
+        }
+        int[] connectionIds = new int[count];
+        int[] messageCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            connectionIds[i] = readInt(source);
+            messageCounts[i] = readInt(source);
+        }
+        return new ChunkInfo(chunkPosition, startTime, endTime, connectionIds, messageCounts);
+    }
+
+    /**
+     * Reads the index data records following the given chunks.
+     * Used by the {@link BagIndex} to load the index entries.
+     *
+     * @param chunks
+     * @return index of each connection which has some messages in the chunks.
+     */
+    Map<Integer, ConnectionIndex> readIndexEntries(List<ChunkInfo> chunks) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ensureSeekable();
+        Map<Integer, ConnectionIndex.Builder> builders = new HashMap<>();
+        for (ChunkInfo chunk : chunks) {
+            seek(chunk.getChunkPosition());
+            if (getOpCode(readHeader(input, readInt(input))) != RosOpCodes.CHUNK) {
+                throw new InvalidRosbagFormatException("Chunk info record does not point to a chunk record.");
+            }
+            skipRecordData(input);
+            //the chunk is followed by one index data record for each connection in the chunk
+            for (int i = 0; i < chunk.getConnectionCount(); i++) {
+                Map<String, byte[]> header = readHeader(input, readInt(input));
+                if (getOpCode(header) != RosOpCodes.INDEX_DATA) {
+                    throw new InvalidRosbagFormatException("Chunk record should be followed by the index data records.");
+                }
+                checkVersion(header);
+                int connectionId = getConnectionId(header);
+                int count = getIntField(header, RosbagHeaderFieldNames.COUNT);
+                int dataSize = readInt(input);
+                if (count < 0 || dataSize != count * 12) {
+                    throw new InvalidRosbagFormatException("Index data record data should contain 'count' pairs of time and offset.");
+                }
+                ConnectionIndex.Builder builder = builders.get(connectionId);
+                if (builder == null) {
+                    builder = new ConnectionIndex.Builder(connectionId);
+                    builders.put(connectionId, builder);
+                }
+                for (int j = 0; j < count; j++) {
+                    int sec = readInt(input);
+                    int nsec = readInt(input);
+                    builder.add(new RosTime(nsec, sec).getTimeAsNanos(), chunk.getChunkPosition(), readInt(input));
+                }
+            }
+        }
+        Map<Integer, ConnectionIndex> res = new HashMap<>();
+        for (Map.Entry<Integer, ConnectionIndex.Builder> e : builders.entrySet()) {
+            res.put(e.getKey(), e.getValue().build());
+        }
+        return res;
+    }
+
+    /**
+     * Reads one message which is located using the index entry
+     * and calls the parser to parse it.
+     * The topics must be known, so the index has to be read
+     * by {@link #readIndex()} first.
+     *
+     * @param entry
+     * @param parser
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    public void parseMessage(IndexEntry entry, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ensureSeekable();
+        seek(entry.getChunkPosition());
+        Map<String, byte[]> chunkHeader = readHeader(input, readInt(input));
+        if (getOpCode(chunkHeader) != RosOpCodes.CHUNK) {
+            throw new InvalidRosbagFormatException("Index entry does not point to a chunk record.");
+        }
+        String compression = getCompression(chunkHeader);
+        if (compression.equals(ChunkPipeline.NONE)) {
+            parseMessageInChunk(input, readInt(input), entry, parser);
+            return;
+        }
+        //only one chunk is needed, it is decompressed by this thread
+        try (ChunkPipeline pipeline = new ChunkPipeline(0)) {
+            int size = getIntField(chunkHeader, RosbagHeaderFieldNames.SIZE);
+            pipeline.submit(input, compression, readInt(input), size);
+            ChunkPipeline.Chunk chunk = pipeline.take();
+            try {
+                ByteBuffer data = chunk.getData();
+                parseMessageInChunk(new BufferByteSource(data), data.remaining(), entry, parser);
+            } finally {
+                pipeline.release(chunk);
+            }
+        }
+    }
+
+    /**
+     * Parses the message at the offset of the index entry.
+     * @param source source positioned at the beginning of the chunk data
+     * @param chunkSize size of the (uncompressed) chunk data
+     */
+    private void parseMessageInChunk(ByteSource source, int chunkSize, IndexEntry entry, RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        if (entry.getOffset() < 0 || entry.getOffset() >= chunkSize) {
+            throw new InvalidRosbagFormatException("Index entry offset is outside of the chunk.");
+        }
+        skipBytes(source, entry.getOffset());
+        RecordHeader header = new RecordHeader();
+        header.read(source, readInt(source));
+        if (header.getOpCode() != RosOpCodes.MESSAGE_DATA) {
+            throw new InvalidRosbagFormatException("Index entry does not point to a message data record.");
+        }
+        parseMessageRecord(source, header, parser, MessageFilter.ALL, null);
+    }
+
+    private void ensureSeekable() {
+        if (!input.isSeekable()) {
+            throw new UnsupportedOperationException("Random access requires a seekable source, e.g. a file opened by RosbagReader(Path).");
+        }
+    }
+
+    private void seek(long position) throws IOException, UnexpectedEndOfRosbagFileException {
+        try {
+            input.seek(position);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException("Position " + position + " is behind the end of the rosbag file.");
+        }
+    }
+
+    /**
+     * Index data and chunk info records are supported only in version 1.
+     */
+    private void checkVersion(Map<String, byte[]> header) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        int version = getIntField(header, RosbagHeaderFieldNames.VER);
+        if (version != 1) {
+            throw new InvalidFieldValueRosbagException("Unsupported index record version " + version + ".");
+        }
+    }
+
+    /**
+     * Returns the value of the header field which must have the given length.
+     */
+    private byte[] getField(Map<String, byte[]> header, String name, int length) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ensureFieldExist(header, name);
+        byte[] value = header.get(name);
+        if (value.length != length) {
+            throw new InvalidFieldValueRosbagException("Header field '" + name + "' should be " + length + " bytes long.");
+        }
+        return value;
+    }
+
+    private int getIntField(Map<String, byte[]> header, String name) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return readerSupport.readLittleEndianInt(getField(header, name, 4));
+    }
+
+    private long getLongField(Map<String, byte[]> header, String name) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        return readerSupport.readLittleEndianLong(getField(header, name, 8));
+    }
+
+    /**
+     * Reads a time field stored as two 4-byte integers (seconds, nanoseconds).
+     */
+    private RosTime getTimeField(Map<String, byte[]> header, String name) throws RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        byte[] timeBytes = getField(header, name, 8);
+        int timeSecs = readerSupport.readLittleEndianInt(timeBytes, 0);
+        int timeNanos = readerSupport.readLittleEndianInt(timeBytes, 4);
+        return new RosTime(timeNanos, timeSecs);
+    }
+
+    /**
+     * Reads the bag header. The bag header must be the first record in the
+     * file.
+     *
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws IOException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    private void readRosbagHeader() throws UnexpectedEndOfRosbagFileException, IOException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        bagHeader = readHeader(input, readInt(input));
+        if (!bagHeader.containsKey(RosbagHeaderFieldNames.OP)) {
+            throw new RequiredFieldMissingRosbagException("op header field missing");
+        }
+        byte[] op = bagHeader.get(RosbagHeaderFieldNames.OP);
+        if (op.length != 1) {
+            throw new InvalidFieldValueRosbagException("op value should be only one byte long");
+        }
+        if (readerSupport.byteAsUnsigned(op[0]) != RosOpCodes.BAG_HEADER) {
+            throw new InvalidRosbagFormatException("First record in the file must be a bag header.");
+        }
+        byte[] data = readRecordDataAsBytes(input);
+        for (byte e : data) {
+            if (e != 0x20) {
+                throw new InvalidRosbagFormatException("Bag header data should contain only  a sequence of filling 0x20 characters");
+            }
+        }
+    }
+
+    private byte[] readRecordDataAsBytes(ByteSource source) throws IOException, UnexpectedEndOfRosbagFileException {
+        int bytesCount = readInt(source);
+        byte[] data = new byte[bytesCount];
+        readFully(source, data);
+        return data;
+    }
+
+    /**
+     * Skips the record data. The position in the file will move on the next
+     * records header.
+     *
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    private void skipRecordData(ByteSource source) throws IOException, UnexpectedEndOfRosbagFileException {
+        int bytesCount = readInt(source);
+        skipBytes(source, bytesCount);
+    }
+/**
+ * Skips certain number of bytes in the input file.
+ * @param bytesCount number of bytes to skip.
+ * @throws IOException
+ * @throws UnexpectedEndOfRosbagFileException 
+ */
+    private void skipBytes(ByteSource source, int bytesCount) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (!source.skip(bytesCount)) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading record data.");
+        }
+        if (metrics != null) {
+            metrics.skipped(bytesCount);
+        }
+    }
+
+    /**
+     * Reads the header of a record and counts it in the metrics.
+     *
+     * @param source
+     * @param header
+     * @param headerSize
+     * @return op code of the record
+     */
+    private int readRecordHeader(ByteSource source, RecordHeader header, int headerSize) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ReaderMetrics m = metrics;
+        if (m == null) {
+            header.read(source, headerSize);
+            return header.getOpCode();
+        }
+        long start = System.nanoTime();
+        header.read(source, headerSize);
+        int opCode = header.getOpCode();
+        m.recordHeader(opCode, headerSize + 4, System.nanoTime() - start);
+        return opCode;
+    }
+
+    /**
+     * Passes the message to the parser, measures the time spent in the parser
+     * if the metrics are enabled, and skips the data the parser has not read.
+     *
+     * @param parser
+     * @param message
+     */
+    void deliver(RosbagMessageDataParser parser, RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+        ReaderMetrics m = metrics;
+        MessageEvent event = new MessageEvent();
+        event.begin();
+        if (m == null) {
+            parser.parseMessageData(message);
+        } else {
+            long start = System.nanoTime();
+            parser.parseMessageData(message);
+            m.parsed(message.getTopic(), System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.topic = message.getTopic();
+            event.connection = message.getConnection() != null ? message.getConnection().getId() : -1;
+            event.size = message.getRecordLength();
+            event.time = message.getTimeAsNanos();
+            event.commit();
+        }
+        message.finish();
+    }
+
+    /**
+     * Parses a chunk record whose header has already been read.
+     * Uncompressed chunks are parsed directly from the input,
+     * compressed chunks are passed to the pipeline which decompresses them
+     * in the background. The chunks which are already in the pipeline
+     * are always parsed first, so the messages are passed
+     * to the parser in the file order.
+     * @param chunkHeader header of the chunk record
+     * @param parser
+     * @param filter
+     * @param pipeline
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidRosbagFormatException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    private void parseChunkRecord(Map<String, byte[]> chunkHeader, RosbagMessageDataParser parser, MessageFilter filter, ChunkPipeline pipeline) throws IOException, UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, InvalidRosbagFormatException, InvalidFieldValueRosbagException {
+        String compression = getCompression(chunkHeader);
+        if (compression.equals(ChunkPipeline.NONE)) {
+            parsePendingChunks(pipeline, parser, filter);
+            int bytesSize = readInt(input);
+            if (metrics != null) {
+                metrics.chunk(bytesSize, bytesSize);
+            }
+            ChunkEvent event = new ChunkEvent();
+            event.begin();
+            long offset = input.position();
+            parseChunkData(input, bytesSize, parser, filter, null);
+            chunksParsed++;
+            commit(event, offset, compression, bytesSize, bytesSize);
+            return;
+        }
+        int size = getIntField(chunkHeader, RosbagHeaderFieldNames.SIZE);
+        int compressedSize = readInt(input);
+        while (pipeline.isFull()) {
+            parseNextChunk(pipeline, parser, filter);
+        }
+        pipeline.submit(input, compression, compressedSize, size);
+        if (metrics != null) {
+            metrics.chunk(compressedSize, size);
+        }
+    }
+
+    /**
+     * Parses all the chunks which are in the pipeline.
+     */
+    private void parsePendingChunks(ChunkPipeline pipeline, RosbagMessageDataParser parser, MessageFilter filter) throws IOException, UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, InvalidRosbagFormatException, InvalidFieldValueRosbagException {
+        while (!pipeline.isEmpty()) {
+            parseNextChunk(pipeline, parser, filter);
+        }
+    }
+
+    /**
+     * Waits for the oldest chunk in the pipeline to be decompressed and parses it.
+     */
+    private void parseNextChunk(ChunkPipeline pipeline, RosbagMessageDataParser parser, MessageFilter filter) throws IOException, UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, InvalidRosbagFormatException, InvalidFieldValueRosbagException {
+        ChunkEvent event = new ChunkEvent();
+        event.begin();
+        long start = metrics != null ? System.nanoTime() : 0;
+        ChunkPipeline.Chunk chunk = pipeline.take();
+        if (metrics != null) {
+            metrics.io(System.nanoTime() - start);
+        }
+        try {
+            ByteBuffer data = chunk.getData();
+            int size = data.remaining();
+            parseChunkData(new BufferByteSource(data), size, parser, filter, null);
+            chunksParsed++;
+            commit(event, chunk.getOffset(), chunk.getCompression(), chunk.getCompressedSize(), size);
+        } finally {
+            pipeline.release(chunk);
+        }
+    }
+
+    /**
+     * Ends the flight recorder event of a parsed chunk and commits it
+     * if the event is enabled.
+     */
+    private static void commit(ChunkEvent event, long offset, String compression, int compressedSize, int size) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.offset = offset;
+            event.compression = compression;
+            event.compressedSize = compressedSize;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the data of the chunk and decompresses them if needed.
+     * Only the reading of the file is synchronized, so the method can be
+     * called by several threads at once.
+     * @param chunk
+     * @return buffer containing exactly the uncompressed chunk data
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    ByteBuffer readChunkData(ChunkInfo chunk) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        String compression;
+        int size = 0;
+        ByteBuffer data;
+        synchronized (input) {
+            seek(chunk.getChunkPosition());
+            Map<String, byte[]> header = readHeader(input, readInt(input));
+            if (getOpCode(header) != RosOpCodes.CHUNK) {
+                throw new InvalidRosbagFormatException("Chunk info record does not point to a chunk record.");
+            }
+            compression = getCompression(header);
+            if (!compression.equals(ChunkPipeline.NONE)) {
+                size = getIntField(header, RosbagHeaderFieldNames.SIZE);
+            }
+            data = readChunkBytes();
+        }
+        int compressedSize = data.remaining();
+        long start = ioStart();
+        data = decompressChunk(compression, data, size);
+        ioDone(start);
+        ReaderMetrics m = metrics;
+        if (m != null) {
+            m.chunk(compressedSize, data.remaining());
+        }
+        return data;
+    }
+
+    /**
+     * Reads the (compressed) data of the chunk record whose header has been read.
+     * @return slice of the input or a copy of the data if the input can't slice
+     */
+    private ByteBuffer readChunkBytes() throws IOException, UnexpectedEndOfRosbagFileException {
+        int bytesCount = readInt(input);
+        try {
+            if (input.canSlice()) {
+                return input.slice(bytesCount);
+            }
+            byte[] bytes = new byte[bytesCount];
+            input.readFully(bytes, 0, bytesCount);
+            return ByteBuffer.wrap(bytes);
+        } catch (UnexpectedEndOfFileException ex) {
+            throw new UnexpectedEndOfRosbagFileException("End of rosbag file found while reading chunk data.");
+        }
+    }
+
+    /**
+     * @return start of the measured decompression, 0 if the metrics are disabled
+     */
+    private long ioStart() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts the time since {@link #ioStart()} with the time spent reading,
+     * the reads of the input are measured by the input itself.
+     */
+    private void ioDone(long start) {
+        ReaderMetrics m = metrics;
+        if (m != null && start != 0) {
+            m.io(System.nanoTime() - start);
+        }
+    }
+
+    private static ByteBuffer decompressChunk(String compression, ByteBuffer data, int size) throws IOException, InvalidRosbagFormatException {
+        if (compression.equals(ChunkPipeline.NONE)) {
+            return data;
+        }
+        return ChunkPipeline.decompress(compression, data, size);
+    }
+
+    /**
+     * Reads the chunk and returns its messages accepted by the filter.
+     * The messages do not depend on the position of the input.
+     * @param chunk
+     * @param filter
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    List<RosMessageData> readChunkMessages(ChunkInfo chunk, MessageFilter filter) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        ByteBuffer data = readChunkData(chunk);
+        List<RosMessageData> messages = new ArrayList<>();
+        parseChunkData(new BufferByteSource(data), data.remaining(), null, filter, messages);
+        return messages;
+    }
+
+    /**
+     * Parses the records contained in the (uncompressed) chunk data.
+     * @param source source positioned at the beginning of the chunk data
+     * @param bytesSize size of the chunk data
+     * @param parser
+     * @param filter
+     * @param collected if not null, the messages are added to this list
+     * instead of being parsed.
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidRosbagFormatException
+     * @throws InvalidFieldValueRosbagException 
+     */
+    void parseChunkData(ByteSource source, int bytesSize, RosbagMessageDataParser parser, MessageFilter filter, List<RosMessageData> collected) throws IOException, UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, InvalidRosbagFormatException, InvalidFieldValueRosbagException {
         int bytesRead=0;
-        ensureFieldExist(chunkHeader,RosbagHeaderFieldNames.COMPRESSION);
-        String compression = new String(chunkHeader.get(RosbagHeaderFieldNames.COMPRESSION),StandardCharsets.UTF_8);
-        //If required: get bz2 library, get uncompressed size length (size field), wrap InputStream
-        if (!compression.equals("none")) throw new UnsupportedOperationException("Chunks with compression not supported yet."); 
+        RecordHeader header = new RecordHeader();
         
         while(bytesRead<bytesSize) {
             //bytesRead+=8; // For header size integer and data size integer.
-            int headerSize = readInt();
-            Map<String, byte[]> header = readHeader(headerSize);
+            int headerSize = readInt(source);
+            int opCode = readRecordHeader(source, header, headerSize);
             bytesRead+=headerSize+4; //+4 for the "headerSize"  size
-            int opCode = getOpCode(header);
             switch (opCode) {
                 case RosOpCodes.CONNECTION:
-//                    bytesRead+= parseConnection(header, chunkTopics);
-                    bytesRead+= parseConnection(header, topics);
+                    bytesRead+= parseConnection(source, header.toMap());
                     break;
                 case RosOpCodes.MESSAGE_DATA:
-//                    bytesRead+=parseMessageRecord(header, parser, chunkTopics);
-                    bytesRead+=parseMessageRecord(header, parser, topics);
+                    bytesRead+=parseMessageRecord(source, header, parser, filter, collected);
                     break;
                 case RosOpCodes.INDEX_DATA:
                 case RosOpCodes.CHUNK_INFO:
                     //Metadata records are ignored
-                    int count = readInt();
-                    skipBytes(count);
+                    int count = readInt(source);
+                    skipBytes(source, count);
                     bytesRead+=count+4;
                     break;
                 default:
@@ -419,45 +1802,61 @@ public class RosbagReader {
     }
 /**
  * Obtains the connection id and topic from the header.
- * The content of the record (details about the connection) is ignored.
+ * The content of the record (type, md5sum, message definition...) is read
+ * only for the first record of the connection, the records repeated in the
+ * following chunks are skipped.
  * @param header The header of a connection record
- * @param chunkTopics Map of topics to which the pair id->topic will be added.
  * @return number of bytes read
  * @throws UnexpectedEndOfRosbagFileException
  * @throws RequiredFieldMissingRosbagException
  * @throws IOException
  * @throws InvalidFieldValueRosbagException 
+ * @throws InvalidRosbagFormatException 
  */
-    private int parseConnection(Map<String, byte[]> header, Map<Integer, String> chunkTopics) throws UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, IOException, InvalidFieldValueRosbagException {
+    private int parseConnection(ByteSource source, Map<String, byte[]> header) throws UnexpectedEndOfRosbagFileException, RequiredFieldMissingRosbagException, IOException, InvalidFieldValueRosbagException, InvalidRosbagFormatException {
         int connectionId = getConnectionId(header);
-        String topicName = getConnectionTopic(header);
-        chunkTopics.put(connectionId, topicName);
-        int connectionData=readInt();
-        //Connection details are ignored
-        skipBytes(connectionData);
-        //The data could be obtained by:
-        //Map<String, byte[]> info = readHeader(connectionId);
+        int connectionData=readInt(source);
+        ConnectionInfo connection = connections.get(connectionId);
+        if (connection != null) {
+            //the connection is already in the table, see addConnection
+            skipBytes(source, connectionData);
+        } else {
+            String topicName = getConnectionTopic(header);
+            Map<String, byte[]> fields = readHeader(source, connectionData);
+            addConnection(new ConnectionInfo(connectionId, topicName, fields));
+        }
         return connectionData+4;
     }
 
+    /**
+     * Returns the compression of the chunk and checks that it is supported.
+     * @param chunkHeader 
+     * @return none, bz2 or lz4
+     */
+    private String getCompression(Map<String, byte[]> chunkHeader) throws RequiredFieldMissingRosbagException {
+        ensureFieldExist(chunkHeader,RosbagHeaderFieldNames.COMPRESSION);
+        String compression = new String(chunkHeader.get(RosbagHeaderFieldNames.COMPRESSION),StandardCharsets.UTF_8);
+        if (!compression.equals(ChunkPipeline.NONE) && !ChunkPipeline.isSupported(compression)) throw new UnsupportedOperationException("Chunks with compression " + compression + " not supported."); 
+        return compression;
+    }
+
     private void ensureFieldExist(Map<String, byte[]> header, String key) throws RequiredFieldMissingRosbagException {
         if (!header.containsKey(key)) {
             throw new RequiredFieldMissingRosbagException("Required field with key "+key+" not found.");
         }
     }
         /**
-     * Only wraps the {@link ReaderSupport#tryReadLEInteger(java.io.InputStream, java.lang.Integer) } 
+     * Only wraps the {@link ByteSource#tryReadLittleEndianInt(support.ReaderSupport.IntWrapper) } 
      * to throw the proper exception. 
-     * @see ReaderSupport#tryReadLEInteger(java.io.InputStream, java.lang.Integer) 
-     * @param s
+     * @see ByteSource#tryReadLittleEndianInt(support.ReaderSupport.IntWrapper) 
      * @param result
      * @return
      * @throws IOException
      * @throws UnexpectedEndOfRosbagFileException 
      */
-    private boolean tryReadLEInteger(InputStream s, ReaderSupport.IntWrapper result) throws IOException, UnexpectedEndOfRosbagFileException {
+    private boolean tryReadLEInteger(ByteSource source, ReaderSupport.IntWrapper result) throws IOException, UnexpectedEndOfRosbagFileException {
         try {
-            return readerSupport.tryReadLEInteger(s, result);
+            return source.tryReadLittleEndianInt(result);
         } catch (UnexpectedEndOfFileException ex) {
             throw new UnexpectedEndOfRosbagFileException("End of file found while reading integer.");
         }
@@ -0,0 +1,601 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Writes a ROS Bag 2.0 file.
+ * <p>
+ * The messages are added to a chunk until the chunk reaches the chunk size.
+ * Finished chunks are compressed by a pool of worker threads while
+ * the caller adds the messages of the next chunks, and they are written
+ * in their order, each followed by its index data records. The connection
+ * and chunk info records are written at the end by {@link #close()},
+ * which also updates the bag header.
+ * <pre>
+ * try (RosbagWriter writer = new RosbagWriter(file, "lz4")) {
+ *     int conn = writer.addConnection("/ardrone/navdata", type, md5sum, definition);
+ *     writer.write(conn, time, data);
+ * }
+ * </pre>
+ * The writer must be used by one thread only.
+ *
+ * @author Tomas Prochazka
+ */
+public class RosbagWriter implements Closeable {
+
+    /**
+     * Default size of the uncompressed chunk data, the same as rosbag uses.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 768 * 1024;
+
+    private static final byte[] VERSION_LINE = "#ROSBAG V2.0\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int BAG_HEADER_LENGTH = 4096;
+
+    private final SeekableByteChannel channel;
+    /**
+     * Position of the bag in the channel, the positions written to the bag
+     * are relative to it.
+     */
+    private final long start;
+    private final String compression;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int compressionThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+    private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+    private final Map<Integer, ConnectionInfo> connections = new TreeMap<>();
+    private int nextConnectionId;
+    /**
+     * Connections of the read messages which have been added to this bag.
+     */
+    private final Map<ConnectionInfo, Integer> copiedConnections = new IdentityHashMap<>();
+    private final List<ChunkInfo> chunkInfos = new ArrayList<>();
+    private final RecordBuffer records = new RecordBuffer(8 * 1024);
+    private Chunk current;
+    private boolean closed;
+
+    /**
+     * Creates (or replaces) the bag file with uncompressed chunks.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public RosbagWriter(Path file) throws IOException {
+        this(file, ChunkPipeline.NONE);
+    }
+
+    /**
+     * Creates (or replaces) the bag file.
+     *
+     * @param file
+     * @param compression none, bz2 or lz4
+     * @throws IOException
+     */
+    public RosbagWriter(Path file, String compression) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), compression);
+    }
+
+    /**
+     * Writes the bag to the channel, from its current position.
+     * The positions stored in the bag are relative to the start of the bag.
+     * The channel is closed by {@link #close()}.
+     *
+     * @param channel
+     * @param compression none, bz2 or lz4
+     * @throws IOException
+     */
+    public RosbagWriter(SeekableByteChannel channel, String compression) throws IOException {
+        if (!compression.equals(ChunkPipeline.NONE) && !ChunkPipeline.isSupported(compression)) {
+            channel.close();
+            throw new UnsupportedOperationException("Chunks with compression " + compression + " not supported.");
+        }
+        this.channel = channel;
+        this.compression = compression;
+        this.start = channel.position();
+        write(ByteBuffer.wrap(VERSION_LINE));
+        writeBagHeader(0);
+    }
+
+    /**
+     * Sets the size of the uncompressed chunk data after which the chunk
+     * is finished. Must be set before the first message is written.
+     *
+     * @param chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+        checkNoMessages();
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of threads compressing the chunks, 0 means that the
+     * chunks are compressed by the writing thread. Must be set before
+     * the first message is written.
+     *
+     * @param threads
+     */
+    public void setCompressionThreads(int threads) {
+        checkNoMessages();
+        if (threads < 0) {
+            throw new IllegalArgumentException("Number of threads can't be negative.");
+        }
+        this.compressionThreads = threads;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    private void checkNoMessages() {
+        if (current != null || !chunkInfos.isEmpty() || !pending.isEmpty()) {
+            throw new IllegalStateException("Some messages have already been written.");
+        }
+    }
+
+    /**
+     * Adds a connection (a topic with its message type).
+     *
+     * @param topic
+     * @param type e.g. std_msgs/String
+     * @param md5sum md5sum of the message definition
+     * @param messageDefinition full text of the message definition
+     * @return id of the connection
+     */
+    public int addConnection(String topic, String type, String md5sum, String messageDefinition) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        fields.put(RosbagHeaderFieldNames.TOPIC, topic.getBytes(StandardCharsets.UTF_8));
+        fields.put(RosbagHeaderFieldNames.TYPE, type.getBytes(StandardCharsets.UTF_8));
+        fields.put(RosbagHeaderFieldNames.MD5SUM, md5sum.getBytes(StandardCharsets.UTF_8));
+        fields.put(RosbagHeaderFieldNames.MESSAGE_DEFINITION, messageDefinition.getBytes(StandardCharsets.UTF_8));
+        return addConnection(topic, fields);
+    }
+
+    /**
+     * Adds a copy of the connection of another bag, with all its fields
+     * (e.g. callerid or latching).
+     *
+     * @param connection
+     * @return id of the connection in this bag
+     */
+    public int addConnection(ConnectionInfo connection) {
+        return addConnection(connection.getTopic(), connection.getFields());
+    }
+
+    private int addConnection(String topic, Map<String, byte[]> fields) {
+        checkOpen();
+        int id = nextConnectionId++;
+        connections.put(id, new ConnectionInfo(id, topic, fields));
+        return id;
+    }
+
+    /**
+     * Adds a copy of the connection of another bag with the same id,
+     * so that the records of its chunks can be copied without changes.
+     *
+     * @param connection
+     */
+    void copyConnection(ConnectionInfo connection) {
+        checkOpen();
+        int id = connection.getId();
+        if (connections.containsKey(id)) {
+            throw new IllegalArgumentException("Connection " + id + " already exists.");
+        }
+        connections.put(id, new ConnectionInfo(id, connection.getTopic(), connection.getFields()));
+        nextConnectionId = Math.max(nextConnectionId, id + 1);
+    }
+
+    /**
+     * Writes a message.
+     *
+     * @param connectionId id returned by addConnection
+     * @param timeNanos time of the message in nanoseconds since 1970
+     * @param data serialized message
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(int connectionId, long timeNanos, byte[] data, int offset, int length) throws IOException {
+        write(connectionId, timeNanos, ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Writes a message whose data are the remaining bytes of the buffer.
+     *
+     * @param connectionId
+     * @param timeNanos
+     * @param data
+     * @throws IOException
+     */
+    void write(int connectionId, long timeNanos, ByteBuffer data) throws IOException {
+        checkOpen();
+        ConnectionInfo connection = connections.get(connectionId);
+        if (connection == null) {
+            throw new IllegalArgumentException("Unknown connection " + connectionId);
+        }
+        if (current == null) {
+            current = new Chunk(chunkSize);
+        }
+        current.add(connection, timeNanos, data);
+        if (current.size() >= chunkSize) {
+            finishChunk();
+        }
+    }
+
+    /**
+     * Writes a message.
+     *
+     * @param connectionId id returned by addConnection
+     * @param time
+     * @param data serialized message
+     * @throws IOException
+     */
+    public void write(int connectionId, RosTime time, byte[] data) throws IOException {
+        write(connectionId, time.getTimeAsNanos(), data, 0, data.length);
+    }
+
+    /**
+     * Copies a message read from another bag. Its connection is added
+     * when its first message is written. The unread data of the message
+     * are written, so the message should not have been read before.
+     *
+     * @param message
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    public void write(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+        ConnectionInfo connection = message.getConnection();
+        if (connection == null) {
+            throw new IllegalArgumentException("The connection of the message is not known.");
+        }
+        Integer id = copiedConnections.get(connection);
+        if (id == null) {
+            id = addConnection(connection);
+            copiedConnections.put(connection, id);
+        }
+        write(id, message.getTimeAsNanos(), message.readRemaining());
+    }
+
+    /**
+     * Copies a chunk record of another bag together with the index data
+     * records which follow it, without reading them. The connections
+     * of the chunk must have been added by {@link #copyConnection(rosbagreader.ConnectionInfo)}.
+     *
+     * @param source the file of the other bag
+     * @param length length of the chunk and the index data records
+     * @param chunk chunk info of the chunk in the other bag
+     * @throws IOException
+     */
+    void transferChunk(FileChannel source, long length, ChunkInfo chunk) throws IOException {
+        checkOpen();
+        for (int i = 0; i < chunk.getConnectionCount(); i++) {
+            if (!connections.containsKey(chunk.getConnectionId(i))) {
+                throw new IllegalArgumentException("Unknown connection " + chunk.getConnectionId(i));
+            }
+        }
+        if (current != null) {
+            finishChunk();
+        }
+        while (!pending.isEmpty()) {
+            writeChunk(take());
+        }
+        long chunkPosition = position();
+        long transferred = 0;
+        while (transferred < length) {
+            long n = source.transferTo(chunk.getChunkPosition() + transferred, length - transferred, channel);
+            if (n <= 0) {
+                throw new IOException("The chunk at " + chunk.getChunkPosition() + " could not be copied.");
+            }
+            transferred += n;
+        }
+        int[] connectionIds = new int[chunk.getConnectionCount()];
+        int[] messageCounts = new int[chunk.getConnectionCount()];
+        for (int i = 0; i < connectionIds.length; i++) {
+            connectionIds[i] = chunk.getConnectionId(i);
+            messageCounts[i] = chunk.getMessageCount(i);
+        }
+        chunkInfos.add(new ChunkInfo(chunkPosition, chunk.getStartTimeAsNanos(), chunk.getEndTimeAsNanos(), connectionIds, messageCounts));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The writer has been closed.");
+        }
+    }
+
+    /**
+     * Passes the current chunk to the compression and writes the chunks
+     * which have already been compressed.
+     */
+    private void finishChunk() throws IOException {
+        Chunk chunk = current;
+        current = null;
+        if (compressionThreads == 0 || compression.equals(ChunkPipeline.NONE)) {
+            chunk.compress(compression);
+            writeChunk(chunk);
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(compressionThreads, r -> {
+                Thread t = new Thread(r, "rosbag-compression");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        pending.add(executor.submit(() -> {
+            chunk.compress(compression);
+            return chunk;
+        }));
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > 2 * compressionThreads)) {
+            writeChunk(take());
+        }
+    }
+
+    private Chunk take() throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk to be compressed.");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Compression of a chunk failed.", ex.getCause());
+        }
+    }
+
+    /**
+     * Writes the chunk record followed by the index data records of the chunk.
+     */
+    private void writeChunk(Chunk chunk) throws IOException {
+        long chunkPosition = position();
+        ByteBuffer data = chunk.compressed;
+        records.clear();
+        int header = records.beginLength();
+        records.putOpField(RosOpCodes.CHUNK);
+        records.putStringField(RosbagHeaderFieldNames.COMPRESSION, compression);
+        records.putIntField(RosbagHeaderFieldNames.SIZE, chunk.size());
+        records.endLength(header);
+        records.putInt(data.remaining());
+        write(records.toByteBuffer());
+        write(data);
+        records.clear();
+        int[] connectionIds = new int[chunk.index.size()];
+        int[] messageCounts = new int[chunk.index.size()];
+        int i = 0;
+        for (Map.Entry<Integer, RecordBuffer> e : chunk.index.entrySet()) {
+            RecordBuffer entries = e.getValue();
+            int count = entries.position() / 12;
+            header = records.beginLength();
+            records.putOpField(RosOpCodes.INDEX_DATA);
+            records.putIntField(RosbagHeaderFieldNames.VER, 1);
+            records.putIntField(RosbagHeaderFieldNames.CONN, e.getKey());
+            records.putIntField(RosbagHeaderFieldNames.COUNT, count);
+            records.endLength(header);
+            records.putInt(entries.position());
+            records.put(entries.array(), 0, entries.position());
+            connectionIds[i] = e.getKey();
+            messageCounts[i] = count;
+            i++;
+        }
+        write(records.toByteBuffer());
+        chunkInfos.add(new ChunkInfo(chunkPosition, chunk.startTime, chunk.endTime, connectionIds, messageCounts));
+    }
+
+    private void writeConnection(RecordBuffer out, ConnectionInfo connection) {
+        int header = out.beginLength();
+        out.putOpField(RosOpCodes.CONNECTION);
+        out.putIntField(RosbagHeaderFieldNames.CONN, connection.getId());
+        out.putStringField(RosbagHeaderFieldNames.TOPIC, connection.getTopic());
+        out.endLength(header);
+        int data = out.beginLength();
+        for (Map.Entry<String, byte[]> field : connection.getFields().entrySet()) {
+            out.putField(field.getKey(), field.getValue());
+        }
+        out.endLength(data);
+    }
+
+    /**
+     * The bag header record is padded to 4096 bytes, so that it can
+     * be written again when the index position is known.
+     */
+    private void writeBagHeader(long indexPosition) throws IOException {
+        records.clear();
+        int header = records.beginLength();
+        records.putOpField(RosOpCodes.BAG_HEADER);
+        records.putLongField(RosbagHeaderFieldNames.INDEX_POS, indexPosition);
+        records.putIntField(RosbagHeaderFieldNames.CONN_COUNT, connections.size());
+        records.putIntField(RosbagHeaderFieldNames.CHUNK_COUNT, chunkInfos.size());
+        records.endLength(header);
+        byte[] padding = new byte[BAG_HEADER_LENGTH - records.position() - 4];
+        Arrays.fill(padding, (byte) ' ');
+        records.putInt(padding.length);
+        records.put(padding, 0, padding.length);
+        write(records.toByteBuffer());
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    /**
+     * Writes the remaining chunks and the index and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current != null) {
+                finishChunk();
+            }
+            while (!pending.isEmpty()) {
+                writeChunk(take());
+            }
+            long indexPosition = position();
+            records.clear();
+            for (ConnectionInfo connection : connections.values()) {
+                writeConnection(records, connection);
+            }
+            for (ChunkInfo chunk : chunkInfos) {
+                int header = records.beginLength();
+                records.putOpField(RosOpCodes.CHUNK_INFO);
+                records.putIntField(RosbagHeaderFieldNames.VER, 1);
+                records.putLongField(RosbagHeaderFieldNames.CHUNK_POS, chunk.getChunkPosition());
+                records.putTimeField(RosbagHeaderFieldNames.START_TIME, chunk.getStartTimeAsNanos());
+                records.putTimeField(RosbagHeaderFieldNames.END_TIME, chunk.getEndTimeAsNanos());
+                records.putIntField(RosbagHeaderFieldNames.COUNT, chunk.getConnectionCount());
+                records.endLength(header);
+                records.putInt(8 * chunk.getConnectionCount());
+                for (int i = 0; i < chunk.getConnectionCount(); i++) {
+                    records.putInt(chunk.getConnectionId(i));
+                    records.putInt(chunk.getMessageCount(i));
+                }
+            }
+            write(records.toByteBuffer());
+            long end = channel.position();
+            channel.position(start + VERSION_LINE.length);
+            writeBagHeader(indexPosition);
+            channel.position(end);
+        } finally {
+            for (Future<Chunk> task : pending) {
+                task.cancel(false);
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Position in the bag, relative to its start.
+     */
+    private long position() throws IOException {
+        return channel.position() - start;
+    }
+
+    /**
+     * Chunk being filled with the records of the messages.
+     */
+    private static final class Chunk {
+
+        private final RecordBuffer data;
+        /**
+         * Index data of each connection in the chunk: time and offset
+         * of each message.
+         */
+        private final TreeMap<Integer, RecordBuffer> index = new TreeMap<>();
+        private long startTime = Long.MAX_VALUE;
+        private long endTime = Long.MIN_VALUE;
+        private ByteBuffer compressed;
+
+        Chunk(int chunkSize) {
+            data = new RecordBuffer(chunkSize + chunkSize / 8);
+        }
+
+        int size() {
+            return data.position();
+        }
+
+        void add(ConnectionInfo connection, long time, ByteBuffer message) {
+            RecordBuffer entries = index.get(connection.getId());
+            if (entries == null) {
+                //the connection record precedes the first message of the connection in each chunk
+                entries = new RecordBuffer(12 * 64);
+                index.put(connection.getId(), entries);
+                int header = data.beginLength();
+                data.putOpField(RosOpCodes.CONNECTION);
+                data.putIntField(RosbagHeaderFieldNames.CONN, connection.getId());
+                data.putStringField(RosbagHeaderFieldNames.TOPIC, connection.getTopic());
+                data.endLength(header);
+                int fields = data.beginLength();
+                for (Map.Entry<String, byte[]> field : connection.getFields().entrySet()) {
+                    data.putField(field.getKey(), field.getValue());
+                }
+                data.endLength(fields);
+            }
+            entries.putTime(time);
+            entries.putInt(data.position());
+            startTime = Math.min(startTime, time);
+            endTime = Math.max(endTime, time);
+            int header = data.beginLength();
+            data.putOpField(RosOpCodes.MESSAGE_DATA);
+            data.putIntField(RosbagHeaderFieldNames.CONN, connection.getId());
+            data.putTimeField(RosbagHeaderFieldNames.TIME, time);
+            data.endLength(header);
+            data.putInt(message.remaining());
+            data.put(message);
+        }
+
+        void compress(String compression) throws IOException {
+            if (compression.equals(ChunkPipeline.NONE)) {
+                compressed = data.toByteBuffer();
+                return;
+            }
+            CompressedData out = new CompressedData(size() / 2);
+            try (OutputStream c = compression.equals(ChunkPipeline.BZ2) ? new BZip2CompressorOutputStream(out) : new FramedLZ4CompressorOutputStream(out)) {
+                c.write(data.array(), 0, size());
+            }
+            compressed = out.toByteBuffer();
+        }
+    }
+
+    /**
+     * Gives access to the written bytes without copying them.
+     */
+    private static final class CompressedData extends ByteArrayOutputStream {
+
+        CompressedData(int size) {
+            super(Math.max(32, size));
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+}
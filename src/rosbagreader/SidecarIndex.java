@@ -0,0 +1,303 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Stores the index of a bag in a sidecar file (e.g. flight.bag.idx), so that
+ * the index does not have to be read from the bag (or built by reading
+ * the whole bag) again. The file is valid only for the bag with the same
+ * size and modification time. The index entries are memory-mapped,
+ * so only the connections and the chunk infos are read when the file
+ * is opened.
+ * <p>
+ * Layout of the file (little-endian, strings and byte arrays are stored
+ * as an int length followed by the bytes):
+ * <pre>
+ * "ROSBAGIX", int version
+ * long bag size, long bag modification time (ms)
+ * int connection count, for each connection:
+ *     int id, string topic, int field count, for each field: string name, bytes value
+ * int chunk count, for each chunk:
+ *     long position, long start time, long end time, int count, count * (int connection id, int message count)
+ * int connection index count, for each connection index: int connection id, int entry count
+ * padding to a multiple of 8
+ * for each connection index:
+ *     long[] times, long[] chunk positions, int[] offsets, padding to a multiple of 8
+ * </pre>
+ *
+ * @author Tomas Prochazka
+ */
+final class SidecarIndex {
+
+    private static final byte[] MAGIC = "ROSBAGIX".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private SidecarIndex() {
+    }
+
+    /**
+     * Opens the sidecar index of the bag.
+     *
+     * @param reader reader of the bag
+     * @param indexFile
+     * @param bagFile
+     * @return null if the file does not exist, is damaged or belongs to
+     * another version of the bag
+     * @throws IOException
+     */
+    static BagIndex read(RosbagReader reader, Path indexFile, Path bagFile) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = map(channel, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != Files.size(bagFile) || buffer.getLong() != Files.getLastModifiedTime(bagFile).toMillis()) {
+                return null;
+            }
+            Map<Integer, ConnectionInfo> connections = new HashMap<>();
+            int connectionCount = getCount(buffer, 12);
+            for (int i = 0; i < connectionCount; i++) {
+                int id = buffer.getInt();
+                String topic = new String(getBytes(buffer), StandardCharsets.UTF_8);
+                int fieldCount = getCount(buffer, 8);
+                Map<String, byte[]> fields = new HashMap<>();
+                for (int j = 0; j < fieldCount; j++) {
+                    fields.put(new String(getBytes(buffer), StandardCharsets.UTF_8), getBytes(buffer));
+                }
+                connections.put(id, new ConnectionInfo(id, topic, fields));
+            }
+            List<ChunkInfo> chunks = new ArrayList<>();
+            int chunkCount = getCount(buffer, 28);
+            for (int i = 0; i < chunkCount; i++) {
+                long position = buffer.getLong();
+                long startTime = buffer.getLong();
+                long endTime = buffer.getLong();
+                int count = getCount(buffer, 8);
+                int[] connectionIds = new int[count];
+                int[] messageCounts = new int[count];
+                for (int j = 0; j < count; j++) {
+                    connectionIds[j] = buffer.getInt();
+                    messageCounts[j] = buffer.getInt();
+                }
+                chunks.add(new ChunkInfo(position, startTime, endTime, connectionIds, messageCounts));
+            }
+            int indexCount = getCount(buffer, 8);
+            int[] ids = new int[indexCount];
+            int[] sizes = new int[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                ids[i] = buffer.getInt();
+                sizes[i] = buffer.getInt();
+            }
+            long position = align(buffer.position());
+            Map<Integer, ConnectionIndex> entries = new HashMap<>();
+            for (int i = 0; i < indexCount; i++) {
+                long n = sizes[i];
+                ByteBuffer times = map(channel, position, 8 * n);
+                ByteBuffer chunkPositions = map(channel, position + 8 * n, 8 * n);
+                ByteBuffer offsets = map(channel, position + 16 * n, 4 * n);
+                position = align(position + 20 * n);
+                entries.put(ids[i], new ConnectionIndex(ids[i], times.asLongBuffer(), chunkPositions.asLongBuffer(), offsets.asIntBuffer()));
+            }
+            if (position != channel.size()) {
+                return null;
+            }
+            return new BagIndex(reader, connections, chunks, entries);
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            //damaged file, it will be written again
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size()) {
+            throw new BufferUnderflowException();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the number of the following entries and checks that they fit
+     * into the rest of the buffer, so that a damaged count does not
+     * allocate a huge array.
+     */
+    private static int getCount(ByteBuffer buffer, int entrySize) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / entrySize) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Writes the index to the sidecar file. The file is written under
+     * a temporary name first and then renamed, so that a damaged file
+     * is never left behind.
+     *
+     * @param index index of the bag with all the entries
+     * @param indexFile
+     * @param bagFile
+     * @throws IOException
+     * @throws UnexpectedEndOfRosbagFileException
+     * @throws InvalidRosbagFormatException
+     * @throws RequiredFieldMissingRosbagException
+     * @throws InvalidFieldValueRosbagException
+     */
+    static void write(BagIndex index, Path indexFile, Path bagFile) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        List<ConnectionIndex> indexes = new ArrayList<>();
+        for (ConnectionInfo connection : index.getConnections()) {
+            indexes.add(index.getEntries(connection.getId()));
+        }
+        Path directory = indexFile.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                Output out = new Output(channel);
+                out.ensure(MAGIC.length);
+                out.buffer.put(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(Files.size(bagFile));
+                out.putLong(Files.getLastModifiedTime(bagFile).toMillis());
+                out.putInt(index.getConnections().size());
+                for (ConnectionInfo connection : index.getConnections()) {
+                    out.putInt(connection.getId());
+                    out.putBytes(connection.getTopic().getBytes(StandardCharsets.UTF_8));
+                    out.putInt(connection.getFields().size());
+                    for (Map.Entry<String, byte[]> field : connection.getFields().entrySet()) {
+                        out.putBytes(field.getKey().getBytes(StandardCharsets.UTF_8));
+                        out.putBytes(field.getValue());
+                    }
+                }
+                out.putInt(index.getChunks().size());
+                for (ChunkInfo chunk : index.getChunks()) {
+                    out.putLong(chunk.getChunkPosition());
+                    out.putLong(chunk.getStartTimeAsNanos());
+                    out.putLong(chunk.getEndTimeAsNanos());
+                    out.putInt(chunk.getConnectionCount());
+                    for (int i = 0; i < chunk.getConnectionCount(); i++) {
+                        out.putInt(chunk.getConnectionId(i));
+                        out.putInt(chunk.getMessageCount(i));
+                    }
+                }
+                out.putInt(indexes.size());
+                for (ConnectionIndex entries : indexes) {
+                    out.putInt(entries.getConnectionId());
+                    out.putInt(entries.size());
+                }
+                out.align();
+                for (ConnectionIndex entries : indexes) {
+                    for (int i = 0; i < entries.size(); i++) {
+                        out.putLong(entries.getTimeAsNanos(i));
+                    }
+                    for (int i = 0; i < entries.size(); i++) {
+                        out.putLong(entries.getChunkPosition(i));
+                    }
+                    for (int i = 0; i < entries.size(); i++) {
+                        out.putInt(entries.getOffset(i));
+                    }
+                    out.align();
+                }
+                out.flush();
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the little-endian values to the channel through a buffer.
+     */
+    private static class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                flush();
+            }
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void align() throws IOException {
+            long position = written + buffer.position();
+            ensure(8);
+            for (long i = position; i < SidecarIndex.align(position); i++) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Passes the messages of an indexed bag to the parser ordered by their time,
+ * even if the chunks overlap in time.
+ * <p>
+ * The chunks are opened in the order of their start times. A chunk is opened
+ * only when its start time is reached, i.e. when the earliest message of the
+ * open chunks is not older than the start of the chunk. The messages of the
+ * open chunks are merged by time, so only the chunks overlapping the current
+ * time are kept in memory.
+ *
+ * @author Tomas Prochazka
+ */
+class TimeOrderedParser {
+
+    private static final Comparator<RosMessageData> BY_TIME = Comparator.comparingLong(RosMessageData::getTimeAsNanos);
+
+    private final RosbagReader reader;
+    private final List<ChunkInfo> chunks;
+    private final MessageFilter filter;
+    /**
+     * The open chunks with messages which have not been passed on yet.
+     * All the chunks with messages of the earliest time are open before
+     * the first of them is passed on, so the position of the chunk in the
+     * file breaks the ties of the messages with the same time.
+     */
+    private final PriorityQueue<OpenChunk> open = new PriorityQueue<>(Comparator.<OpenChunk>comparingLong(chunk -> chunk.time())
+            .thenComparingLong(chunk -> chunk.position));
+    /**
+     * Index of the next chunk to be opened.
+     */
+    private int next;
+
+    /**
+     * @param reader
+     * @param chunks the chunks which may contain the messages
+     * @param filter
+     */
+    TimeOrderedParser(RosbagReader reader, List<ChunkInfo> chunks, MessageFilter filter) {
+        this.reader = reader;
+        this.chunks = new ArrayList<>(chunks);
+        this.chunks.sort(Comparator.comparingLong(ChunkInfo::getStartTimeAsNanos));
+        this.filter = filter;
+    }
+
+    void parse(RosbagMessageDataParser parser) throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        RosMessageData message;
+        while ((message = next()) != null) {
+            reader.deliver(parser, message);
+        }
+    }
+
+    /**
+     * Returns the next message in the time order. The message is not passed
+     * to any parser.
+     *
+     * @return null if there are no more messages
+     */
+    RosMessageData next() throws IOException, UnexpectedEndOfRosbagFileException, InvalidRosbagFormatException, RequiredFieldMissingRosbagException, InvalidFieldValueRosbagException {
+        while (next < chunks.size() && (open.isEmpty() || chunks.get(next).getStartTimeAsNanos() <= open.peek().time())) {
+            OpenChunk chunk = new OpenChunk(reader.readChunkMessages(chunks.get(next), filter), chunks.get(next).getChunkPosition());
+            next++;
+            if (chunk.hasNext()) {
+                open.add(chunk);
+            }
+        }
+        OpenChunk chunk = open.poll();
+        if (chunk == null) {
+            return null;
+        }
+        RosMessageData message = chunk.next();
+        if (chunk.hasNext()) {
+            open.add(chunk);
+        }
+        return message;
+    }
+
+    /**
+     * Messages of a chunk sorted by time.
+     */
+    private static class OpenChunk {
+
+        private final List<RosMessageData> messages;
+        /**
+         * Position of the chunk in the file.
+         */
+        private final long position;
+        private int index;
+
+        OpenChunk(List<RosMessageData> messages, long position) {
+            //the sort is stable, the messages with the same time stay in the file order
+            messages.sort(BY_TIME);
+            this.messages = messages;
+            this.position = position;
+        }
+
+        boolean hasNext() {
+            return index < messages.size();
+        }
+
+        long time() {
+            return messages.get(index).getTimeAsNanos();
+        }
+
+        RosMessageData next() {
+            RosMessageData message = messages.get(index);
+            //the message is not referenced any more after it has been parsed
+            messages.set(index++, null);
+            return message;
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Stores selected numeric fields of the messages of one topic in columns
+ * of primitive values, e.g. for plotting. Every message adds one row:
+ * the time of the message (nanoseconds since 1970) and the values of the
+ * fields, which are decoded by a {@link FieldProjection}. No object is
+ * created per message, one row takes 8 bytes for the time and 8 (or 4 with
+ * single precision) bytes per field.
+ * <p>
+ * The store is used as the parser of the bag. The columns are kept
+ * on the heap (backed by long[], double[] or float[] arrays) or optionally
+ * off-heap in direct buffers, so that long recordings do not fill the heap.
+ * The columns grow by doubling and the content is copied. The old direct
+ * buffers are released only by the garbage collector, so while a store
+ * grows, its off-heap memory may reach about three times its size. When
+ * the number of the messages is known, e.g. from the index of the bag,
+ * set the capacity in advance with {@link #setCapacity(BagIndex)}.
+ * <pre>
+ * TopicColumnStore store = new TopicColumnStore("/ardrone/navdata", "altd", "vx");
+ * reader.parseBag(Collections.singleton(store.getTopic()), store);
+ * LongBuffer times = store.getTimes();
+ * DoubleBuffer altitude = store.getDoubleColumn(0);
+ * </pre>
+ *
+ * @author Tomas Prochazka
+ */
+public class TopicColumnStore implements RosbagMessageDataParser {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Maximum number of rows of the heap columns (the limit of the size of
+     * an array) and of the off-heap columns (the size in bytes of the time
+     * column must fit into an int).
+     */
+    private static final int MAX_ROWS = Integer.MAX_VALUE - 8;
+    private static final int MAX_OFF_HEAP_ROWS = Integer.MAX_VALUE / 8;
+
+    private final String topic;
+    private final FieldProjection projection;
+    private final double[] row;
+    private boolean offHeap;
+    private boolean singlePrecision;
+    private int capacity = INITIAL_CAPACITY;
+    private int size;
+    private LongBuffer times;
+    private DoubleBuffer[] doubleColumns;
+    private FloatBuffer[] floatColumns;
+
+    /**
+     * @param topic messages of other topics are ignored
+     * @param paths paths of the stored fields, see {@link FieldProjection}
+     */
+    public TopicColumnStore(String topic, String... paths) {
+        this.topic = topic;
+        this.projection = new FieldProjection(paths);
+        this.row = new double[paths.length];
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Keeps the columns in direct buffers outside of the heap.
+     * Must be set before the first message is added.
+     *
+     * @param offHeap
+     */
+    public void setOffHeap(boolean offHeap) {
+        checkEmpty();
+        this.offHeap = offHeap;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Stores the values as floats instead of doubles.
+     * Must be set before the first message is added.
+     *
+     * @param singlePrecision
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        checkEmpty();
+        this.singlePrecision = singlePrecision;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Sets the number of rows allocated when the first message is added,
+     * the columns do not have to grow until then.
+     * Must be set before the first message is added.
+     *
+     * @param rows
+     * @throws IllegalArgumentException if the columns can't have so many rows
+     */
+    public void setCapacity(int rows) {
+        checkEmpty();
+        if (rows <= 0 || rows > getMaxRows()) {
+            throw new IllegalArgumentException("The columns can have 1 to " + getMaxRows() + " rows, " + rows + " requested.");
+        }
+        this.capacity = rows;
+    }
+
+    /**
+     * Sets the capacity to the number of the messages of the topic
+     * in the bag, so that the columns are allocated only once.
+     * Must be set before the first message is added.
+     *
+     * @param index index of the bag which will be parsed
+     * @throws IllegalArgumentException if the columns can't have so many rows
+     */
+    public void setCapacity(BagIndex index) {
+        long rows = 0;
+        List<Integer> ids = index.getConnectionIds(topic);
+        for (ChunkInfo chunk : index.getChunks()) {
+            for (int i = 0; i < chunk.getConnectionCount(); i++) {
+                if (ids.contains(chunk.getConnectionId(i))) {
+                    rows += chunk.getMessageCount(i);
+                }
+            }
+        }
+        if (rows > getMaxRows()) {
+            throw new IllegalArgumentException("The topic " + topic + " has " + rows + " messages, the columns can have at most " + getMaxRows() + " rows.");
+        }
+        setCapacity(Math.max(1, (int) rows));
+    }
+
+    public int getCapacity() {
+        return times != null ? times.capacity() : capacity;
+    }
+
+    private int getMaxRows() {
+        return offHeap ? MAX_OFF_HEAP_ROWS : MAX_ROWS;
+    }
+
+    private void checkEmpty() {
+        if (times != null) {
+            throw new IllegalStateException("The store already contains data.");
+        }
+    }
+
+    /**
+     * Adds a row with the values of the message if the message is of
+     * the topic of the store.
+     *
+     * @param message
+     * @throws IOException also if the message definition can't be used
+     * to decode the fields
+     * @throws UnexpectedEndOfRosbagFileException
+     */
+    @Override
+    public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+        if (!topic.equals(message.getTopic())) {
+            return;
+        }
+        try {
+            projection.decode(message, row);
+        } catch (UnexpectedEndOfRosbagFileException ex) {
+            throw ex;
+        } catch (RosbagException ex) {
+            throw new IOException("The fields of the topic " + topic + " can't be decoded.", ex);
+        }
+        add(message.getTimeAsNanos(), row);
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param time time in nanoseconds since 1970
+     * @param values values of the columns
+     */
+    public void add(long time, double[] values) {
+        if (times == null) {
+            allocate(Math.min(capacity, getMaxRows()));
+        } else if (!times.hasRemaining()) {
+            allocate(grow(times.capacity(), getMaxRows()));
+        }
+        times.put(time);
+        for (int i = 0; i < row.length; i++) {
+            if (singlePrecision) {
+                floatColumns[i].put((float) values[i]);
+            } else {
+                doubleColumns[i].put(values[i]);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Allocates the columns with the given capacity and copies
+     * the current content.
+     */
+    private void allocate(int capacity) {
+        times = copy(times, offHeap ? direct(capacity * 8L).asLongBuffer() : LongBuffer.allocate(capacity));
+        if (singlePrecision) {
+            FloatBuffer[] columns = new FloatBuffer[row.length];
+            for (int i = 0; i < columns.length; i++) {
+                FloatBuffer column = offHeap ? direct(capacity * 4L).asFloatBuffer() : FloatBuffer.allocate(capacity);
+                if (floatColumns != null) {
+                    floatColumns[i].flip();
+                    column.put(floatColumns[i]);
+                }
+                columns[i] = column;
+            }
+            floatColumns = columns;
+        } else {
+            DoubleBuffer[] columns = new DoubleBuffer[row.length];
+            for (int i = 0; i < columns.length; i++) {
+                DoubleBuffer column = offHeap ? direct(capacity * 8L).asDoubleBuffer() : DoubleBuffer.allocate(capacity);
+                if (doubleColumns != null) {
+                    doubleColumns[i].flip();
+                    column.put(doubleColumns[i]);
+                }
+                columns[i] = column;
+            }
+            doubleColumns = columns;
+        }
+    }
+
+    /**
+     * Doubled capacity of the columns, at most the maximum.
+     *
+     * @throws IllegalStateException if the columns are full
+     */
+    static int grow(int capacity, int maxRows) {
+        if (capacity >= maxRows) {
+            throw new IllegalStateException("The columns are full, they can't have more than " + maxRows + " rows.");
+        }
+        return (int) Math.min(capacity * 2L, maxRows);
+    }
+
+    private static LongBuffer copy(LongBuffer from, LongBuffer to) {
+        if (from != null) {
+            from.flip();
+            to.put(from);
+        }
+        return to;
+    }
+
+    private static ByteBuffer direct(long bytes) {
+        return ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Number of rows.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of value columns (the time column is not counted).
+     *
+     * @return
+     */
+    public int getColumnCount() {
+        return row.length;
+    }
+
+    /**
+     * Path of the field stored in the column.
+     *
+     * @param column
+     * @return
+     */
+    public String getColumnName(int column) {
+        return projection.getPaths().get(column);
+    }
+
+    /**
+     * Times of the messages in nanoseconds since 1970.
+     *
+     * @return read-only view of the column, from 0 to size()
+     */
+    public LongBuffer getTimes() {
+        if (times == null) {
+            return LongBuffer.allocate(0);
+        }
+        LongBuffer view = times.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Values of a column of a store with double precision.
+     *
+     * @param column
+     * @return read-only view of the column, from 0 to size()
+     * @throws IllegalStateException if the store has single precision
+     */
+    public DoubleBuffer getDoubleColumn(int column) {
+        if (singlePrecision) {
+            throw new IllegalStateException("The store has single precision.");
+        }
+        if (doubleColumns == null) {
+            return DoubleBuffer.allocate(0);
+        }
+        DoubleBuffer view = doubleColumns[column].duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Values of a column of a store with single precision.
+     *
+     * @param column
+     * @return read-only view of the column, from 0 to size()
+     * @throws IllegalStateException if the store has double precision
+     */
+    public FloatBuffer getFloatColumn(int column) {
+        if (!singlePrecision) {
+            throw new IllegalStateException("The store has double precision.");
+        }
+        if (floatColumns == null) {
+            return FloatBuffer.allocate(0);
+        }
+        FloatBuffer view = floatColumns[column].duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Time of the message in the given row.
+     *
+     * @param row
+     * @return nanoseconds since 1970
+     */
+    public long getTime(int row) {
+        checkRow(row);
+        return times.get(row);
+    }
+
+    /**
+     * Value in the given column and row.
+     *
+     * @param column
+     * @param row
+     * @return
+     */
+    public double get(int column, int row) {
+        checkRow(row);
+        return singlePrecision ? floatColumns[column].get(row) : doubleColumns[column].get(row);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    /**
+     * Removes all rows. The allocated columns are released.
+     */
+    public void clear() {
+        times = null;
+        doubleColumns = null;
+        floatColumns = null;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ */
+package rosbagreader;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the messages of one topic read by a {@link RosbagReader},
+ * see {@link ReaderMetrics}.
+ *
+ * @author Tomas Prochazka
+ */
+public final class TopicMetrics {
+
+    private final String topic;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram parserLatency = new LatencyHistogram();
+
+    TopicMetrics(String topic) {
+        this.topic = topic;
+    }
+
+    void message(int length) {
+        messages.increment();
+        bytes.add(length);
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return number of the messages passed to the parser (or to a stream)
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * @return size of the data of the messages
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Durations of the calls of {@link RosbagMessageDataParser#parseMessageData(rosbagreader.RosMessageData)}.
+     *
+     * @return
+     */
+    public LatencyHistogram getParserLatency() {
+        return parserLatency;
+    }
+
+}
@@ -0,0 +1,22 @@
+/*
+ */
+package rosbagreader.exceptions;
+
+/**
+ * Wraps a {@link RosbagException} where checked exceptions can't be thrown,
+ * e.g. by the streams of messages.
+ *
+ * @author Tomas Prochazka
+ */
+public class UncheckedRosbagException extends RuntimeException {
+
+    public UncheckedRosbagException(RosbagException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized RosbagException getCause() {
+        return (RosbagException) super.getCause();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ */
+package support;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Byte source reading the data directly from a byte buffer.
+ * The values are decoded in place, nothing is copied.
+ * Positions are counted from the position the buffer had
+ * when the source was created.
+ *
+ * @author Tomas Prochazka
+ */
+public class BufferByteSource extends ByteSource {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a source reading the remaining bytes of the buffer. The
+     * position and limit of the given buffer are not changed.
+     *
+     * @param buffer
+     */
+    public BufferByteSource(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int offset, int length) throws UnexpectedEndOfFileException {
+        try {
+            buffer.get(bytes, offset, length);
+        } catch (BufferUnderflowException e) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public int readLittleEndianInt() throws UnexpectedEndOfFileException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public long readLittleEndianLong() throws UnexpectedEndOfFileException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public float readLittleEndianFloat() throws UnexpectedEndOfFileException {
+        try {
+            return buffer.getFloat();
+        } catch (BufferUnderflowException e) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public double readLittleEndianDouble() throws UnexpectedEndOfFileException {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    /**
+     * Checks that the given number of bytes remains in the buffer.
+     */
+    private void require(long count) throws UnexpectedEndOfFileException {
+        if (count > buffer.remaining()) {
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public void readLittleEndianInts(int[] values, int offset, int length) throws UnexpectedEndOfFileException {
+        require(4L * length);
+        buffer.asIntBuffer().get(values, offset, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianFloats(float[] values, int offset, int length) throws UnexpectedEndOfFileException {
+        require(4L * length);
+        buffer.asFloatBuffer().get(values, offset, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianDoubles(double[] values, int offset, int length) throws UnexpectedEndOfFileException {
+        require(8L * length);
+        buffer.asDoubleBuffer().get(values, offset, length);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    @Override
+    public void readLittleEndianFloats(FloatBuffer values, int length) throws UnexpectedEndOfFileException {
+        require(4L * length);
+        FloatBuffer view = buffer.asFloatBuffer();
+        view.limit(length);
+        values.put(view);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianDoubles(DoubleBuffer values, int length) throws UnexpectedEndOfFileException {
+        require(8L * length);
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        view.limit(length);
+        values.put(view);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    @Override
+    public boolean tryReadLittleEndianInt(ReaderSupport.IntWrapper result) throws UnexpectedEndOfFileException {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        result.i = readLittleEndianInt();
+        return true;
+    }
+
+    @Override
+    public boolean skip(long count) {
+        if (count > buffer.remaining()) {
+            buffer.position(buffer.limit());
+            return false;
+        }
+        buffer.position(buffer.position() + (int) count);
+        return true;
+    }
+
+    @Override
+    public long position() {
+        return buffer.position();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(long position) throws UnexpectedEndOfFileException {
+        if (position < 0 || position > buffer.limit()) {
+            throw new UnexpectedEndOfFileException();
+        }
+        buffer.position((int) position);
+    }
+
+    @Override
+    public boolean canSlice() {
+        return true;
+    }
+
+    @Override
+    public ByteBuffer slice(int length) throws UnexpectedEndOfFileException {
+        if (length > buffer.remaining()) {
+            throw new UnexpectedEndOfFileException();
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ */
+package support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.function.LongConsumer;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Source of the bytes of a ROS Bag file.
+ * All the multi-byte values are read in the little-endian byte order
+ * which is used by the ROS Bag format.
+ * <p>
+ * Sources which keep the data in memory (e.g. memory mapped files)
+ * can provide parts of the data as buffers without copying them.
+ * See {@link #canSlice()} and {@link #slice(int)}.
+ * <p>
+ * Arrays of values can be read at once by the bulk methods, e.g.
+ * {@link #readLittleEndianFloats(float[], int, int)}. They read the values
+ * one by one unless a source can decode them more efficiently.
+ *
+ * @author Tomas Prochazka
+ */
+public abstract class ByteSource implements Closeable {
+
+    private volatile LongConsumer ioTimer;
+
+    /**
+     * Sets the consumer of the time (in nanoseconds) spent reading and
+     * skipping in the underlying stream or channel. The data which are
+     * already in memory (buffered, mapped or in a buffer) are not measured,
+     * so the page faults of mapped files are not counted.
+     *
+     * @param ioTimer null to stop measuring
+     */
+    public void setIoTimer(LongConsumer ioTimer) {
+        this.ioTimer = ioTimer;
+    }
+
+    /**
+     * @return start of a measured read, 0 if the reads are not measured
+     */
+    protected final long ioStart() {
+        return ioTimer != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Passes the time since {@link #ioStart()} to the timer.
+     *
+     * @param start
+     */
+    protected final void ioDone(long start) {
+        LongConsumer timer = ioTimer;
+        if (timer != null && start != 0) {
+            timer.accept(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads one byte.
+     *
+     * @return 0..255 or -1 if the end of the source has been reached.
+     * @throws IOException
+     */
+    public abstract int read() throws IOException;
+
+    /**
+     * Reads exactly the given number of bytes to the array.
+     *
+     * @param bytes destination array
+     * @param offset position in the array where the first byte is written
+     * @param length number of bytes to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException if there are not enough bytes left
+     */
+    public abstract void readFully(byte[] bytes, int offset, int length) throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Reads 4 bytes and interprets them as a little-endian integer.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public abstract int readLittleEndianInt() throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Reads 8 bytes and interprets them as a little-endian long.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public abstract long readLittleEndianLong() throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Reads 4 bytes and interprets them as a little-endian float.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public abstract float readLittleEndianFloat() throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Reads 8 bytes and interprets them as a little-endian double.
+     *
+     * @return
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public abstract double readLittleEndianDouble() throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Reads the given number of little-endian integers to the array.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first value is written
+     * @param length number of values to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public void readLittleEndianInts(int[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = readLittleEndianInt();
+        }
+    }
+
+    /**
+     * Reads the given number of little-endian floats to the array.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first value is written
+     * @param length number of values to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public void readLittleEndianFloats(float[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = readLittleEndianFloat();
+        }
+    }
+
+    /**
+     * Reads the given number of little-endian doubles to the array.
+     *
+     * @param values destination array
+     * @param offset position in the array where the first value is written
+     * @param length number of values to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     */
+    public void readLittleEndianDoubles(double[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = readLittleEndianDouble();
+        }
+    }
+
+    /**
+     * Reads the given number of little-endian floats and puts them to the
+     * buffer at its current position. The position of the buffer moves
+     * behind the written values.
+     *
+     * @param values
+     * @param length number of values to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     * @throws java.nio.BufferOverflowException if the buffer has not enough
+     * space remaining.
+     */
+    public void readLittleEndianFloats(FloatBuffer values, int length) throws IOException, UnexpectedEndOfFileException {
+        if (values.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (values.hasArray()) {
+            readLittleEndianFloats(values.array(), values.arrayOffset() + values.position(), length);
+            values.position(values.position() + length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            values.put(readLittleEndianFloat());
+        }
+    }
+
+    /**
+     * Reads the given number of little-endian doubles and puts them to the
+     * buffer at its current position. The position of the buffer moves
+     * behind the written values.
+     *
+     * @param values
+     * @param length number of values to read
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     * @throws java.nio.BufferOverflowException if the buffer has not enough
+     * space remaining.
+     */
+    public void readLittleEndianDoubles(DoubleBuffer values, int length) throws IOException, UnexpectedEndOfFileException {
+        if (values.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (values.hasArray()) {
+            readLittleEndianDoubles(values.array(), values.arrayOffset() + values.position(), length);
+            values.position(values.position() + length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            values.put(readLittleEndianDouble());
+        }
+    }
+
+    /**
+     * Checks that the values fit into an array of the given length.
+     *
+     * @param arrayLength
+     * @param offset
+     * @param length
+     * @throws IndexOutOfBoundsException
+     */
+    protected static void checkBounds(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || length > arrayLength - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Tries to read a little-endian integer. It is expected that either the
+     * whole integer can be read or that there are no data left at all.
+     *
+     * @param result The integer is returned through this variable.
+     * @return true if the integer was read, false if the source was empty.
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException Thrown only in case that a part of
+     * the integer has been read.
+     */
+    public abstract boolean tryReadLittleEndianInt(ReaderSupport.IntWrapper result) throws IOException, UnexpectedEndOfFileException;
+
+    /**
+     * Skips exactly the given number of bytes.
+     *
+     * @param count number of bytes to skip
+     * @return true if the bytes were skipped, false if the end of the source
+     * has been reached.
+     * @throws IOException
+     */
+    public abstract boolean skip(long count) throws IOException;
+
+    /**
+     * Number of bytes read (or skipped) since the beginning of the source.
+     *
+     * @return
+     */
+    public abstract long position();
+
+    /**
+     * Whether the source supports changing of the position by the
+     * {@link #seek(long)} method.
+     *
+     * @return
+     */
+    public boolean isSeekable() {
+        return false;
+    }
+
+    /**
+     * Moves to the given position.
+     *
+     * @param position number of bytes from the beginning of the source.
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException if the position is behind the end
+     * of the source.
+     * @throws UnsupportedOperationException if {@link #isSeekable()} returns
+     * false.
+     */
+    public void seek(long position) throws IOException, UnexpectedEndOfFileException {
+        throw new UnsupportedOperationException("This source does not support seeking.");
+    }
+
+    /**
+     * Whether the source is able to return the data by the
+     * {@link #slice(int)} method.
+     *
+     * @return
+     */
+    public boolean canSlice() {
+        return false;
+    }
+
+    /**
+     * Returns the next bytes of the source as a little-endian buffer which
+     * shares the content with the source (the data are not copied). The
+     * position of the source moves behind the returned bytes.
+     *
+     * @param length number of bytes
+     * @return buffer with position 0 and limit equal to the length.
+     * @throws IOException
+     * @throws UnexpectedEndOfFileException
+     * @throws UnsupportedOperationException if {@link #canSlice()} returns
+     * false.
+     */
+    public ByteBuffer slice(int length) throws IOException, UnexpectedEndOfFileException {
+        throw new UnsupportedOperationException("This source does not support slicing.");
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
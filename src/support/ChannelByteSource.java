@@ -0,0 +1,94 @@
+/*
+ */
+package support;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Byte source reading a seekable channel, e.g. a file which should not
+ * be mapped into memory. The data are read in blocks like from a stream,
+ * but skipping and seeking only change the position of the channel,
+ * so the skipped data are never read.
+ * <p>
+ * Positions are counted from the beginning of the channel.
+ *
+ * @author Tomas Prochazka
+ */
+public class ChannelByteSource extends StreamByteSource {
+
+    private final SeekableByteChannel channel;
+
+    /**
+     * Creates a source reading the channel from its current position.
+     * The channel is closed when the source is closed.
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public ChannelByteSource(SeekableByteChannel channel) throws IOException {
+        super(Channels.newInputStream(channel));
+        this.channel = channel;
+        discardBuffer(channel.position());
+    }
+
+    /**
+     * Creates a source reading the file from the current position of the
+     * file pointer. The file is closed when the source is closed.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public ChannelByteSource(RandomAccessFile file) throws IOException {
+        this(file.getChannel());
+    }
+
+    /**
+     * Opens the file for reading.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public ChannelByteSource(Path file) throws IOException {
+        this(Files.newByteChannel(file, StandardOpenOption.READ));
+    }
+
+    @Override
+    public boolean skip(long count) throws IOException {
+        long target = position() + count;
+        long size = channel.size();
+        if (target > size) {
+            setPosition(size);
+            return false;
+        }
+        setPosition(target);
+        return true;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(long position) throws IOException, UnexpectedEndOfFileException {
+        if (position < 0 || position > channel.size()) {
+            throw new UnexpectedEndOfFileException();
+        }
+        setPosition(position);
+    }
+
+    private void setPosition(long position) throws IOException {
+        if (!seekInBuffer(position)) {
+            channel.position(position);
+            discardBuffer(position);
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ */
+package support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Byte source reading a file mapped into memory. The values are decoded
+ * directly from the mapped buffers and slices of the file are returned
+ * without copying the data to the heap.
+ * <p>
+ * One mapped buffer can have at most 2 GB, so bigger files are mapped
+ * as a sequence of segments. Values crossing the boundary of two
+ * segments are read byte by byte, slices crossing the boundary are
+ * mapped separately. Arrays of values inside one segment are copied
+ * from the mapped buffer at once.
+ *
+ * @author Tomas Prochazka
+ */
+public class MappedByteSource extends ByteSource {
+
+    /**
+     * Size of one mapped segment (1 GB).
+     */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long segmentSize;
+    private final ByteBuffer[] segments;
+    private int segmentIndex;
+    private ByteBuffer segment;
+
+    /**
+     * Maps the whole file into memory.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public MappedByteSource(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Maps the whole content of the channel into memory. The channel is
+     * closed when the source is closed, or when the channel can't be mapped.
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public MappedByteSource(FileChannel channel) throws IOException {
+        this(channel, SEGMENT_SIZE);
+    }
+
+    MappedByteSource(FileChannel channel, long segmentSize) throws IOException {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        try {
+            this.size = channel.size();
+            int count = (int) ((size + segmentSize - 1) / segmentSize);
+            segments = new ByteBuffer[Math.max(count, 1)];
+            segments[0] = ByteBuffer.allocate(0);
+            for (int i = 0; i < count; i++) {
+                long start = i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException | RuntimeException ex) {
+            //the source can't be closed, so the channel would never be
+            channel.close();
+            throw ex;
+        }
+        segment = segments[0];
+    }
+
+    /**
+     * Size of the mapped file.
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Moves to the next segment if the current one has been read completely.
+     *
+     * @return false if there are no more data.
+     */
+    private boolean ensureRemaining() {
+        while (!segment.hasRemaining()) {
+            if (segmentIndex + 1 >= segments.length) {
+                return false;
+            }
+            segment = segments[++segmentIndex];
+            segment.position(0);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (!ensureRemaining()) {
+            return -1;
+        }
+        return segment.get() & 0xFF;
+    }
+
+    private int readNotEndOfFile() throws UnexpectedEndOfFileException {
+        int b = read();
+        if (b == -1) {
+            throw new UnexpectedEndOfFileException();
+        }
+        return b;
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int offset, int length) throws UnexpectedEndOfFileException {
+        while (length > 0) {
+            if (!ensureRemaining()) {
+                throw new UnexpectedEndOfFileException();
+            }
+            int n = Math.min(length, segment.remaining());
+            segment.get(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public int readLittleEndianInt() throws UnexpectedEndOfFileException {
+        if (segment.remaining() >= 4) {
+            return segment.getInt();
+        }
+        int b0 = readNotEndOfFile();
+        int b1 = readNotEndOfFile();
+        int b2 = readNotEndOfFile();
+        int b3 = readNotEndOfFile();
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+
+    @Override
+    public long readLittleEndianLong() throws UnexpectedEndOfFileException {
+        if (segment.remaining() >= 8) {
+            return segment.getLong();
+        }
+        long low = readLittleEndianInt() & 0xFF_FF_FF_FFL;
+        long high = readLittleEndianInt();
+        return low | (high << 32);
+    }
+
+    @Override
+    public float readLittleEndianFloat() throws UnexpectedEndOfFileException {
+        return Float.intBitsToFloat(readLittleEndianInt());
+    }
+
+    @Override
+    public double readLittleEndianDouble() throws UnexpectedEndOfFileException {
+        return Double.longBitsToDouble(readLittleEndianLong());
+    }
+
+    @Override
+    public void readLittleEndianInts(int[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        if (segment.remaining() < 4L * length) {
+            super.readLittleEndianInts(values, offset, length);
+            return;
+        }
+        segment.asIntBuffer().get(values, offset, length);
+        segment.position(segment.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianFloats(float[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        if (segment.remaining() < 4L * length) {
+            super.readLittleEndianFloats(values, offset, length);
+            return;
+        }
+        segment.asFloatBuffer().get(values, offset, length);
+        segment.position(segment.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianDoubles(double[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        if (segment.remaining() < 8L * length) {
+            super.readLittleEndianDoubles(values, offset, length);
+            return;
+        }
+        segment.asDoubleBuffer().get(values, offset, length);
+        segment.position(segment.position() + 8 * length);
+    }
+
+    @Override
+    public void readLittleEndianFloats(FloatBuffer values, int length) throws IOException, UnexpectedEndOfFileException {
+        if (segment.remaining() < 4L * length) {
+            super.readLittleEndianFloats(values, length);
+            return;
+        }
+        FloatBuffer view = segment.asFloatBuffer();
+        view.limit(length);
+        values.put(view);
+        segment.position(segment.position() + 4 * length);
+    }
+
+    @Override
+    public void readLittleEndianDoubles(DoubleBuffer values, int length) throws IOException, UnexpectedEndOfFileException {
+        if (segment.remaining() < 8L * length) {
+            super.readLittleEndianDoubles(values, length);
+            return;
+        }
+        DoubleBuffer view = segment.asDoubleBuffer();
+        view.limit(length);
+        values.put(view);
+        segment.position(segment.position() + 8 * length);
+    }
+
+    @Override
+    public boolean tryReadLittleEndianInt(ReaderSupport.IntWrapper result) throws UnexpectedEndOfFileException {
+        if (!ensureRemaining()) {
+            return false;
+        }
+        result.i = readLittleEndianInt();
+        return true;
+    }
+
+    @Override
+    public boolean skip(long count) {
+        long target = position() + count;
+        if (target > size) {
+            setPosition(size);
+            return false;
+        }
+        setPosition(target);
+        return true;
+    }
+
+    @Override
+    public long position() {
+        return segmentIndex * segmentSize + segment.position();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(long position) throws UnexpectedEndOfFileException {
+        if (position < 0 || position > size) {
+            throw new UnexpectedEndOfFileException();
+        }
+        setPosition(position);
+    }
+
+    private void setPosition(long position) {
+        int index = (int) Math.min(position / segmentSize, segments.length - 1);
+        segmentIndex = index;
+        segment = segments[index];
+        segment.position((int) (position - index * segmentSize));
+    }
+
+    @Override
+    public boolean canSlice() {
+        return true;
+    }
+
+    @Override
+    public ByteBuffer slice(int length) throws IOException, UnexpectedEndOfFileException {
+        ByteBuffer slice;
+        if (segment.remaining() >= length) {
+            slice = segment.slice();
+            slice.limit(length);
+            segment.position(segment.position() + length);
+        } else {
+            long start = position();
+            if (start + length > size) {
+                throw new UnexpectedEndOfFileException();
+            }
+            //the data cross the segment boundary, they are mapped separately
+            slice = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            setPosition(start + length);
+        }
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        return slice;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
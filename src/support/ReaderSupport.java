@@ -7,22 +7,17 @@ import rosbagreader.exceptions.UnexpectedEndOfFileException;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
  * @author Tomas Prochazka Java built-in reader supports reading of int / long
  * only in the Big Endian byte order, this class provides methods to read
  * little-endian ints and longs.
+ * The values are decoded by shifting the bytes, nothing is allocated.
+ * The class has no state, so one instance can be used by several threads.
  */
 public class ReaderSupport {
 
-    /**
-     * Buffer shared by all the functions.
-     */
-    private final ByteBuffer buffer = ByteBuffer.allocate(8);
-
     /**
      * Reads 4 bytes from the input stream and interprets them as an integer,
      * using little-endian byte order
@@ -33,18 +28,14 @@ public class ReaderSupport {
      * @throws rosbagreader.exceptions.UnexpectedEndOfFileException
      */
     public int readLittleEndianInt(InputStream input) throws IOException, UnexpectedEndOfFileException {
-
-        byte[] bytes = readBytesFromInputStream(4, input);
-
-        return readLittleEndianInt(bytes);
-    }
-
-    private byte[] readBytesFromInputStream(int bytesCount, InputStream input) throws UnexpectedEndOfFileException, IOException {
-        byte[] bytes = new byte[bytesCount];
-        if (bytesCount != input.read(bytes, 0, bytesCount)) {
+        int b0 = input.read();
+        int b1 = input.read();
+        int b2 = input.read();
+        int b3 = input.read();
+        if ((b0 | b1 | b2 | b3) < 0) {
             throw new UnexpectedEndOfFileException();
         }
-        return bytes;
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
     }
 
     /**
@@ -54,8 +45,33 @@ public class ReaderSupport {
      * @return a 4 bytes as an integer in little-endian order
      */
     public int readLittleEndianInt(byte[] bytes) {
-        resetBuffer(bytes);
-        return buffer.getInt();
+        return readLittleEndianInt(bytes, 0);
+    }
+
+    /**
+     * Interprets 4 bytes of the array as an integer, using little-endian byte order
+     *
+     * @param bytes
+     * @param offset index of the first of the 4 bytes
+     * @return the 4 bytes as an integer in little-endian order
+     */
+    public int readLittleEndianInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | bytes[offset + 3] << 24;
+    }
+
+    /**
+     * Interprets 8 bytes of the array as a long, using little-endian byte order
+     *
+     * @param bytes
+     * @param offset index of the first of the 8 bytes
+     * @return the 8 bytes as a long in little-endian order
+     */
+    public long readLittleEndianLong(byte[] bytes, int offset) {
+        return (readLittleEndianInt(bytes, offset) & 0xFF_FF_FF_FFL)
+                | (long) readLittleEndianInt(bytes, offset + 4) << 32;
     }
 
     /**
@@ -68,8 +84,9 @@ public class ReaderSupport {
      * @throws rosbagreader.exceptions.UnexpectedEndOfFileException
      */
     public long readLittleEndianLong(InputStream input) throws IOException, UnexpectedEndOfFileException {
-        byte[] bytes = readBytesFromInputStream(8, input);
-        return readLittleEndianLong(bytes);
+        long low = readLittleEndianInt(input) & 0xFF_FF_FF_FFL;
+        long high = readLittleEndianInt(input);
+        return low | (high << 32);
     }
 
     /**
@@ -79,8 +96,7 @@ public class ReaderSupport {
      * @return 8 bytes as a long in little-endian order
      */
     public long readLittleEndianLong(byte[] bytes) {
-        resetBuffer(bytes);
-        return buffer.getLong();
+        return readLittleEndianLong(bytes, 0);
     }
 
     /**
@@ -100,8 +116,7 @@ public class ReaderSupport {
      * @return 8 bytes interpreted as a double in little-endian order
      */
     public double readLittleEndianDouble(byte[] bytes) {
-        resetBuffer(bytes);
-        return buffer.getDouble();
+        return Double.longBitsToDouble(readLittleEndianLong(bytes, 0));
     }
 
         /**
@@ -114,8 +129,7 @@ public class ReaderSupport {
      * @throws java.io.IOException
      */
     public double readLittleEndianDouble(InputStream stream) throws UnexpectedEndOfFileException, IOException {
-        byte[] bytes = readBytesFromInputStream(8, stream);
-        return readLittleEndianDouble(bytes);
+        return Double.longBitsToDouble(readLittleEndianLong(stream));
     }
 
     /**
@@ -125,8 +139,7 @@ public class ReaderSupport {
      * @return a 4 bytes as a float in little-endian order
      */
     public float readLittleEndianFloat(byte[] bytes) {
-        resetBuffer(bytes);
-        return buffer.getFloat();
+        return Float.intBitsToFloat(readLittleEndianInt(bytes, 0));
     }
 
           /**
@@ -139,19 +152,7 @@ public class ReaderSupport {
      * @throws java.io.IOException
      */
     public float readLittleEndianFloat(InputStream stream) throws UnexpectedEndOfFileException, IOException {
-        byte[] bytes = readBytesFromInputStream(4, stream);
-        return readLittleEndianFloat(bytes);
-    }
-    /**
-     * Resets the buffer and sets it's bytes to the given value.
-     *
-     * @param bytes
-     */
-    private void resetBuffer(byte[] bytes) {
-        buffer.clear();
-        buffer.put(bytes);
-        buffer.flip();
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return Float.intBitsToFloat(readLittleEndianInt(stream));
     }
     /**
      * Converts the byte array to string.
@@ -165,23 +166,40 @@ public class ReaderSupport {
     /**
      * Skips the given number of bytes of the input stream. 
      * Assuming there is enough bytes to skip in the file, skips exactly the given number of bytes.
-     * The method {@link InputStream#skip(long) } skips only the data
-     * which are currently available. For example, with BufferedInputStream
-     * the skip method skips only the data in the buffer.
-     * Because we want to be sure we skip exactly the given number of bytes,
-     * this alternative (blocking) implementation is used.
+     * The method {@link InputStream#skip(long) } may skip fewer bytes,
+     * e.g. BufferedInputStream skips only the data in the buffer, so it is
+     * called repeatedly. When it skips nothing, one byte is read to find
+     * out whether the end of the stream has been reached. The last byte
+     * is always read, because some streams (e.g. FileInputStream) skip
+     * behind the end of the file.
      * @param stream input stream from which the data are taken
      * @param count number of bytes to skip
      * @return true if the data were skipped, false if the end of file has been reached.
      * @throws IOException 
      */
-    public boolean skipExactCount(InputStream stream, int count) throws IOException {
-        int i = 0;
-        int res = 0;
-        while (i<count&& ((res=stream.read())!=-1)) {
-            i++;
+    public boolean skipExactCount(InputStream stream, long count) throws IOException {
+        while (count > 1) {
+            long n = stream.skip(count - 1);
+            if (n > 0) {
+                count -= n;
+            } else if (stream.read() == -1) {
+                return false;
+            } else {
+                count--;
+            }
         }
-        return res!=-1;
+        return count == 0 || stream.read() != -1;
+    }
+    /**
+     * Skips the given number of bytes of the input stream, see
+     * {@link #skipExactCount(java.io.InputStream, long)}.
+     * @param stream input stream from which the data are taken
+     * @param count number of bytes to skip
+     * @return true if the data were skipped, false if the end of file has been reached.
+     * @throws IOException 
+     */
+    public boolean skipExactCount(InputStream stream, int count) throws IOException {
+        return skipExactCount(stream, (long) count);
     }
     /**
      * Tries to read little endian integer from the input stream. It is expected
@@ -194,21 +212,13 @@ public class ReaderSupport {
      * @throws rosbagreader.exceptions.UnexpectedEndOfFileException  Thrown only in case that part of the bytes of the integer have been read successfully.
      */
     public boolean tryReadLEInteger(InputStream input, IntWrapper result) throws IOException, UnexpectedEndOfFileException {
-        byte[] bytes = new byte[4];
-        int i;
-        i=input.read();
-        if (i==-1) return false;
-        bytes[0]=(byte)i;
-        i=input.read();
-        bytes[1]=(byte)i;
-        if (i==-1) throw new UnexpectedEndOfFileException();
-        i=input.read();
-        bytes[2]=(byte)i;
-        if (i==-1) throw new UnexpectedEndOfFileException();
-        i=input.read();
-        if (i==-1) throw new UnexpectedEndOfFileException();
-        bytes[3]=(byte)i;
-        result.i = readLittleEndianInt(bytes);
+        int b0 = input.read();
+        if (b0 == -1) return false;
+        int b1 = input.read();
+        int b2 = input.read();
+        int b3 = input.read();
+        if ((b1 | b2 | b3) < 0) throw new UnexpectedEndOfFileException();
+        result.i = b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
         return true;
     }
     public static class IntWrapper {
@@ -0,0 +1,285 @@
+/*
+ */
+package support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Byte source reading the data from an input stream.
+ * The stream is read in blocks to an internal buffer and the values
+ * are decoded directly from the buffer, so the stream does not have
+ * to be buffered.
+ *
+ * @author Tomas Prochazka
+ */
+public class StreamByteSource extends ByteSource {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream input;
+    private final ReaderSupport readerSupport = new ReaderSupport();
+    private final byte[] buffer;
+    /**
+     * Position of the next unread byte in the buffer.
+     */
+    private int offset;
+    /**
+     * Number of valid bytes in the buffer.
+     */
+    private int limit;
+    /**
+     * Position of the beginning of the buffer in the stream.
+     */
+    private long bufferPosition;
+    /**
+     * Number of bytes which can still be read from the stream.
+     */
+    private long streamRemaining;
+
+    public StreamByteSource(InputStream input) {
+        this(input, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a source which reads at most the given number of bytes
+     * from the stream. The stream is never read behind this limit,
+     * so it can be read by someone else afterwards.
+     *
+     * @param input
+     * @param length
+     */
+    public StreamByteSource(InputStream input, long length) {
+        this.input = input;
+        this.buffer = new byte[(int) Math.max(8, Math.min(BUFFER_SIZE, length))];
+        this.streamRemaining = length;
+    }
+
+    /**
+     * Makes sure that at least the given number of bytes is in the buffer.
+     * The unread bytes are moved to the beginning of the buffer and the rest
+     * is filled from the stream.
+     *
+     * @param count at most the size of the buffer
+     * @return false if the stream ended before
+     * @throws IOException
+     */
+    private boolean ensure(int count) throws IOException {
+        if (limit - offset >= count) {
+            return true;
+        }
+        int remaining = limit - offset;
+        System.arraycopy(buffer, offset, buffer, 0, remaining);
+        bufferPosition += offset;
+        offset = 0;
+        limit = remaining;
+        while (limit < count) {
+            int r = readStream(buffer, limit, buffer.length - limit);
+            if (r == -1) {
+                return false;
+            }
+            limit += r;
+        }
+        return true;
+    }
+
+    private int readStream(byte[] bytes, int off, int length) throws IOException {
+        if (streamRemaining == 0) {
+            return -1;
+        }
+        long start = ioStart();
+        int r = input.read(bytes, off, (int) Math.min(length, streamRemaining));
+        ioDone(start);
+        if (r > 0) {
+            streamRemaining -= r;
+        }
+        return r;
+    }
+
+    private void require(int count) throws IOException, UnexpectedEndOfFileException {
+        if (!ensure(count)) {
+            //the incomplete value is consumed
+            offset = limit;
+            throw new UnexpectedEndOfFileException();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensure(1)) {
+            return -1;
+        }
+        return buffer[offset++] & 0xFF;
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int off, int length) throws IOException, UnexpectedEndOfFileException {
+        if (length <= buffer.length) {
+            require(length);
+            System.arraycopy(buffer, offset, bytes, off, length);
+            offset += length;
+            return;
+        }
+        int n = limit - offset;
+        System.arraycopy(buffer, offset, bytes, off, n);
+        discardBuffer(bufferPosition + limit);
+        off += n;
+        length -= n;
+        //the rest is read directly, without copying through the buffer
+        while (length > 0) {
+            int r = readStream(bytes, off, length);
+            if (r == -1) {
+                throw new UnexpectedEndOfFileException();
+            }
+            bufferPosition += r;
+            off += r;
+            length -= r;
+        }
+    }
+
+    @Override
+    public int readLittleEndianInt() throws IOException, UnexpectedEndOfFileException {
+        require(4);
+        int res = readerSupport.readLittleEndianInt(buffer, offset);
+        offset += 4;
+        return res;
+    }
+
+    @Override
+    public long readLittleEndianLong() throws IOException, UnexpectedEndOfFileException {
+        require(8);
+        long res = readerSupport.readLittleEndianLong(buffer, offset);
+        offset += 8;
+        return res;
+    }
+
+    @Override
+    public float readLittleEndianFloat() throws IOException, UnexpectedEndOfFileException {
+        return Float.intBitsToFloat(readLittleEndianInt());
+    }
+
+    @Override
+    public double readLittleEndianDouble() throws IOException, UnexpectedEndOfFileException {
+        return Double.longBitsToDouble(readLittleEndianLong());
+    }
+
+    @Override
+    public void readLittleEndianInts(int[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        int end = offset + length;
+        while (offset < end) {
+            require(4);
+            //decodes all the values which are complete in the buffer
+            int n = Math.min(end - offset, (limit - this.offset) / 4);
+            for (int i = 0; i < n; i++) {
+                values[offset++] = readerSupport.readLittleEndianInt(buffer, this.offset);
+                this.offset += 4;
+            }
+        }
+    }
+
+    @Override
+    public void readLittleEndianFloats(float[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        int end = offset + length;
+        while (offset < end) {
+            require(4);
+            int n = Math.min(end - offset, (limit - this.offset) / 4);
+            for (int i = 0; i < n; i++) {
+                values[offset++] = Float.intBitsToFloat(readerSupport.readLittleEndianInt(buffer, this.offset));
+                this.offset += 4;
+            }
+        }
+    }
+
+    @Override
+    public void readLittleEndianDoubles(double[] values, int offset, int length) throws IOException, UnexpectedEndOfFileException {
+        checkBounds(values.length, offset, length);
+        int end = offset + length;
+        while (offset < end) {
+            require(8);
+            int n = Math.min(end - offset, (limit - this.offset) / 8);
+            for (int i = 0; i < n; i++) {
+                values[offset++] = Double.longBitsToDouble(readerSupport.readLittleEndianLong(buffer, this.offset));
+                this.offset += 8;
+            }
+        }
+    }
+
+    @Override
+    public boolean tryReadLittleEndianInt(ReaderSupport.IntWrapper result) throws IOException, UnexpectedEndOfFileException {
+        if (!ensure(1)) {
+            return false;
+        }
+        result.i = readLittleEndianInt();
+        return true;
+    }
+
+    /**
+     * Skips the buffered bytes first, the rest is skipped by the stream.
+     * If the stream does not skip anything, the buffer is filled and
+     * skipped instead. The last byte is always read, because some streams
+     * (e.g. FileInputStream) skip behind the end of the file.
+     */
+    @Override
+    public boolean skip(long count) throws IOException {
+        while (count > 0) {
+            if (offset < limit) {
+                int n = (int) Math.min(count, limit - offset);
+                offset += n;
+                count -= n;
+                continue;
+            }
+            discardBuffer(bufferPosition + limit);
+            long start = ioStart();
+            long skipped = count == 1 || streamRemaining == 0 ? 0 : input.skip(Math.min(count - 1, streamRemaining));
+            ioDone(start);
+            if (skipped > 0) {
+                streamRemaining -= skipped;
+                bufferPosition += skipped;
+                count -= skipped;
+            } else if (!ensure(1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the given position if it is inside the buffer.
+     *
+     * @param position
+     * @return false if the position is not buffered
+     */
+    boolean seekInBuffer(long position) {
+        if (position < bufferPosition || position > bufferPosition + limit) {
+            return false;
+        }
+        offset = (int) (position - bufferPosition);
+        return true;
+    }
+
+    /**
+     * Discards the buffered data after the position of the underlying
+     * stream has been changed.
+     *
+     * @param position the new position of the stream
+     */
+    void discardBuffer(long position) {
+        bufferPosition = position;
+        offset = 0;
+        limit = 0;
+    }
+
+    @Override
+    public long position() {
+        return bufferPosition + offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+/**
+ * Creates small ROS Bag 2.0 files for the tests.
+ * Messages are grouped into chunks, each chunk is followed by its
+ * index data records and the index section (connection and chunk info
+ * records) is written at the end of the file.
+ *
+ * @author Tomas Prochazka
+ */
+public class BagBuilder {
+
+    private static final String TYPE = "std_msgs/Float64";
+    private static final String MD5SUM = "fdb28210bfa9d7c91146260178d9a584";
+    private static final String DEFINITION = "float64 data\n";
+
+    private final int chunkSize;
+    private final List<String[]> connections = new ArrayList<>();
+    private final List<Object[]> messages = new ArrayList<>();
+    private String compression = "none";
+
+    /**
+     * @param chunkSize chunk is closed when its data exceed this number of bytes.
+     */
+    public BagBuilder(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param compression none, bz2 or lz4
+     */
+    public BagBuilder compression(String compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Declares a new connection.
+     * @return connection id
+     */
+    public int connection(String topic, String type, String md5sum, String definition) {
+        connections.add(new String[]{topic, type, md5sum, definition});
+        return connections.size() - 1;
+    }
+
+    public int connection(String topic) {
+        return connection(topic, TYPE, MD5SUM, DEFINITION);
+    }
+
+    /**
+     * Writes a bag by the {@link RosbagWriter}: Float64 messages with the
+     * values 0, 1, 2... at the same seconds, every third one on
+     * /ardrone/image_raw, the others on /ardrone/navdata, in chunks
+     * of about 1000 bytes.
+     *
+     * @param file
+     * @param compression none, bz2 or lz4
+     * @param count number of the messages
+     * @throws IOException
+     */
+    public static void writeBag(Path file, String compression, int count) throws IOException {
+        try (RosbagWriter writer = new RosbagWriter(file, compression)) {
+            writeBag(writer, count);
+        }
+    }
+
+    /**
+     * Writes the messages of {@link #writeBag(java.nio.file.Path, java.lang.String, int)}
+     * to the writer, which is not closed.
+     *
+     * @param writer
+     * @param count
+     * @throws IOException
+     */
+    public static void writeBag(RosbagWriter writer, int count) throws IOException {
+        writer.setChunkSize(1000);
+        writer.setCompressionThreads(2);
+        int navdata = writer.addConnection("/ardrone/navdata", TYPE, MD5SUM, DEFINITION);
+        int image = writer.addConnection("/ardrone/image_raw", TYPE, MD5SUM, DEFINITION);
+        for (int i = 0; i < count; i++) {
+            writer.write(i % 3 == 0 ? image : navdata, new RosTime(0, i), float64(i));
+        }
+    }
+
+    /**
+     * Writes the bag of {@link #writeBag(java.nio.file.Path, java.lang.String, int)}
+     * to a new temporary file, which should be deleted by the test.
+     *
+     * @param compression
+     * @param count
+     * @return
+     * @throws IOException
+     */
+    public static Path writeTempBag(String compression, int count) throws IOException {
+        Path file = Files.createTempFile("rosbagreader", ".bag");
+        writeBag(file, compression, count);
+        return file;
+    }
+
+    /**
+     * Adds a message. Messages are written in the order they are added.
+     */
+    public BagBuilder message(int conn, int sec, int nsec, byte[] data) {
+        messages.add(new Object[]{conn, sec, nsec, data});
+        return this;
+    }
+
+    /**
+     * Serialized std_msgs/Float64 message.
+     */
+    public static byte[] float64(double value) {
+        return le(8).putDouble(value).array();
+    }
+
+    public static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public byte[] build() throws IOException {
+        return build(true);
+    }
+
+    /**
+     * @param index whether the index section should be written
+     */
+    public byte[] build(boolean index) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("#ROSBAG V2.0\n".getBytes(StandardCharsets.US_ASCII));
+        int bagHeaderPos = out.size();
+        writeBagHeader(out, 0, 0, 0);
+        List<byte[]> chunkInfos = new ArrayList<>();
+        int i = 0;
+        while (i < messages.size()) {
+            long chunkPos = out.size();
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            Map<Integer, List<long[]>> chunkIndex = new TreeMap<>();
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            while (i < messages.size() && chunk.size() < chunkSize) {
+                Object[] m = messages.get(i++);
+                int conn = (Integer) m[0];
+                if (!chunkIndex.containsKey(conn)) {
+                    chunkIndex.put(conn, new ArrayList<long[]>());
+                    writeConnection(chunk, conn);
+                }
+                chunkIndex.get(conn).add(new long[]{(Integer) m[1], (Integer) m[2], chunk.size()});
+                writeRecord(chunk, header("op", new byte[]{RosOpCodes.MESSAGE_DATA}, "conn", int32(conn), "time", time((Integer) m[1], (Integer) m[2])), (byte[]) m[3]);
+                long t = ((Integer) m[1]) * 1_000_000_000L + (Integer) m[2];
+                start = Math.min(start, t);
+                end = Math.max(end, t);
+            }
+            byte[] chunkData = chunk.toByteArray();
+            writeRecord(out, header("op", new byte[]{RosOpCodes.CHUNK}, "compression", utf8(compression), "size", int32(chunkData.length)), compress(chunkData));
+            ByteBuffer counts = le(8 * chunkIndex.size());
+            for (Map.Entry<Integer, List<long[]>> e : chunkIndex.entrySet()) {
+                ByteBuffer entries = le(12 * e.getValue().size());
+                for (long[] entry : e.getValue()) {
+                    entries.putInt((int) entry[0]).putInt((int) entry[1]).putInt((int) entry[2]);
+                }
+                writeRecord(out, header("op", new byte[]{RosOpCodes.INDEX_DATA}, "ver", int32(1), "conn", int32(e.getKey()), "count", int32(e.getValue().size())), entries.array());
+                counts.putInt(e.getKey()).putInt(e.getValue().size());
+            }
+            ByteArrayOutputStream chunkInfo = new ByteArrayOutputStream();
+            writeRecord(chunkInfo, header("op", new byte[]{RosOpCodes.CHUNK_INFO}, "ver", int32(1), "chunk_pos", int64(chunkPos),
+                    "start_time", time((int) (start / 1_000_000_000L), (int) (start % 1_000_000_000L)),
+                    "end_time", time((int) (end / 1_000_000_000L), (int) (end % 1_000_000_000L)),
+                    "count", int32(chunkIndex.size())), counts.array());
+            chunkInfos.add(chunkInfo.toByteArray());
+        }
+        if (!index) {
+            return out.toByteArray();
+        }
+        long indexPos = out.size();
+        for (int c = 0; c < connections.size(); c++) {
+            writeConnection(out, c);
+        }
+        for (byte[] chunkInfo : chunkInfos) {
+            out.write(chunkInfo);
+        }
+        byte[] bytes = out.toByteArray();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeBagHeader(header, indexPos, connections.size(), chunkInfos.size());
+        System.arraycopy(header.toByteArray(), 0, bytes, bagHeaderPos, header.size());
+        return bytes;
+    }
+
+    public Path write(Path file) throws IOException {
+        Files.write(file, build());
+        return file;
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        if (compression.equals("none")) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream c = compression.equals("bz2") ? new BZip2CompressorOutputStream(out) : new FramedLZ4CompressorOutputStream(out)) {
+            c.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private void writeBagHeader(ByteArrayOutputStream out, long indexPos, int connCount, int chunkCount) throws IOException {
+        byte[] header = header("op", new byte[]{RosOpCodes.BAG_HEADER}, "index_pos", int64(indexPos), "conn_count", int32(connCount), "chunk_count", int32(chunkCount));
+        byte[] padding = new byte[4096 - 8 - header.length];
+        java.util.Arrays.fill(padding, (byte) 0x20);
+        writeRecord(out, header, padding);
+    }
+
+    private void writeConnection(ByteArrayOutputStream out, int conn) throws IOException {
+        String[] c = connections.get(conn);
+        byte[] data = header("topic", utf8(c[0]), "type", utf8(c[1]), "md5sum", utf8(c[2]), "message_definition", utf8(c[3]));
+        writeRecord(out, header("op", new byte[]{RosOpCodes.CONNECTION}, "conn", int32(conn), "topic", utf8(c[0])), data);
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, byte[] header, byte[] data) throws IOException {
+        out.write(int32(header.length));
+        out.write(header);
+        out.write(int32(data.length));
+        out.write(data);
+    }
+
+    /**
+     * Serializes the header fields given as name, value pairs.
+     */
+    static byte[] header(Object... fields) throws IOException {
+        Map<String, byte[]> map = new LinkedHashMap<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            map.put((String) fields[i], (byte[]) fields[i + 1]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> e : map.entrySet()) {
+            byte[] name = utf8(e.getKey() + "=");
+            out.write(int32(name.length + e.getValue().length));
+            out.write(name);
+            out.write(e.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] int32(int i) {
+        return le(4).putInt(i).array();
+    }
+
+    static byte[] int64(long l) {
+        return le(8).putLong(l).array();
+    }
+
+    static byte[] time(int sec, int nsec) {
+        return le(8).putInt(sec).putInt(nsec).array();
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class BagIndexTest {
+
+    private Path file;
+    private int navdata;
+    private int image;
+
+    public BagIndexTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        BagBuilder b = new BagBuilder(200);
+        navdata = b.connection("/ardrone/navdata");
+        image = b.connection("/ardrone/image_raw", "sensor_msgs/Image", "060021388200f6f0f447d0fcd9c64743", "uint32 height\n");
+        for (int i = 0; i < 100; i++) {
+            b.message(navdata, 10 + i, 0, BagBuilder.float64(i));
+            if (i % 10 == 0) {
+                b.message(image, 10 + i, 5, new byte[64]);
+            }
+        }
+        file = b.write(Files.createTempFile("rosbagreader", ".bag"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void testBagHeader() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            assertTrue(reader.isIndexed());
+            assertEquals(2, reader.getConnectionCount());
+            BagIndex index = reader.readIndex();
+            assertEquals(reader.getChunkCount(), index.getChunks().size());
+            assertEquals("sensor_msgs/Image", index.getConnection(image).getType());
+            assertEquals("uint32 height\n", index.getConnection(image).getMessageDefinition());
+            assertEquals(1, index.getConnectionIds("/ardrone/navdata").size());
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            BagIndex index = reader.readIndex();
+            ConnectionIndex entries = index.getEntries(navdata);
+            assertEquals(100, entries.size());
+            IndexEntry entry = index.find(navdata, new RosTime(1, 47));
+            assertEquals(48_000_000_000L, entry.getTimeAsNanos());
+            final double[] value = new double[1];
+            reader.parseMessage(entry, new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    assertEquals("/ardrone/navdata", message.getTopic());
+                    value[0] = message.readDouble();
+                }
+            });
+            assertEquals(38, value[0], 0);
+            assertEquals(10, index.getEntries(image).size());
+            assertNull(index.find(image, new RosTime(0, 101)));
+        }
+    }
+
+    @Test
+    public void testParseBagAfterRandomAccess() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            BagIndex index = reader.readIndex();
+            index.getEntries(navdata);
+            final int[] count = new int[1];
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    count[0]++;
+                }
+            });
+            assertEquals(110, count[0]);
+        }
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        try (RosbagReader reader = new RosbagReader(Files.newByteChannel(file))) {
+            assertTrue(reader.isIndexed());
+            BagIndex index = reader.readIndex();
+            final double[] value = new double[1];
+            reader.parseMessage(index.find(navdata, new RosTime(0, 90)), new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    value[0] = message.readDouble();
+                }
+            });
+            assertEquals(80, value[0], 0);
+            final int[] count = new int[1];
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    if (count[0]++ % 2 == 0) {
+                        message.readByte();
+                    }
+                }
+            });
+            assertEquals(110, count[0]);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamIsNotSeekable() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(Files.readAllBytes(file)));
+        assertFalse(reader.isIndexed());
+        reader.readIndex();
+    }
+
+    @Test(expected = InvalidRosbagFormatException.class)
+    public void testUnindexedBag() throws Exception {
+        BagBuilder b = new BagBuilder(200);
+        b.message(b.connection("/a"), 1, 0, BagBuilder.float64(1));
+        Files.write(file, b.build(false));
+        try (RosbagReader reader = new RosbagReader(file)) {
+            assertFalse(reader.isIndexed());
+            reader.readIndex();
+        }
+    }
+
+}
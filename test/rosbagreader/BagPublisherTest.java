@@ -0,0 +1,236 @@
+/*
+ */
+package rosbagreader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class BagPublisherTest {
+
+    private static final int COUNT = 1000;
+    private static ExecutorService executor;
+
+    public BagPublisherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        executor.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static BagPublisher publisher(long budget) throws Exception {
+        return new BagPublisher(open(), null, executor, budget);
+    }
+
+    private static RosbagReader open() throws Exception {
+        return new RosbagReader(new BufferByteSource(ByteBuffer.wrap(ParallelParseTest.createBag("lz4", true))));
+    }
+
+    /**
+     * Runs the tasks by the shared executor and tells when none of them
+     * is running or waiting. The tasks of the publisher are only started
+     * by other tasks or by the subscriber, so once the executor is idle
+     * and the subscriber waits, nothing else happens.
+     */
+    private static class TrackingExecutor implements Executor {
+
+        private int pending;
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                pending++;
+            }
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            });
+        }
+
+        synchronized boolean awaitIdle(long millis) throws InterruptedException {
+            long end = System.currentTimeMillis() + millis;
+            while (pending != 0) {
+                long left = end - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Requests one message at a time, cancels after the given number
+     * of messages.
+     */
+    private static class TestSubscriber implements Flow.Subscriber<RosMessageData> {
+
+        final List<Double> values = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final int cancelAfter;
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        TestSubscriber(int cancelAfter) {
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(RosMessageData item) {
+            try {
+                values.add(item.readDouble());
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+            if (values.size() == cancelAfter) {
+                subscription.cancel();
+                done.countDown();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberSmallBudget() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(-1);
+        publisher(64).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertTrue(subscriber.completed);
+        assertEquals(COUNT, subscriber.values.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i, subscriber.values.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(10);
+        TrackingExecutor tracking = new TrackingExecutor();
+        new BagPublisher(open(), null, tracking, BagPublisher.DEFAULT_MEMORY_BUDGET).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(tracking.awaitIdle(10_000));
+        assertEquals(10, subscriber.values.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    /**
+     * The subscriber stops requesting, the bag is read ahead only until
+     * the buffered messages reach the budget.
+     */
+    @Test
+    public void testReadAheadStopsAtBudget() throws Exception {
+        final int requested = 5;
+        final int buffered = 100;
+        RosbagReader reader = open();
+        ReaderMetrics metrics = reader.enableMetrics();
+        TrackingExecutor tracking = new TrackingExecutor();
+        TestSubscriber subscriber = new TestSubscriber(-1) {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(requested);
+            }
+
+            @Override
+            public void onNext(RosMessageData item) {
+                values.add(0.0);
+                if (values.size() == requested) {
+                    done.countDown();
+                }
+            }
+        };
+        //every message has 8 bytes of data
+        new BagPublisher(reader, null, tracking, buffered * 8).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(tracking.awaitIdle(10_000));
+        assertEquals(requested, subscriber.values.size());
+        assertFalse(subscriber.completed);
+        //the chunks are read at once, the reading stops in the chunk
+        //with the last buffered message
+        long expected = 0;
+        for (ChunkInfo chunk : reader.readIndex().getChunks()) {
+            if (expected >= requested + buffered) {
+                break;
+            }
+            for (int i = 0; i < chunk.getConnectionCount(); i++) {
+                expected += chunk.getMessageCount(i);
+            }
+        }
+        assertTrue(expected < COUNT);
+        assertEquals(expected, metrics.getMessages());
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(-1) {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(0);
+            }
+        };
+        publisher(64).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class BagSlicerTest {
+
+    private static final int COUNT = 1000;
+    private Path bag;
+    private Path slice;
+
+    public BagSlicerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        bag = BagBuilder.writeTempBag("lz4", COUNT);
+        slice = Files.createTempFile("slice", ".bag");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(bag);
+        Files.delete(slice);
+    }
+
+    private List<Double> readSlice() throws Exception {
+        final List<Double> res = new ArrayList<>();
+        try (RosbagReader reader = new RosbagReader(slice)) {
+            assertTrue(reader.isIndexed());
+            assertEquals(reader.getChunkCount(), reader.readIndex().getChunks().size());
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    double value = message.readDouble();
+                    assertEquals((long) value * 1_000_000_000L, message.getTimeAsNanos());
+                    res.add(value);
+                }
+            });
+        }
+        return res;
+    }
+
+    /**
+     * The chunks inside of the window are copied, the border chunks are
+     * written again.
+     */
+    @Test
+    public void testTimeRange() throws Exception {
+        try (RosbagReader reader = new RosbagReader(bag)) {
+            BagSlicer slicer = new BagSlicer(reader);
+            slicer.setTimeRange(new RosTime(0, 100), new RosTime(0, 899));
+            slicer.slice(slice);
+        }
+        List<Double> res = readSlice();
+        assertEquals(800, res.size());
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(100 + i, res.get(i), 0);
+        }
+        try (RosbagReader reader = new RosbagReader(slice)) {
+            BagIndex index = reader.readIndex();
+            assertEquals(2, index.getConnections().size());
+            assertEquals(101, index.find(0, new RosTime(0, 101)).getTimeAsNanos() / 1_000_000_000L);
+        }
+    }
+
+    @Test
+    public void testTopic() throws Exception {
+        try (RosbagReader reader = new RosbagReader(bag)) {
+            BagSlicer slicer = new BagSlicer(reader);
+            slicer.setTopics(Collections.singleton("/ardrone/image_raw"));
+            slicer.setCompression("bz2");
+            slicer.slice(slice);
+        }
+        List<Double> res = readSlice();
+        assertEquals((COUNT + 2) / 3, res.size());
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(3 * i, res.get(i), 0);
+        }
+        try (RosbagReader reader = new RosbagReader(slice)) {
+            assertEquals(1, reader.getConnectionCount());
+            assertEquals("/ardrone/image_raw", reader.readIndex().getConnection(1).getTopic());
+        }
+    }
+
+}
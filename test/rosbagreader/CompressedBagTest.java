@@ -0,0 +1,112 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class CompressedBagTest {
+
+    private static final int COUNT = 500;
+
+    public CompressedBagTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    static byte[] createBag(String compression, boolean index) throws IOException {
+        BagBuilder b = new BagBuilder(512).compression(compression);
+        int navdata = b.connection("/ardrone/navdata");
+        int image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < COUNT; i++) {
+            b.message(i % 10 == 0 ? image : navdata, i, 0, BagBuilder.float64(i));
+        }
+        return b.build(index);
+    }
+
+    @Test
+    public void testBz2Stream() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(createBag("bz2", false)));
+        List<Double> res = new ArrayList<>();
+        reader.parseBag(ParallelParseTest.collector(res));
+        ParallelParseTest.assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testLz4Stream() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(createBag("lz4", false)));
+        List<Double> res = new ArrayList<>();
+        reader.parseBag(ParallelParseTest.collector(res));
+        ParallelParseTest.assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        Path file = Files.createTempFile("compressed", ".bag");
+        try {
+            Files.write(file, createBag("lz4", true));
+            try (RosbagReader reader = new RosbagReader(file)) {
+                reader.setDecompressionThreads(3);
+                List<Double> res = new ArrayList<>();
+                reader.parseBag(ParallelParseTest.collector(res));
+                ParallelParseTest.assertAllInOrder(res, COUNT);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWithoutThreads() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(createBag("bz2", false)));
+        reader.setDecompressionThreads(0);
+        List<Double> res = new ArrayList<>();
+        reader.parseBag(ParallelParseTest.collector(res));
+        ParallelParseTest.assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testFilterAndRandomAccess() throws Exception {
+        RosbagReader reader = ParallelParseTest.open(createBag("bz2", true));
+        List<Double> res = new ArrayList<>();
+        reader.parseBag(Collections.singleton("/ardrone/image_raw"), ParallelParseTest.collector(res));
+        assertEquals(COUNT / 10, res.size());
+        assertEquals(490, res.get(COUNT / 10 - 1), 0);
+
+        BagIndex index = reader.readIndex();
+        int image = index.getConnectionIds("/ardrone/image_raw").get(0);
+        res.clear();
+        reader.parseMessage(index.find(image, new RosTime(0, 250)), ParallelParseTest.collector(res));
+        assertEquals(Collections.singletonList(250.0), res);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class ConnectionTableTest {
+
+    private static final int COUNT = 600;
+    private Path file;
+
+    public ConnectionTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = BagBuilder.writeTempBag("none", COUNT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void testHandlers() throws Exception {
+        final int[] counts = new int[2];
+        try (RosbagReader reader = new RosbagReader(file)) {
+            reader.on("/ardrone/image_raw", message -> {
+                assertEquals("/ardrone/image_raw", message.getTopic());
+                assertEquals(0, (int) message.readDouble() % 3);
+                counts[0]++;
+            });
+            reader.parseBag();
+            assertEquals(COUNT / 3, counts[0]);
+            assertEquals(0, counts[1]);
+
+            //the handlers can be changed between the runs
+            reader.on("/ardrone/image_raw", null);
+            reader.on("/ardrone/navdata", message -> counts[1]++);
+            reader.parseBag();
+            assertEquals(COUNT / 3, counts[0]);
+            assertEquals(2 * COUNT / 3, counts[1]);
+        }
+        //handlers registered before the connections are read
+        try (RosbagReader reader = new RosbagReader(Files.newInputStream(file))) {
+            reader.on("/ardrone/image_raw", message -> counts[0]++);
+            reader.parseBag();
+            assertEquals(2 * COUNT / 3, counts[0]);
+        }
+    }
+
+    @Test
+    public void testIds() {
+        ConnectionTable table = new ConnectionTable();
+        ConnectionInfo small = new ConnectionInfo(3, "/small", Collections.emptyMap());
+        ConnectionInfo large = new ConnectionInfo(1_000_000, "/large", Collections.emptyMap());
+        ConnectionInfo negative = new ConnectionInfo(-1, "/negative", Collections.emptyMap());
+        table.put(small);
+        table.put(large);
+        table.put(negative);
+        assertNull(table.get(0));
+        assertNull(table.get(999_999));
+        assertSame(small, table.get(3).connection);
+        assertSame(large, table.get(1_000_000).connection);
+        assertSame(negative, table.get(-1).connection);
+        RosbagMessageDataParser handler = message -> {
+        };
+        table.setHandler("/large", handler);
+        assertSame(handler, table.get(1_000_000).handler);
+        assertNull(table.get(3).handler);
+        table.put(new ConnectionInfo(4, "/large", Collections.emptyMap()));
+        assertSame(handler, table.get(4).handler);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ */
+package rosbagreader;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class FieldProjectionTest {
+
+    public FieldProjectionTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static RosMessageData message(byte[] data) {
+        return new RosMessageData(data.length, new BufferByteSource(ByteBuffer.wrap(data)), new HashMap<String, byte[]>(), "/scan", null);
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse(MessageDecoderTest.TYPE, MessageDecoderTest.DEFINITION);
+        FieldProjection projection = new FieldProjection("ok", "header.stamp", "position[2]", "count", "offset");
+        double[] values = new double[5];
+        for (int i = 0; i < 3; i++) {
+            RosMessageData message = message(MessageDecoderTest.scan(i, 1, 2, 3));
+            projection.decode(definition, message, values);
+            assertArrayEquals(new double[]{1, 100 + i + 5e-9, i, 65000, -2}, values, 1e-12);
+            //the points are not read
+            assertEquals(4 + 32, message.getBytesLeft());
+        }
+    }
+
+    @Test
+    public void testSkipVariableElements() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse("test_msgs/Frames", "Header[] headers\nstring[] names\nuint64 value\n"
+                + "================================================================================\n"
+                + "MSG: std_msgs/Header\nuint32 seq\ntime stamp\nstring frame_id\n");
+        ByteBuffer b = BagBuilder.le(4 + 2 * (16 + 1) + 4 + 4 + 2 + 8);
+        b.putInt(2);
+        for (int i = 0; i < 2; i++) {
+            b.putInt(i).putInt(i).putInt(0).putInt(1).put((byte) 'a');
+        }
+        b.putInt(1).putInt(2).put((byte) 'x').put((byte) 'y');
+        b.putLong(-1);
+        double[] values = new double[1];
+        new FieldProjection("value").decode(definition, message(b.array()), values);
+        assertEquals(18446744073709551615.0, values[0], 0);
+    }
+
+    @Test
+    public void testTimeAndDuration() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse("test_msgs/Times", "time stamp\nduration timeout\n");
+        ByteBuffer b = BagBuilder.le(16);
+        b.putInt(0xF0000000).putInt(5);
+        b.putInt(-2).putInt(500_000_000);
+        double[] values = new double[2];
+        new FieldProjection("stamp", "timeout").decode(definition, message(b.array()), values);
+        assertArrayEquals(new double[]{0xF0000000L + 5e-9, -1.5}, values, 1e-6);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDamagedArrayLength() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse("test_msgs/Names", "string[] names\nuint64 value\n");
+        ByteBuffer b = BagBuilder.le(4 + 8);
+        b.putInt(Integer.MAX_VALUE);
+        b.putLong(1);
+        new FieldProjection("value").decode(definition, message(b.array()), new double[1]);
+    }
+
+    @Test
+    public void testProjectionOfTopic() throws Exception {
+        Path file = BagBuilder.writeTempBag("lz4", 30);
+        try (RosbagReader reader = new RosbagReader(file)) {
+            List<Double> res = new ArrayList<>();
+            reader.on("/ardrone/image_raw", new FieldProjection("data"), (message, values) -> {
+                res.add(values[0]);
+                assertEquals(0, message.getBytesLeft());
+            });
+            reader.parseBag();
+            assertEquals(10, res.size());
+            for (int i = 0; i < res.size(); i++) {
+                assertEquals(3 * i, res.get(i), 0);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArrayWithoutIndex() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse(MessageDecoderTest.TYPE, MessageDecoderTest.DEFINITION);
+        new FieldProjection("position").decode(definition, message(MessageDecoderTest.scan(1)), new double[1]);
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class FilteredParseTest {
+
+    private byte[] bag;
+
+    public FilteredParseTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        BagBuilder b = new BagBuilder(1000);
+        int navdata = b.connection("/ardrone/navdata");
+        int image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < 100; i++) {
+            b.message(image, 10 + i, 0, new byte[300]);
+            if (i % 25 == 0) {
+                b.message(navdata, 10 + i, 1, BagBuilder.float64(i));
+            }
+        }
+        bag = b.build();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Buffer source which remembers the positions it was asked to seek to.
+     */
+    static class SeekCountingSource extends BufferByteSource {
+
+        int seeks;
+
+        SeekCountingSource(byte[] bytes) {
+            super(ByteBuffer.wrap(bytes));
+        }
+
+        @Override
+        public void seek(long position) throws UnexpectedEndOfFileException {
+            seeks++;
+            super.seek(position);
+        }
+    }
+
+    static RosbagMessageDataParser collector(final List<String> res) {
+        return new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                res.add(message.getTopic() + " " + message.getTime().getSec());
+            }
+        };
+    }
+
+    @Test
+    public void testTopicFilterSkipsChunks() throws Exception {
+        SeekCountingSource source = new SeekCountingSource(bag);
+        RosbagReader reader = new RosbagReader(source);
+        int chunks = reader.getChunkCount();
+        List<String> res = new ArrayList<>();
+        reader.parseBag(Collections.singleton("/ardrone/navdata"), collector(res));
+        assertEquals(4, res.size());
+        assertEquals("/ardrone/navdata 35", res.get(1));
+        //one seek to the index and one for each chunk with navdata
+        assertEquals(1 + 4, source.seeks);
+        assertTrue(chunks > 4);
+    }
+
+    @Test
+    public void testTopicFilterWithoutIndex() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(bag));
+        List<String> res = new ArrayList<>();
+        reader.parseBag(Collections.singleton("/ardrone/navdata"), collector(res));
+        assertEquals(4, res.size());
+        assertEquals("/ardrone/navdata 85", res.get(3));
+    }
+
+    @Test
+    public void testTimeWindowSkipsChunks() throws Exception {
+        SeekCountingSource source = new SeekCountingSource(bag);
+        RosbagReader reader = new RosbagReader(source);
+        List<String> res = new ArrayList<>();
+        reader.parseBag(new RosTime(0, 40), new RosTime(0, 44), collector(res));
+        assertEquals(5, res.size());
+        assertEquals("/ardrone/image_raw 40", res.get(0));
+        //index and the three chunks with the seconds 40 - 44 (three images per chunk)
+        assertEquals(1 + 3, source.seeks);
+        assertTrue(reader.getChunkCount() > 20);
+    }
+
+    @Test
+    public void testTopicAndTimeWindow() throws Exception {
+        RosbagReader reader = new RosbagReader(new SeekCountingSource(bag));
+        List<String> res = new ArrayList<>();
+        reader.parseBag(Collections.singleton("/ardrone/navdata"), new RosTime(0, 30), new RosTime(1, 60), collector(res));
+        assertEquals(2, res.size());
+        assertEquals("/ardrone/navdata 60", res.get(1));
+    }
+
+    @Test
+    public void testTimeWindowWithoutIndex() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(bag));
+        List<String> res = new ArrayList<>();
+        reader.parseBag(new RosTime(0, 40), new RosTime(0, 44), collector(res));
+        assertEquals(5, res.size());
+        assertEquals("/ardrone/image_raw 44", res.get(4));
+    }
+
+}
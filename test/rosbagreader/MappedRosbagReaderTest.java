@@ -0,0 +1,127 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class MappedRosbagReaderTest {
+
+    private Path file;
+    private byte[] bag;
+
+    public MappedRosbagReaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        BagBuilder b = new BagBuilder(100);
+        int navdata = b.connection("/ardrone/navdata");
+        int image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < 50; i++) {
+            b.message(navdata, 100 + i, i, BagBuilder.float64(i * 0.5));
+            b.message(image, 100 + i, i + 1, new byte[i * 3]);
+        }
+        bag = b.build();
+        file = Files.createTempFile("rosbagreader", ".bag");
+        Files.write(file, bag);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    private List<String> readAll(RosbagReader reader) throws Exception {
+        final List<String> res = new ArrayList<>();
+        reader.parseBag(new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                String s = message.getTopic() + " " + message.getTime().getTimeAsNanos() + " " + message.getRecordLength();
+                if (message.getTopic().equals("/ardrone/navdata")) {
+                    s += " " + message.readDouble();
+                }
+                res.add(s);
+            }
+        });
+        return res;
+    }
+
+    @Test
+    public void testMappedEqualsStream() throws Exception {
+        List<String> stream = readAll(new RosbagReader(new ByteArrayInputStream(bag)));
+        List<String> mapped;
+        try (RosbagReader reader = new RosbagReader(file)) {
+            mapped = readAll(reader);
+        }
+        assertEquals(100, stream.size());
+        assertEquals("/ardrone/navdata 103000000003 8 1.5", stream.get(6));
+        assertEquals(stream, mapped);
+    }
+
+    @Test
+    public void testMessageIsSliceOfMapping() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    byte[] bytes = message.readBytes(message.getBytesLeft());
+                    assertEquals(0, message.getBytesLeft());
+                    assertEquals(message.getRecordLength(), bytes.length);
+                }
+            });
+        }
+    }
+
+    @Test(expected = UnexpectedEndOfRosbagFileException.class)
+    public void testTruncatedFile() throws Exception {
+        Files.write(file, java.util.Arrays.copyOf(bag, bag.length / 2));
+        try (RosbagReader reader = new RosbagReader(file)) {
+            readAll(reader);
+        }
+    }
+
+    /**
+     * The skipped data at the end of the file are missing, FileInputStream
+     * would skip them anyway.
+     */
+    @Test
+    public void testTruncatedStream() throws Exception {
+        for (int length : new int[]{bag.length / 2, bag.length - 1}) {
+            Files.write(file, java.util.Arrays.copyOf(bag, length));
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                readAll(new RosbagReader(in));
+                fail("Truncated to " + length + " bytes");
+            } catch (UnexpectedEndOfRosbagFileException ex) {
+            }
+        }
+    }
+
+}
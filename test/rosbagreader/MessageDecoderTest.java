@@ -0,0 +1,171 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class MessageDecoderTest {
+
+    static final String TYPE = "test_msgs/Scan";
+    static final String DEFINITION = "# A scan\n"
+            + "Header header\n"
+            + "float64[3] position # x, y, z\n"
+            + "float32[] ranges\n"
+            + "int32 FLAG=3\n"
+            + "string LABEL=a # b\n"
+            + "string name\n"
+            + "uint16 count\n"
+            + "byte offset\n"
+            + "bool ok\n"
+            + "Point[] points\n"
+            + "\n"
+            + "================================================================================\n"
+            + "MSG: std_msgs/Header\n"
+            + "uint32 seq\n"
+            + "time stamp\n"
+            + "string frame_id\n"
+            + "================================================================================\n"
+            + "MSG: test_msgs/Point\n"
+            + "float64 x\n"
+            + "float64 y\n";
+
+    public MessageDecoderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    static byte[] scan(int seq, float... ranges) {
+        byte[] frame = "laser".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = BagBuilder.le(4 + 8 + 4 + frame.length + 24 + 4 + 4 * ranges.length + 4 + 3 + 2 + 1 + 1 + 4 + 32);
+        b.putInt(seq).putInt(100 + seq).putInt(5).putInt(frame.length).put(frame);
+        b.putDouble(1).putDouble(2).putDouble(seq);
+        b.putInt(ranges.length);
+        for (float r : ranges) {
+            b.putFloat(r);
+        }
+        b.putInt(3).put("abc".getBytes(StandardCharsets.UTF_8));
+        b.putShort((short) 65000).put((byte) -2).put((byte) 1);
+        b.putInt(2).putDouble(0.5).putDouble(-0.5).putDouble(1.5).putDouble(-1.5);
+        return b.array();
+    }
+
+    @Test
+    public void testParseDefinition() throws Exception {
+        MessageDefinition definition = MessageDefinition.parse(TYPE, DEFINITION);
+        assertEquals(8, definition.getFields().size());
+        MessageDefinition.Field position = definition.getFields().get(definition.indexOf("position"));
+        assertEquals("float64", position.getType());
+        assertEquals(3, position.getArrayLength());
+        assertEquals("std_msgs/Header", definition.getFields().get(0).getType());
+        assertEquals("test_msgs/Point", definition.getFields().get(7).getMessage().getType());
+        assertEquals("int8", definition.getFields().get(definition.indexOf("offset")).getType());
+        assertEquals(-1, definition.indexOf("FLAG"));
+    }
+
+    @Test(expected = InvalidRosbagFormatException.class)
+    public void testMissingType() throws Exception {
+        MessageDefinition.parse(TYPE, "Unknown value\n");
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        BagBuilder b = new BagBuilder(300);
+        int conn = b.connection("/scan", TYPE, "0123456789abcdef0123456789abcdef", DEFINITION);
+        int other = b.connection("/scan2", TYPE, "0123456789abcdef0123456789abcdef", DEFINITION);
+        for (int i = 0; i < 10; i++) {
+            b.message(i % 2 == 0 ? conn : other, i, 0, scan(i, i, i + 0.5f));
+        }
+        final List<GenericMessage> messages = new ArrayList<>();
+        final List<MessageDecoder> decoders = new ArrayList<>();
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(b.build()));
+        reader.parseBag(new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                try {
+                    messages.add(message.decode());
+                    decoders.add(MessageDecoder.forConnection(message.getConnection()));
+                } catch (RosbagException ex) {
+                    throw new AssertionError(ex);
+                }
+                assertEquals(0, message.getBytesLeft());
+            }
+        });
+        assertEquals(10, messages.size());
+        assertSame(decoders.get(0), decoders.get(1));
+        GenericMessage m = messages.get(7);
+        assertEquals(TYPE, m.getType());
+        GenericMessage header = m.getMessage("header");
+        assertEquals(7, header.getLong("seq"));
+        assertEquals(107, header.getTime("stamp").getSec());
+        assertEquals("laser", header.getString("frame_id"));
+        assertArrayEquals(new double[]{1, 2, 7}, (double[]) m.get("position"), 0);
+        assertArrayEquals(new float[]{7, 7.5f}, (float[]) m.get("ranges"), 0);
+        assertEquals("abc", m.getString("name"));
+        assertEquals(65000, m.get("count"));
+        assertEquals(-2, m.get("offset"));
+        assertEquals(true, m.get("ok"));
+        GenericMessage[] points = (GenericMessage[]) m.get("points");
+        assertEquals(2, points.length);
+        assertEquals(-1.5, points[1].getDouble("y"), 0);
+    }
+
+    /**
+     * A damaged length of an array of messages must not allocate
+     * a huge array.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testDamagedMessageArrayLength() throws Exception {
+        MessageDecoder decoder = MessageDecoder.compile(MessageDefinition.parse("test_msgs/Path", "Point[] points\n"
+                + "================================================================================\n"
+                + "MSG: test_msgs/Point\n"
+                + "float64 x\n"
+                + "float64 y\n"));
+        byte[] data = BagBuilder.le(20).putInt(Integer.MAX_VALUE).putDouble(1).putDouble(2).array();
+        decoder.decode(new RosMessageData(data.length, new BufferByteSource(ByteBuffer.wrap(data)), null, "/path", null));
+    }
+
+    @Test
+    public void testEmptyMessages() throws Exception {
+        MessageDecoder decoder = MessageDecoder.compile(MessageDefinition.parse("test_msgs/Events", "Empty[] events\n"
+                + "================================================================================\n"
+                + "MSG: std_msgs/Empty\n"));
+        byte[] data = BagBuilder.le(4).putInt(3).array();
+        GenericMessage m = decoder.decode(new RosMessageData(data.length, new BufferByteSource(ByteBuffer.wrap(data)), null, "/events", null));
+        assertEquals(3, ((GenericMessage[]) m.get("events")).length);
+    }
+
+}
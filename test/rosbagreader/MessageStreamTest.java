@@ -0,0 +1,82 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class MessageStreamTest {
+
+    private static final int COUNT = 1000;
+
+    public MessageStreamTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static double value(RosMessageData message) {
+        try {
+            return message.readDouble();
+        } catch (Exception ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    @Test
+    public void testParallelOrdered() throws Exception {
+        RosbagReader reader = ParallelParseTest.open(ParallelParseTest.createBag("lz4", true));
+        //the messages are read after the whole stream has been collected
+        List<RosMessageData> messages = reader.messages().parallel().collect(Collectors.toList());
+        List<Double> res = messages.stream().map(MessageStreamTest::value).collect(Collectors.toList());
+        ParallelParseTest.assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testTopicsAndShortCircuit() throws Exception {
+        RosbagReader reader = ParallelParseTest.open(ParallelParseTest.createBag("none", true));
+        long count = reader.messages(Collections.singleton("/ardrone/image_raw")).count();
+        assertEquals((COUNT + 2) / 3, count);
+        List<Double> first = reader.messages().limit(3).map(MessageStreamTest::value).collect(Collectors.toList());
+        assertEquals(3, first.size());
+        assertEquals(2, first.get(2), 0);
+        Optional<RosMessageData> last = reader.messages().parallel()
+                .filter(m -> m.getTimeAsNanos() == (COUNT - 1) * 1_000_000_000L).findFirst();
+        assertEquals(COUNT - 1, value(last.get()), 0);
+    }
+
+    @Test
+    public void testNotIndexed() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(ParallelParseTest.createBag("bz2", false)));
+        List<RosMessageData> messages = reader.messages().parallel().collect(Collectors.toList());
+        List<Double> res = messages.stream().map(MessageStreamTest::value).collect(Collectors.toList());
+        ParallelParseTest.assertAllInOrder(res, COUNT);
+    }
+
+}
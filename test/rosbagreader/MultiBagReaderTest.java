@@ -0,0 +1,134 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class MultiBagReaderTest {
+
+    private static final int COUNT = 900;
+    private final List<Path> files = new ArrayList<>();
+
+    public MultiBagReaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    /**
+     * Three bags, the message with the time i is in the bag i % 3.
+     */
+    @Before
+    public void setUp() throws IOException {
+        for (int bag = 0; bag < 3; bag++) {
+            BagBuilder b = new BagBuilder(256).compression(bag == 1 ? "lz4" : "none");
+            int conn = b.connection("/sensor" + bag);
+            for (int i = bag; i < COUNT; i += 3) {
+                b.message(conn, i, 0, BagBuilder.float64(i));
+            }
+            files.add(b.write(Files.createTempFile("multibag", ".bag")));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMergedByTime() throws Exception {
+        final List<Double> res = new ArrayList<>();
+        try (MultiBagReader reader = new MultiBagReader(files)) {
+            reader.setQueueCapacity(8);
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    assertEquals(res.size() * 1_000_000_000L, message.getTimeAsNanos());
+                    res.add(message.readDouble());
+                }
+            });
+        }
+        assertEquals(COUNT, res.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i, res.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testStreamOfTopics() throws Exception {
+        try (MultiBagReader reader = new MultiBagReader(files)) {
+            List<String> topics;
+            try (Stream<RosMessageData> messages = reader.messages(new java.util.HashSet<>(Arrays.asList("/sensor0", "/sensor2")))) {
+                topics = messages.limit(4).map(RosMessageData::getTopic).collect(Collectors.toList());
+            }
+            assertEquals(Arrays.asList("/sensor0", "/sensor2", "/sensor0", "/sensor2"), topics);
+        }
+    }
+
+    @Test
+    public void testOverlappingChunks() throws Exception {
+        //the odd messages of each bag are recorded 50 seconds late,
+        //so the chunks of the bags overlap in time
+        for (int bag = 0; bag < 2; bag++) {
+            BagBuilder b = new BagBuilder(256).compression("lz4");
+            int conn = b.connection("/late" + bag);
+            for (int i = 0; i < 300; i++) {
+                int time = 2 * i + bag + (i % 2 == 0 ? 0 : 100);
+                b.message(conn, time, 0, BagBuilder.float64(time));
+            }
+            files.add(b.write(Files.createTempFile("multibag", ".bag")));
+        }
+        List<Double> res = new ArrayList<>();
+        try (MultiBagReader reader = new MultiBagReader(files.subList(3, 5))) {
+            assertTrue(reader.getReaders().get(0).getChunkCount() > 10);
+            reader.setQueueCapacity(8);
+            reader.parseBag(ParallelParseTest.collector(res));
+        }
+        assertEquals(600, res.size());
+        for (int i = 1; i < res.size(); i++) {
+            assertTrue(res.get(i - 1) <= res.get(i));
+        }
+    }
+
+    @Test
+    public void testDeliveredByReaders() throws Exception {
+        try (MultiBagReader reader = new MultiBagReader(files)) {
+            for (RosbagReader bag : reader.getReaders()) {
+                bag.enableMetrics();
+            }
+            List<Double> res = new ArrayList<>();
+            reader.parseBag(ParallelParseTest.collector(res));
+            for (int bag = 0; bag < 3; bag++) {
+                ReaderMetrics metrics = reader.getReaders().get(bag).getMetrics();
+                assertEquals(COUNT / 3, metrics.getTopic("/sensor" + bag).getParserLatency().getCount());
+            }
+        }
+    }
+
+}
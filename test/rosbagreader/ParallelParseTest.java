@@ -0,0 +1,126 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class ParallelParseTest {
+
+    private static final int COUNT = 1000;
+    private static ForkJoinPool pool;
+
+    public ParallelParseTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    static byte[] createBag(String compression, boolean index) throws IOException {
+        BagBuilder b = new BagBuilder(256).compression(compression);
+        int navdata = b.connection("/ardrone/navdata");
+        int image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < COUNT; i++) {
+            b.message(i % 3 == 0 ? image : navdata, i, 0, BagBuilder.float64(i));
+        }
+        return b.build(index);
+    }
+
+    static RosbagReader open(byte[] bag) throws Exception {
+        return new RosbagReader(new BufferByteSource(ByteBuffer.wrap(bag)));
+    }
+
+    static RosbagMessageDataParser collector(final List<Double> res) {
+        return new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                res.add(message.readDouble());
+            }
+        };
+    }
+
+    /**
+     * Checks the values collected from a bag with messages 0, 1, ..., count - 1.
+     */
+    static void assertAllInOrder(List<Double> res, int count) {
+        assertEquals(count, res.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, res.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        RosbagReader reader = open(createBag("none", true));
+        final Thread caller = Thread.currentThread();
+        final List<Double> res = new ArrayList<>();
+        reader.parseBagParallel(pool, DeliveryOrder.ORDERED, new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                assertSame(caller, Thread.currentThread());
+                res.add(message.readDouble());
+            }
+        });
+        assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testUnordered() throws Exception {
+        RosbagReader reader = open(createBag("lz4", true));
+        List<Double> res = Collections.synchronizedList(new ArrayList<Double>());
+        reader.parseBagParallel(pool, DeliveryOrder.UNORDERED, collector(res));
+        Collections.sort(res);
+        assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testOrderedCompressed() throws Exception {
+        RosbagReader reader = open(createBag("bz2", true));
+        List<Double> res = new ArrayList<>();
+        reader.parseBagParallel(pool, DeliveryOrder.ORDERED, collector(res));
+        assertAllInOrder(res, COUNT);
+    }
+
+    @Test
+    public void testNotIndexed() throws Exception {
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(createBag("none", false)));
+        List<Double> res = new ArrayList<>();
+        reader.parseBagParallel(pool, DeliveryOrder.UNORDERED, collector(res));
+        assertAllInOrder(res, COUNT);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class ReaderEventsTest {
+
+    private static final int COUNT = 300;
+    private Path file;
+    private Path recordingFile;
+
+    public ReaderEventsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = BagBuilder.writeTempBag("lz4", COUNT);
+        recordingFile = Files.createTempFile("events", ".jfr");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+        Files.delete(recordingFile);
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        int chunks;
+        try (Recording recording = new Recording()) {
+            recording.enable("rosbagreader.ParseBag");
+            recording.enable("rosbagreader.Chunk");
+            recording.enable("rosbagreader.Decompress");
+            recording.enable("rosbagreader.Message").withThreshold(Duration.ZERO);
+            recording.start();
+            try (RosbagReader reader = new RosbagReader(file)) {
+                chunks = reader.getChunkCount();
+                reader.parseBag(message -> message.readDouble());
+            }
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        assertEquals(1, count(events, "rosbagreader.ParseBag"));
+        assertEquals(chunks, count(events, "rosbagreader.Chunk"));
+        assertEquals(chunks, count(events, "rosbagreader.Decompress"));
+        assertEquals(COUNT, count(events, "rosbagreader.Message"));
+        for (RecordedEvent event : events) {
+            switch (event.getEventType().getName()) {
+                case "rosbagreader.ParseBag":
+                    assertEquals(file.toString(), event.getString("file"));
+                    assertFalse(event.getBoolean("indexed"));
+                    break;
+                case "rosbagreader.Chunk":
+                    assertEquals("lz4", event.getString("compression"));
+                    assertTrue(event.getLong("offset") > 0);
+                    assertTrue(event.getInt("size") > 0);
+                    break;
+                case "rosbagreader.Message":
+                    assertTrue(event.getString("topic").startsWith("/ardrone/"));
+                    assertEquals(8, event.getInt("size"));
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testChunksOfTimeWindow() throws Exception {
+        int chunks;
+        try (Recording recording = new Recording()) {
+            recording.enable("rosbagreader.ParseBag");
+            recording.enable("rosbagreader.Chunk");
+            recording.start();
+            try (RosbagReader reader = new RosbagReader(file)) {
+                chunks = reader.getChunkCount();
+                reader.parseBag(new RosTime(0, 0), new RosTime(0, 10), message -> {
+                });
+            }
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        RecordedEvent parseBag = find(events, "rosbagreader.ParseBag");
+        assertTrue(parseBag.getBoolean("indexed"));
+        int parsed = parseBag.getInt("chunks");
+        assertEquals(count(events, "rosbagreader.Chunk"), parsed);
+        assertTrue(parsed > 0);
+        assertTrue(parsed < chunks);
+    }
+
+    @Test
+    public void testFailedParse() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable("rosbagreader.ParseBag");
+            recording.start();
+            try (RosbagReader reader = new RosbagReader(file)) {
+                reader.parseBag(message -> {
+                    throw new IOException("parser failed");
+                });
+                fail();
+            } catch (IOException e) {
+                assertEquals("parser failed", e.getMessage());
+            }
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        assertEquals(0, find(events, "rosbagreader.ParseBag").getInt("chunks"));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        fail("No event " + name);
+        return null;
+    }
+
+    private static int count(List<RecordedEvent> events, String name) {
+        int res = 0;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+}
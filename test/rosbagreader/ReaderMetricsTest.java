@@ -0,0 +1,187 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import javax.management.MBeanServer;
+import javax.management.openmbean.TabularData;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class ReaderMetricsTest {
+
+    private static final int COUNT = 900;
+    private Path file;
+
+    public ReaderMetricsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = BagBuilder.writeTempBag("lz4", COUNT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            assertNull(reader.getMetrics());
+            ReaderMetrics metrics = reader.enableMetrics();
+            assertSame(metrics, reader.enableMetrics());
+            reader.parseBag(Collections.singleton("/ardrone/image_raw"), new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    message.readDouble();
+                }
+            });
+            assertEquals(reader.getChunkCount(), metrics.getChunks());
+            assertTrue(metrics.getCompressedChunkBytes() > 0);
+            assertTrue(metrics.getUncompressedChunkBytes() > metrics.getCompressedChunkBytes());
+            assertEquals(COUNT, metrics.getRecordCount(RosOpCodes.MESSAGE_DATA));
+            assertEquals(reader.getChunkCount(), metrics.getRecordCount(RosOpCodes.CHUNK));
+            assertEquals(COUNT / 3, metrics.getMessages());
+            assertNull(metrics.getTopic("/ardrone/navdata"));
+            TopicMetrics image = metrics.getTopic("/ardrone/image_raw");
+            assertEquals(COUNT / 3, image.getMessages());
+            assertEquals(COUNT / 3 * 8, image.getBytes());
+            assertEquals(COUNT / 3, image.getParserLatency().getCount());
+            //the data of the navdata messages (and of the repeated connection records) are skipped
+            assertTrue(metrics.getBytesSkipped() >= COUNT * 2 / 3 * 8);
+            assertTrue(metrics.getBytesRead() > COUNT / 3 * 8);
+            assertTrue(metrics.getHeaderTimeNanos() > 0);
+            assertTrue(metrics.getParserTimeNanos() > 0);
+            metrics.reset();
+            assertEquals(0, metrics.getMessages());
+            assertTrue(metrics.getTopics().isEmpty());
+        }
+    }
+
+    /**
+     * The uncompressed chunks are parsed directly from the input,
+     * the reads of the stream have to be timed as well.
+     */
+    @Test
+    public void testUncompressed() throws Exception {
+        Path uncompressed = BagBuilder.writeTempBag("none", COUNT);
+        try {
+            try (RosbagReader reader = new RosbagReader(uncompressed)) {
+                ReaderMetrics metrics = reader.enableMetrics();
+                reader.parseBag(message -> {
+                });
+                assertUncompressedMetrics(reader, metrics);
+            }
+            try (InputStream in = new FileInputStream(uncompressed.toFile())) {
+                RosbagReader reader = new RosbagReader(in);
+                ReaderMetrics metrics = reader.enableMetrics();
+                reader.parseBag(message -> {
+                });
+                assertUncompressedMetrics(reader, metrics);
+                assertTrue(metrics.getIoTimeNanos() > 0);
+            }
+            try (InputStream in = new FileInputStream(uncompressed.toFile())) {
+                RosbagReader reader = new RosbagReader(in);
+                ReaderMetrics metrics = reader.enableMetrics();
+                assertEquals(COUNT, reader.messages().count());
+                assertUncompressedMetrics(reader, metrics);
+                assertTrue(metrics.getIoTimeNanos() > 0);
+            }
+        } finally {
+            Files.delete(uncompressed);
+        }
+    }
+
+    private void assertUncompressedMetrics(RosbagReader reader, ReaderMetrics metrics) throws Exception {
+        assertEquals(COUNT, metrics.getMessages());
+        assertEquals(reader.getChunkCount(), metrics.getChunks());
+        assertEquals(metrics.getCompressedChunkBytes(), metrics.getUncompressedChunkBytes());
+    }
+
+    /**
+     * The data which are not parsed are skipped, no matter if they are
+     * in the mapped file or in a decompressed chunk.
+     */
+    @Test
+    public void testSkippedUncompressed() throws Exception {
+        Path uncompressed = BagBuilder.writeTempBag("none", COUNT);
+        try {
+            long skipped;
+            try (RosbagReader reader = new RosbagReader(file)) {
+                ReaderMetrics metrics = reader.enableMetrics();
+                reader.parseBag(Collections.singleton("/ardrone/image_raw"), message -> {
+                });
+                skipped = metrics.getBytesSkipped();
+            }
+            try (RosbagReader reader = new RosbagReader(uncompressed)) {
+                ReaderMetrics metrics = reader.enableMetrics();
+                reader.parseBag(Collections.singleton("/ardrone/image_raw"), message -> {
+                });
+                assertEquals(skipped, metrics.getBytesSkipped());
+            }
+        } finally {
+            Files.delete(uncompressed);
+        }
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            ReaderMetrics metrics = reader.enableMetrics();
+            metrics.register("metrics-test");
+            try {
+                reader.messages().count();
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                assertEquals((long) COUNT, server.getAttribute(metrics.getObjectName(), "Messages"));
+                TabularData topics = (TabularData) server.getAttribute(metrics.getObjectName(), "TopicMessages");
+                assertEquals(2, topics.size());
+            } finally {
+                metrics.unregister();
+            }
+            assertNull(metrics.getObjectName());
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1_000_000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(1023, histogram.getPercentileNanos(50));
+        assertEquals(1023, histogram.getPercentileNanos(99));
+        assertEquals(1_000_000, histogram.getPercentileNanos(100));
+        assertEquals(99, histogram.getBucketCounts()[10]);
+    }
+
+}
@@ -76,6 +76,14 @@ public class ReaderSupportTest {
 		long res = r.readLittleEndianLong(i);
 		assertEquals(Long.MAX_VALUE, res);
 	}
+	@Test
+	public void skipExactCountTest() throws IOException {
+		ReaderSupport r = new ReaderSupport();
+		ByteArrayInputStream i = new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 });
+		assertTrue(r.skipExactCount(i, 3));
+		assertEquals(4, i.read());
+		assertFalse(r.skipExactCount(i, 2L));
+	}
 
 
     
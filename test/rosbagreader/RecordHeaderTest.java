@@ -0,0 +1,114 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.InvalidFieldValueRosbagException;
+import rosbagreader.exceptions.InvalidRosbagFormatException;
+import rosbagreader.exceptions.RequiredFieldMissingRosbagException;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class RecordHeaderTest {
+
+    public RecordHeaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static RecordHeader read(RecordHeader header, byte[] bytes) throws Exception {
+        header.read(new BufferByteSource(ByteBuffer.wrap(bytes)), bytes.length);
+        return header;
+    }
+
+    @Test
+    public void testKnownFields() throws Exception {
+        byte[] bytes = BagBuilder.header("time", BagBuilder.time(12, 345), "topic", BagBuilder.utf8("/imu"),
+                "op", new byte[]{RosOpCodes.MESSAGE_DATA}, "conn", BagBuilder.int32(7));
+        RecordHeader header = read(new RecordHeader(), bytes);
+        assertEquals(RosOpCodes.MESSAGE_DATA, header.getOpCode());
+        assertEquals(7, header.getConnectionId());
+        assertEquals(new RosTime(345, 12).getTimeAsNanos(), header.getTimeAsNanos());
+        Map<String, byte[]> map = header.toMap();
+        assertEquals(4, map.size());
+        assertEquals("/imu", new String(map.get("topic"), "UTF-8"));
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        RecordHeader header = new RecordHeader();
+        read(header, BagBuilder.header("op", new byte[]{RosOpCodes.MESSAGE_DATA}, "conn", BagBuilder.int32(1), "time", BagBuilder.time(1, 0)));
+        ByteBuffer copy = header.copyBytes();
+        read(header, BagBuilder.header("op", new byte[]{RosOpCodes.CHUNK}, "compression", BagBuilder.utf8("none"), "size", BagBuilder.int32(0)));
+        assertEquals(RosOpCodes.CHUNK, header.getOpCode());
+        try {
+            header.getConnectionId();
+            fail();
+        } catch (RequiredFieldMissingRosbagException ex) {
+        }
+        assertEquals(3, RecordHeader.toMap(copy).size());
+        assertArrayEquals(BagBuilder.int32(1), RecordHeader.toMap(copy).get("conn"));
+    }
+
+    @Test(expected = InvalidFieldValueRosbagException.class)
+    public void testInvalidConnLength() throws Exception {
+        read(new RecordHeader(), BagBuilder.header("op", new byte[]{RosOpCodes.MESSAGE_DATA}, "conn", new byte[2])).getConnectionId();
+    }
+
+    @Test(expected = InvalidRosbagFormatException.class)
+    public void testMissingSeparator() throws Exception {
+        byte[] bytes = BagBuilder.le(6).putInt(2).put((byte) 'o').put((byte) 'p').array();
+        read(new RecordHeader(), bytes);
+    }
+
+    @Test
+    public void testMessageHeaderIsCreatedOnRequest() throws Exception {
+        BagBuilder b = new BagBuilder(100);
+        int conn = b.connection("/imu");
+        b.message(conn, 5, 6, BagBuilder.float64(1));
+        RosbagReader reader = new RosbagReader(new ByteArrayInputStream(b.build()));
+        final List<Map<String, byte[]>> headers = new ArrayList<>();
+        reader.parseBag(new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                assertEquals(new RosTime(6, 5).getTimeAsNanos(), message.getTimeAsNanos());
+                assertEquals(6, message.getTime().getNsec());
+                headers.add(message.getHeader());
+            }
+        });
+        assertEquals(1, headers.size());
+        assertEquals(3, headers.get(0).size());
+        assertArrayEquals(BagBuilder.int32(conn), headers.get(0).get("conn"));
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import support.BufferByteSource;
+import support.ByteSource;
+import support.StreamByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class RosMessageDataTest {
+
+    private static final int COUNT = 1080;
+    private static byte[] data;
+
+    public RosMessageDataTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        ByteBuffer b = ByteBuffer.allocate(4 + 4 * COUNT + 4 + 8 * COUNT + 4 + 4 * COUNT + 4 + COUNT).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            b.putFloat(i / 8f);
+        }
+        b.putInt(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            b.putDouble(-i / 16.0);
+        }
+        b.putInt(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            b.putInt(i * 1000);
+        }
+        b.putInt(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            b.put((byte) i);
+        }
+        data = b.array();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static RosMessageData message(ByteSource source) {
+        return new RosMessageData(data.length, source, new HashMap<String, byte[]>(), "/scan", null);
+    }
+
+    /**
+     * Stream returning at most 7 bytes per read, so the values cross the
+     * boundaries of the blocks read by the source.
+     */
+    private static InputStream slowStream() {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+
+    private static void assertArrays(RosMessageData m) throws Exception {
+        float[] floats = new float[COUNT + 1];
+        assertEquals(COUNT, m.readFloatArray(floats, 1));
+        double[] doubles = new double[COUNT];
+        assertEquals(COUNT, m.readDoubleArray(doubles, 0));
+        int[] ints = new int[COUNT];
+        assertEquals(COUNT, m.readIntArray(ints, 0));
+        byte[] bytes = new byte[COUNT];
+        assertEquals(COUNT, m.readByteArray(bytes, 0));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i / 8f, floats[i + 1], 0);
+            assertEquals(-i / 16.0, doubles[i], 0);
+            assertEquals(i * 1000, ints[i]);
+            assertEquals((byte) i, bytes[i]);
+        }
+        assertEquals(0, m.getBytesLeft());
+    }
+
+    @Test
+    public void testArraysFromBuffer() throws Exception {
+        assertArrays(message(new BufferByteSource(ByteBuffer.wrap(data))));
+    }
+
+    @Test
+    public void testArraysFromStream() throws Exception {
+        assertArrays(message(new StreamByteSource(slowStream())));
+    }
+
+    @Test
+    public void testBufferViews() throws Exception {
+        RosMessageData heap = message(new BufferByteSource(ByteBuffer.wrap(data)));
+        RosMessageData stream = message(new StreamByteSource(slowStream()));
+        FloatBuffer floats = ByteBuffer.allocateDirect(4 * COUNT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        assertEquals(COUNT, heap.readFloatArray(floats));
+        assertFalse(floats.hasRemaining());
+        DoubleBuffer doubles = DoubleBuffer.allocate(COUNT + 2);
+        doubles.position(2);
+        assertEquals(COUNT, stream.readFloatArray(FloatBuffer.allocate(COUNT)));
+        assertEquals(COUNT, stream.readDoubleArray(doubles));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i / 8f, floats.get(i), 0);
+            assertEquals(-i / 16.0, doubles.get(i + 2), 0);
+        }
+    }
+
+    @Test
+    public void testUnsignedIntArray() throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(2 * (4 + 4 * 3)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 2; i++) {
+            b.putInt(3).putInt(-1).putInt(Integer.MIN_VALUE).putInt(5);
+        }
+        RosMessageData m = new RosMessageData(b.capacity(), new StreamByteSource(new ByteArrayInputStream(b.array())), new HashMap<String, byte[]>(), "/scan", null);
+        assertArrayEquals(new long[]{0xFFFFFFFFL, 0x80000000L, 5}, m.readUnsignedIntArray());
+        long[] values = new long[4];
+        assertEquals(3, m.readUnsignedIntArray(values, 1));
+        assertArrayEquals(new long[]{0, 0xFFFFFFFFL, 0x80000000L, 5}, values);
+        assertEquals(0, m.getBytesLeft());
+    }
+
+    @Test
+    public void testLongUnsignedIntArray() throws Exception {
+        RosMessageData m = message(new StreamByteSource(slowStream()));
+        m.readFloatArray();
+        m.readDoubleArray();
+        long[] values = m.readUnsignedIntArray();
+        assertEquals(COUNT, values.length);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i * 1000, values[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArrayTooSmall() throws Exception {
+        message(new BufferByteSource(ByteBuffer.wrap(data))).readFloatArray(new float[COUNT - 1], 0);
+    }
+
+}
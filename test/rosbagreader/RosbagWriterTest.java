@@ -0,0 +1,128 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class RosbagWriterTest {
+
+    private static final int COUNT = 1000;
+    private Path file;
+
+    public RosbagWriterTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("writer", ".bag");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    private void assertBag() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            assertTrue(reader.isIndexed());
+            assertEquals(2, reader.getConnectionCount());
+            BagIndex index = reader.readIndex();
+            assertEquals(reader.getChunkCount(), index.getChunks().size());
+            assertTrue(index.getChunks().size() > 10);
+            assertEquals("std_msgs/Float64", index.getConnection(1).getType());
+            final List<Double> res = new ArrayList<>();
+            reader.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    assertEquals(message.getTopic(), res.size() % 3 == 0 ? "/ardrone/image_raw" : "/ardrone/navdata");
+                    res.add(message.readDouble());
+                }
+            });
+            assertEquals(COUNT, res.size());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, res.get(i), 0);
+            }
+            IndexEntry entry = index.find(0, new RosTime(0, 500));
+            final double[] value = new double[1];
+            reader.parseMessage(entry, new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    value[0] = message.readDouble();
+                }
+            });
+            assertEquals(500, value[0], 0);
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        for (String compression : new String[]{"none", "lz4", "bz2"}) {
+            BagBuilder.writeBag(file, compression, COUNT);
+            assertBag();
+        }
+    }
+
+    @Test
+    public void testWriteFromChannelPosition() throws Exception {
+        byte[] prefix = new byte[100];
+        try (RosbagWriter writer = new RosbagWriter(FileChannel.open(file, StandardOpenOption.WRITE).position(prefix.length), "lz4")) {
+            BagBuilder.writeBag(writer, COUNT);
+        }
+        byte[] bag = Files.readAllBytes(file);
+        assertArrayEquals(prefix, Arrays.copyOf(bag, prefix.length));
+        Files.write(file, Arrays.copyOfRange(bag, prefix.length, bag.length));
+        assertBag();
+    }
+
+    @Test
+    public void testCopyMessages() throws Exception {
+        RosbagReader source = new RosbagReader(new BufferByteSource(ByteBuffer.wrap(ParallelParseTest.createBag("none", true))));
+        try (final RosbagWriter writer = new RosbagWriter(file, "lz4")) {
+            source.parseBag(new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    writer.write(message);
+                }
+            });
+        }
+        try (RosbagReader reader = new RosbagReader(file)) {
+            List<Double> res = new ArrayList<>();
+            reader.parseBag(ParallelParseTest.collector(res));
+            assertEquals(1000, res.size());
+            assertEquals(999, res.get(999), 0);
+            assertEquals("/ardrone/image_raw", reader.readIndex().getConnection(0).getTopic());
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+
+/**
+ * Sidecar index of a bag which has not been indexed and whose last chunk
+ * has not been written completely.
+ *
+ * @author Tomas Prochazka
+ */
+public class SidecarIndexTest {
+
+    private Path file;
+    private Path indexFile;
+    private int navdata;
+    private int image;
+
+    public SidecarIndexTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        BagBuilder b = new BagBuilder(200).compression("lz4");
+        navdata = b.connection("/ardrone/navdata");
+        image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < 100; i++) {
+            b.message(navdata, 10 + i, 0, BagBuilder.float64(i));
+            if (i % 10 == 0) {
+                b.message(image, 10 + i, 5, new byte[64]);
+            }
+        }
+        byte[] bag = b.build(false);
+        file = Files.createTempFile("rosbagreader", ".bag");
+        Files.write(file, Arrays.copyOf(bag, bag.length - 150));
+        indexFile = file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+        Files.deleteIfExists(indexFile);
+    }
+
+    private static double parseMessage(RosbagReader reader, IndexEntry entry) throws Exception {
+        final double[] value = new double[1];
+        reader.parseMessage(entry, new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                value[0] = message.readDouble();
+            }
+        });
+        return value[0];
+    }
+
+    @Test
+    public void testBuildAndReopen() throws Exception {
+        int entries;
+        try (RosbagReader reader = new RosbagReader(file)) {
+            assertFalse(reader.isIndexed());
+            BagIndex index = reader.readIndex(indexFile);
+            assertTrue(reader.isIndexed());
+            assertTrue(Files.exists(indexFile));
+            entries = index.getEntries(navdata).size();
+            //the messages of the incomplete chunk are not indexed
+            assertTrue(entries > 80 && entries < 100);
+            assertEquals(47, parseMessage(reader, index.find(navdata, new RosTime(0, 57))), 0);
+        }
+        long modified = Files.getLastModifiedTime(indexFile).toMillis();
+        try (RosbagReader reader = new RosbagReader(file)) {
+            BagIndex index = reader.readIndex(indexFile);
+            assertEquals(modified, Files.getLastModifiedTime(indexFile).toMillis());
+            assertEquals(entries, index.getEntries(navdata).size());
+            assertEquals(10, index.getEntries(image).size());
+            assertEquals("/ardrone/image_raw", index.getConnection(image).getTopic());
+            assertEquals(30, parseMessage(reader, index.find(navdata, new RosTime(0, 40))), 0);
+            final int[] count = new int[1];
+            reader.parseBag(Collections.singleton("/ardrone/image_raw"), new RosbagMessageDataParser() {
+
+                @Override
+                public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                    count[0]++;
+                }
+            });
+            assertEquals(10, count[0]);
+        }
+    }
+
+    @Test
+    public void testStaleIndexIsRebuilt() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            reader.readIndex(indexFile);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60_000));
+        assertNull(SidecarIndex.read(null, indexFile, file));
+        try (RosbagReader reader = new RosbagReader(file)) {
+            reader.readIndex(indexFile);
+        }
+        assertNotNull(SidecarIndex.read(null, indexFile, file));
+    }
+
+    private static void skipBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    @Test
+    public void testDamagedCounts() throws Exception {
+        try (RosbagReader reader = new RosbagReader(file)) {
+            reader.readIndex(indexFile);
+        }
+        byte[] index = Files.readAllBytes(indexFile);
+        //positions of all the counts in the file, see the layout in SidecarIndex
+        List<Integer> counts = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(index).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(28);
+        counts.add(buffer.position());
+        int connectionCount = buffer.getInt();
+        for (int i = 0; i < connectionCount; i++) {
+            buffer.getInt();
+            skipBytes(buffer);
+            counts.add(buffer.position());
+            int fieldCount = buffer.getInt();
+            for (int j = 0; j < fieldCount; j++) {
+                skipBytes(buffer);
+                skipBytes(buffer);
+            }
+        }
+        counts.add(buffer.position());
+        int chunkCount = buffer.getInt();
+        for (int i = 0; i < chunkCount; i++) {
+            buffer.position(buffer.position() + 24);
+            counts.add(buffer.position());
+            buffer.position(buffer.position() + 4 + 8 * buffer.getInt());
+        }
+        counts.add(buffer.position());
+        int indexCount = buffer.getInt();
+        for (int i = 0; i < indexCount; i++) {
+            buffer.getInt();
+            counts.add(buffer.position());
+            buffer.getInt();
+        }
+        for (int value : new int[]{-1, Integer.MAX_VALUE, 1 << 28}) {
+            for (int position : counts) {
+                byte[] damaged = index.clone();
+                ByteBuffer.wrap(damaged).order(ByteOrder.LITTLE_ENDIAN).putInt(position, value);
+                Files.write(indexFile, damaged);
+                assertNull(SidecarIndex.read(null, indexFile, file));
+            }
+        }
+    }
+
+}
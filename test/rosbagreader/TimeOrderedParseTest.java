@@ -0,0 +1,111 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfRosbagFileException;
+import support.BufferByteSource;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class TimeOrderedParseTest {
+
+    private static final int COUNT = 400;
+
+    public TimeOrderedParseTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * The odd messages are recorded 50 seconds late, so every chunk
+     * overlaps with the following ones.
+     */
+    private static RosbagReader overlappingBag(List<Double> times) throws Exception {
+        BagBuilder b = new BagBuilder(256).compression("lz4");
+        int navdata = b.connection("/ardrone/navdata");
+        int image = b.connection("/ardrone/image_raw");
+        for (int i = 0; i < COUNT; i++) {
+            int time = i % 2 == 0 ? i : i + 50;
+            b.message(i % 3 == 0 ? image : navdata, time, 0, BagBuilder.float64(time));
+            times.add((double) time);
+        }
+        return new RosbagReader(new BufferByteSource(ByteBuffer.wrap(b.build())));
+    }
+
+    private static RosbagMessageDataParser collector(final List<Double> res) {
+        return new RosbagMessageDataParser() {
+
+            @Override
+            public void parseMessageData(RosMessageData message) throws IOException, UnexpectedEndOfRosbagFileException {
+                res.add(message.readDouble());
+            }
+        };
+    }
+
+    @Test
+    public void testTimeOrder() throws Exception {
+        List<Double> expected = new ArrayList<>();
+        RosbagReader reader = overlappingBag(expected);
+        assertTrue(reader.getChunkCount() > 10);
+        Collections.sort(expected);
+        List<Double> res = new ArrayList<>();
+        reader.parseBagInTimeOrder(collector(res));
+        assertEquals(expected, res);
+    }
+
+    @Test
+    public void testTopics() throws Exception {
+        RosbagReader reader = overlappingBag(new ArrayList<Double>());
+        List<Double> res = new ArrayList<>();
+        reader.parseBagInTimeOrder(Collections.singleton("/ardrone/image_raw"), collector(res));
+        assertEquals((COUNT + 2) / 3, res.size());
+        for (int i = 1; i < res.size(); i++) {
+            assertTrue(res.get(i - 1) <= res.get(i));
+        }
+    }
+
+    @Test
+    public void testSameTimeInFileOrder() throws Exception {
+        //two messages per chunk, the second chunk is opened first
+        BagBuilder b = new BagBuilder(240);
+        int navdata = b.connection("/ardrone/navdata");
+        b.message(navdata, 8, 0, BagBuilder.float64(0));
+        b.message(navdata, 10, 0, BagBuilder.float64(1));
+        b.message(navdata, 5, 0, BagBuilder.float64(2));
+        b.message(navdata, 10, 0, BagBuilder.float64(3));
+        RosbagReader reader = new RosbagReader(new BufferByteSource(ByteBuffer.wrap(b.build())));
+        assertEquals(2, reader.getChunkCount());
+        List<Double> res = new ArrayList<>();
+        reader.parseBagInTimeOrder(collector(res));
+        assertEquals(Arrays.asList(2.0, 0.0, 1.0, 3.0), res);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ */
+package rosbagreader;
+
+import java.io.ByteArrayInputStream;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomas Prochazka
+ */
+public class TopicColumnStoreTest {
+
+    private static final int COUNT = 3000;
+    private static byte[] bag;
+
+    public TopicColumnStoreTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        BagBuilder b = new BagBuilder(4000);
+        int navdata = b.connection("/ardrone/navdata");
+        int other = b.connection("/other");
+        for (int i = 0; i < COUNT; i++) {
+            b.message(navdata, i, 5, BagBuilder.float64(i / 2.0));
+            b.message(other, i, 6, BagBuilder.float64(-1));
+        }
+        bag = b.build();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testHeapColumns() throws Exception {
+        TopicColumnStore store = new TopicColumnStore("/ardrone/navdata", "data");
+        new RosbagReader(new ByteArrayInputStream(bag)).parseBag(store);
+        assertEquals(COUNT, store.size());
+        LongBuffer times = store.getTimes();
+        DoubleBuffer values = store.getDoubleColumn(0);
+        assertEquals(COUNT, times.remaining());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i * 1_000_000_000L + 5, times.get(i));
+            assertEquals(i / 2.0, values.get(i), 0);
+        }
+        assertEquals(7, store.get(0, 14), 0);
+        assertEquals("data", store.getColumnName(0));
+    }
+
+    @Test
+    public void testOffHeapSinglePrecision() throws Exception {
+        TopicColumnStore store = new TopicColumnStore("/ardrone/navdata", "data", "data");
+        store.setOffHeap(true);
+        store.setSinglePrecision(true);
+        new RosbagReader(new ByteArrayInputStream(bag)).parseBag(store);
+        assertEquals(COUNT, store.size());
+        FloatBuffer values = store.getFloatColumn(1);
+        assertTrue(values.isDirect());
+        assertEquals(COUNT, values.remaining());
+        assertEquals(1499.5f, values.get(COUNT - 1), 0);
+        assertEquals((COUNT - 1) * 1_000_000_000L + 5, store.getTime(COUNT - 1));
+        try {
+            store.setOffHeap(false);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testCapacityFromIndex() throws Exception {
+        TopicColumnStore store = new TopicColumnStore("/ardrone/navdata", "data");
+        store.setOffHeap(true);
+        RosbagReader reader = ParallelParseTest.open(bag);
+        store.setCapacity(reader.readIndex());
+        assertEquals(COUNT, store.getCapacity());
+        reader.parseBag(store);
+        assertEquals(COUNT, store.size());
+        assertEquals(COUNT, store.getCapacity());
+        assertEquals(COUNT, store.getTimes().capacity());
+    }
+
+    @Test
+    public void testGrowAtLimit() {
+        assertEquals(2048, TopicColumnStore.grow(1024, Integer.MAX_VALUE / 8));
+        assertEquals(Integer.MAX_VALUE / 8, TopicColumnStore.grow(Integer.MAX_VALUE / 8 - 1, Integer.MAX_VALUE / 8));
+        try {
+            TopicColumnStore.grow(Integer.MAX_VALUE / 8, Integer.MAX_VALUE / 8);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        TopicColumnStore store = new TopicColumnStore("/ardrone/navdata", "data");
+        store.setOffHeap(true);
+        try {
+            store.setCapacity(Integer.MAX_VALUE / 8 + 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ */
+package support;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Skips and seeks inside and outside the buffered block of a file.
+ *
+ * @author Tomas Prochazka
+ */
+public class ChannelByteSourceTest {
+
+    private static final int COUNT = StreamByteSource.BUFFER_SIZE / 2;
+    private Path file;
+    private ChannelByteSource source;
+
+    public ChannelByteSourceTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(COUNT * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < COUNT; i++) {
+            b.putInt(i);
+        }
+        file = Files.createTempFile("channel", ".bin");
+        Files.write(file, b.array());
+        source = new ChannelByteSource(new RandomAccessFile(file.toFile(), "r"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        source.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testSkipAndSeek() throws Exception {
+        assertEquals(0, source.readLittleEndianInt());
+        assertTrue(source.skip(4 * 9));
+        assertEquals(10, source.readLittleEndianInt());
+        //behind the buffer
+        assertTrue(source.skip(4L * COUNT / 2));
+        assertEquals(11 + COUNT / 2, source.readLittleEndianInt());
+        assertEquals(4L * (12 + COUNT / 2), source.position());
+        source.seek(4 * 3);
+        assertEquals(3, source.readLittleEndianInt());
+        source.seek(4L * (COUNT - 1));
+        assertEquals(COUNT - 1, source.readLittleEndianInt());
+        assertEquals(-1, source.read());
+        source.seek(4 * 5);
+        assertEquals(5, source.readLittleEndianInt());
+    }
+
+    @Test
+    public void testSkipPastEnd() throws Exception {
+        assertFalse(source.skip(4L * COUNT + 1));
+        assertEquals(4L * COUNT, source.position());
+        try {
+            source.seek(4L * COUNT + 1);
+            fail();
+        } catch (UnexpectedEndOfFileException ex) {
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ */
+package support;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Reads values crossing the boundaries of small mapped segments.
+ *
+ * @author Tomas Prochazka
+ */
+public class MappedByteSourceTest {
+
+    private Path file;
+    private MappedByteSource source;
+
+    public MappedByteSourceTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(31).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) 7).putInt(Integer.MAX_VALUE).putLong(Long.MIN_VALUE + 5).putDouble(1.25).putFloat(-2.5f).putInt(42).putShort((short) 3);
+        file = Files.createTempFile("mapped", ".bin");
+        Files.write(file, b.array());
+        source = new MappedByteSource(FileChannel.open(file, StandardOpenOption.READ), 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        source.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testValuesAcrossSegments() throws Exception {
+        assertEquals(7, source.read());
+        assertEquals(Integer.MAX_VALUE, source.readLittleEndianInt());
+        assertEquals(Long.MIN_VALUE + 5, source.readLittleEndianLong());
+        assertEquals(1.25, source.readLittleEndianDouble(), 0);
+        assertEquals(-2.5f, source.readLittleEndianFloat(), 0);
+        assertEquals(25, source.position());
+        ByteBuffer slice = source.slice(4);
+        assertEquals(42, slice.getInt());
+        assertEquals(29, source.position());
+        assertTrue(source.skip(2));
+        assertEquals(-1, source.read());
+        ReaderSupport.IntWrapper w = new ReaderSupport.IntWrapper();
+        assertFalse(source.tryReadLittleEndianInt(w));
+    }
+
+    @Test
+    public void testSkipPastEnd() throws Exception {
+        assertTrue(source.skip(30));
+        assertFalse(source.skip(2));
+        assertEquals(31, source.position());
+    }
+
+    @Test
+    public void testChannelClosedWhenNotMapped() throws Exception {
+        //a channel opened only for writing can't be mapped for reading
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        try {
+            new MappedByteSource(channel);
+            fail();
+        } catch (NonReadableChannelException ex) {
+            assertFalse(channel.isOpen());
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ */
+package support;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rosbagreader.exceptions.UnexpectedEndOfFileException;
+
+/**
+ * Reads values crossing the boundaries of the internal buffer from a stream
+ * which returns only a few bytes at a time.
+ *
+ * @author Tomas Prochazka
+ */
+public class StreamByteSourceTest {
+
+    private static final int COUNT = 3 * StreamByteSource.BUFFER_SIZE / 12 + 7;
+
+    public StreamByteSourceTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Stream returning at most 5 bytes per read.
+     */
+    private static InputStream slowStream(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 5));
+            }
+        };
+    }
+
+    private static byte[] data() {
+        ByteBuffer b = ByteBuffer.allocate(1 + COUNT * 12).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) 200);
+        for (int i = 0; i < COUNT; i++) {
+            b.putInt(-i).putDouble(i / 4.0);
+        }
+        return b.array();
+    }
+
+    @Test
+    public void testValuesAcrossBuffers() throws Exception {
+        StreamByteSource source = new StreamByteSource(slowStream(data()));
+        assertEquals(200, source.read());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(-i, source.readLittleEndianInt());
+            assertEquals(i / 4.0, source.readLittleEndianDouble(), 0);
+        }
+        assertEquals(1 + COUNT * 12, source.position());
+        ReaderSupport.IntWrapper w = new ReaderSupport.IntWrapper();
+        assertFalse(source.tryReadLittleEndianInt(w));
+    }
+
+    @Test
+    public void testReadFullySkipAndLimit() throws Exception {
+        byte[] data = data();
+        StreamByteSource source = new StreamByteSource(slowStream(data), data.length - 5);
+        byte[] big = new byte[StreamByteSource.BUFFER_SIZE + 100];
+        source.read();
+        source.readFully(big, 0, big.length);
+        assertEquals(data[big.length], big[big.length - 1]);
+        assertEquals(1 + big.length, source.position());
+        assertTrue(source.skip(12));
+        byte[] small = new byte[12];
+        source.readFully(small, 0, 12);
+        assertEquals(13 + big.length + 12, source.position());
+        assertArrayEquals(java.util.Arrays.copyOfRange(data, 13 + big.length, 25 + big.length), small);
+        assertFalse(source.skip(data.length));
+        try {
+            source.readLittleEndianInt();
+            fail();
+        } catch (UnexpectedEndOfFileException ex) {
+        }
+    }
+
+    /**
+     * FileInputStream reports skipped bytes even behind the end of the file.
+     */
+    @Test
+    public void testSkipBehindEndOfFile() throws Exception {
+        Path file = Files.createTempFile("skip", ".bin");
+        try {
+            Files.write(file, new byte[100]);
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                StreamByteSource source = new StreamByteSource(in);
+                assertTrue(source.skip(100));
+                assertFalse(source.skip(1));
+            }
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                assertFalse(new StreamByteSource(in).skip(101));
+            }
+            ReaderSupport readerSupport = new ReaderSupport();
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                assertTrue(readerSupport.skipExactCount(in, 100));
+                assertFalse(readerSupport.skipExactCount(in, 1));
+            }
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                assertFalse(readerSupport.skipExactCount(in, 5000));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}